@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+/**
+ * Fields marked with this annotation that implement the {@link java.util.Collection} interface
+ * will not have their elements added to them when loading, provided the object owning the field
+ * implements {@link com.trollworks.toolkit.io.xml.TagStreamedElement}. Instead, each element is
+ * handed to the owner as soon as it has been loaded.
+ */
+public @interface XmlStreamed {
+	//
+}
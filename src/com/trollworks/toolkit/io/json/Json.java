@@ -12,11 +12,8 @@
 package com.trollworks.toolkit.io.json;
 
 import com.trollworks.toolkit.annotation.JsonKey;
-import com.trollworks.toolkit.io.Log;
 import com.trollworks.toolkit.io.UrlUtils;
 import com.trollworks.toolkit.utility.Geometry;
-import com.trollworks.toolkit.utility.introspection.FieldAnnotation;
-import com.trollworks.toolkit.utility.introspection.Introspection;
 
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -24,31 +21,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
-import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
+import java.io.Writer;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
 /** Json utilities. */
 @SuppressWarnings("nls")
 public class Json {
-	private Reader	mReader;
-	private int		mIndex;
-	private int		mCharacter	= 1;
-	private int		mLine		= 1;
-	private char	mPrevious;
-	private boolean	mEOF;
-	private boolean	mUsePrevious;
-
 	/**
 	 * Load the contents of a JSON string into an object that has been marked with {@link JsonKey}
 	 * annotations.
@@ -58,8 +41,9 @@ public class Json {
 	 * @return The object that was passed in.
 	 */
 	public static final <T> T load(T obj, String json) throws IOException {
-		if (Introspection.hasDeepFieldAnnotation(obj.getClass(), JsonKey.class)) {
-			return load(obj, asMap(parse(json), false));
+		JsonBinder binder = JsonBinder.get(obj.getClass());
+		if (binder != null) {
+			return binder.load(obj, asMap(parse(json), false));
 		}
 		return obj;
 	}
@@ -73,244 +57,43 @@ public class Json {
 	 * @return The object that was passed in.
 	 */
 	public static final <T> T load(T obj, JsonMap map) {
-		for (FieldAnnotation<JsonKey> fa : Introspection.getDeepFieldAnnotations(obj.getClass(), JsonKey.class)) {
-			loadFieldFromMap(fa.getField(), fa.getAnnotation().value(), obj, map);
+		JsonBinder binder = JsonBinder.get(obj.getClass());
+		if (binder != null) {
+			binder.load(obj, map);
 		}
 		return obj;
 	}
 
-	private static final void loadFieldFromMap(Field field, String name, Object obj, JsonMap map) {
-		Introspection.makeFieldAccessible(field);
-		Class<?> fieldType = field.getType();
-		try {
-			if (fieldType == boolean.class || fieldType == Boolean.class) {
-				field.setBoolean(obj, map.getBoolean(name));
-			} else if (fieldType == byte.class || fieldType == Byte.class) {
-				field.setByte(obj, map.getByte(name));
-			} else if (fieldType == char.class || fieldType == Character.class) {
-				field.setChar(obj, map.getChar(name));
-			} else if (fieldType == int.class || fieldType == Integer.class) {
-				field.setInt(obj, map.getInt(name));
-			} else if (fieldType == long.class || fieldType == Long.class) {
-				field.setLong(obj, map.getLong(name));
-			} else if (fieldType == float.class || fieldType == Float.class) {
-				field.setFloat(obj, map.getFloat(name));
-			} else if (fieldType == double.class || fieldType == Double.class) {
-				field.setDouble(obj, map.getDouble(name));
-			} else if (fieldType == String.class) {
-				field.set(obj, map.getString(name, true));
-			} else if (fieldType.isEnum()) {
-				field.set(obj, extractEnum(map.getString(name, false), (Enum<?>[]) fieldType.getEnumConstants()));
-			} else if (fieldType.isArray()) {
-				field.set(obj, createArray(field, map.getArray(name, true)));
-			} else if (List.class.isAssignableFrom(fieldType)) {
-				field.set(obj, createList(field, map.getArray(name, true)));
-			} else if (Map.class.isAssignableFrom(fieldType)) {
-				field.set(obj, createMap(field, map.getMap(name, true)));
-			} else if (Introspection.hasDeepFieldAnnotation(fieldType, JsonKey.class)) {
-				try {
-					JsonMap objMap = map.getMap(name, true);
-					if (objMap != null) {
-						Constructor<?> constructor = fieldType.getDeclaredConstructor();
-						Introspection.makeConstructorAccessible(constructor);
-						field.set(obj, load(constructor.newInstance(), objMap));
-					} else {
-						field.set(obj, null);
-					}
-				} catch (Exception exception) {
-					Log.error(exception);
-				}
-			} else {
-				Log.error("Unable to restore " + fieldType.getName() + " for key " + name);
-			}
-		} catch (Exception exception) {
-			Log.error(exception);
-		}
+	/**
+	 * Save an object that has been marked with {@link JsonKey} annotations into a JSON map. This
+	 * is the counterpart to {@link #load(Object, JsonMap)}.
+	 *
+	 * @param obj The object to save.
+	 * @return The {@link JsonMap}.
+	 */
+	public static final JsonMap save(Object obj) {
+		JsonBinder binder = JsonBinder.get(obj.getClass());
+		return binder != null ? binder.save(obj) : new JsonMap();
 	}
 
-	/** Does not support creating Arrays containing Arrays, Lists or Maps. */
-	private static final Object createArray(Field field, JsonArray array) {
-		if (array == null) {
-			return null;
-		}
-		int length = array.size();
-		Class<?> fieldType = field.getType().getComponentType();
-		Object data = Array.newInstance(fieldType, length);
-		if (fieldType == boolean.class || fieldType == Boolean.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setBoolean(data, i, array.getBoolean(i));
-			}
-		} else if (fieldType == byte.class || fieldType == Byte.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setByte(data, i, array.getByte(i));
-			}
-		} else if (fieldType == char.class || fieldType == Character.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setChar(data, i, array.getChar(i));
-			}
-		} else if (fieldType == short.class || fieldType == Short.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setShort(data, i, array.getShort(i));
-			}
-		} else if (fieldType == int.class || fieldType == Integer.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setInt(data, i, array.getInt(i));
-			}
-		} else if (fieldType == long.class || fieldType == Long.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setLong(data, i, array.getLong(i));
-			}
-		} else if (fieldType == float.class || fieldType == Float.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setFloat(data, i, array.getFloat(i));
-			}
-		} else if (fieldType == double.class || fieldType == Double.class) {
-			for (int i = 0; i < length; i++) {
-				Array.setDouble(data, i, array.getDouble(i));
-			}
-		} else if (fieldType == String.class) {
-			for (int i = 0; i < length; i++) {
-				Array.set(data, i, array.getString(i, true));
-			}
-		} else if (fieldType.isEnum()) {
-			Enum<?>[] constants = (Enum<?>[]) fieldType.getEnumConstants();
-			for (int i = 0; i < length; i++) {
-				Array.set(data, i, extractEnum(array.getString(i, false), constants));
-			}
-		} else if (Introspection.hasDeepFieldAnnotation(fieldType, JsonKey.class)) {
-			for (int i = 0; i < length; i++) {
-				try {
-					JsonMap objMap = array.getMap(i, true);
-					if (objMap != null) {
-						Constructor<?> constructor = fieldType.getDeclaredConstructor();
-						Introspection.makeConstructorAccessible(constructor);
-						Array.set(data, i, load(constructor.newInstance(), objMap));
-					} else {
-						Array.set(data, i, null);
-					}
-				} catch (Exception exception) {
-					Log.error(exception);
-				}
-			}
+	/**
+	 * Save an object that has been marked with {@link JsonKey} annotations as JSON text, streaming
+	 * it out without building an intermediate {@link JsonMap}. This is the counterpart to
+	 * {@link #load(Object, String)}.
+	 *
+	 * @param obj The object to save.
+	 * @param writer The {@link Writer} to write to. It will be flushed, but not closed.
+	 * @param compact Whether to omit the line breaks and indentation used for pretty output.
+	 */
+	public static final void save(Object obj, Writer writer, boolean compact) throws IOException {
+		JsonWriter out = new JsonWriter(writer, compact);
+		JsonBinder binder = JsonBinder.get(obj.getClass());
+		if (binder != null) {
+			binder.write(obj, out);
 		} else {
-			Log.error("Unable to restore " + fieldType.getName() + " for key " + field.getName());
-		}
-		return data;
-	}
-
-	/** Does not support creating Lists containing Arrays, Lists or Maps. */
-	private static final List<?> createList(Field field, JsonArray array) {
-		if (array != null) {
-			Type genericType = field.getGenericType();
-			if (genericType instanceof ParameterizedType) {
-				try {
-					ParameterizedType pType = (ParameterizedType) genericType;
-					Type[] args = pType.getActualTypeArguments();
-					if (args.length == 1) {
-						Class<?> type = Class.forName(args[0].getTypeName());
-						int length = array.size();
-						List<Object> result = new ArrayList<>(length);
-						for (int i = 0; i < length; i++) {
-							result.add(createObject(type, array.get(i)));
-						}
-						return result;
-					}
-					Log.error("Must have one type argument for a list");
-				} catch (ClassNotFoundException exception) {
-					Log.error(exception);
-				}
-			} else {
-				Log.error("Unable to determine generic type");
-			}
-		}
-		return null;
-	}
-
-	/** Does not support creating Maps containing Arrays, Lists or Maps. */
-	private static final Map<String, ?> createMap(Field field, JsonMap map) {
-		if (map != null) {
-			Type genericType = field.getGenericType();
-			if (genericType instanceof ParameterizedType) {
-				try {
-					ParameterizedType pType = (ParameterizedType) genericType;
-					Type[] args = pType.getActualTypeArguments();
-					if (args.length == 2) {
-						Class<?> keyClass = Class.forName(args[0].getTypeName());
-						if (keyClass == String.class) {
-							Class<?> type = Class.forName(args[1].getTypeName());
-							Map<String, Object> result = new HashMap<>();
-							for (String key : map.keySet()) {
-								result.put(key, createObject(type, map.get(key)));
-							}
-							return result;
-						}
-						Log.error("Only maps with Strings for their keys are permitted");
-					} else {
-						Log.error("Must have two type arguments for a map");
-					}
-				} catch (ClassNotFoundException exception) {
-					Log.error(exception);
-				}
-			} else {
-				Log.error("Unable to determine generic type");
-			}
-		}
-		return null;
-	}
-
-	/** Does not support creating Arrays, Lists or Maps. */
-	private static final Object createObject(Class<?> type, Object jsonData) {
-		if (type == boolean.class || type == Boolean.class) {
-			return asBooleanObject(jsonData);
-		}
-		if (type == byte.class || type == Byte.class) {
-			return asByteObject(jsonData);
-		}
-		if (type == char.class || type == Character.class) {
-			return asCharObject(jsonData);
-		}
-		if (type == int.class || type == Integer.class) {
-			return asIntObject(jsonData);
-		}
-		if (type == long.class || type == Long.class) {
-			return asLongObject(jsonData);
-		}
-		if (type == float.class || type == Float.class) {
-			return asFloatObject(jsonData);
-		}
-		if (type == double.class || type == Double.class) {
-			return asDoubleObject(jsonData);
-		}
-		if (type == String.class) {
-			return asString(jsonData, true);
-		}
-		if (type.isEnum()) {
-			return extractEnum(asString(jsonData, false), (Enum<?>[]) type.getEnumConstants());
-		}
-		if (Introspection.hasDeepFieldAnnotation(type, JsonKey.class)) {
-			try {
-				JsonMap objMap = asMap(jsonData, true);
-				if (objMap != null) {
-					Constructor<?> constructor = type.getDeclaredConstructor();
-					Introspection.makeConstructorAccessible(constructor);
-					return load(constructor.newInstance(), objMap);
-				}
-				return null;
-			} catch (Exception exception) {
-				Log.error(exception);
-			}
-		}
-		Log.error("Unable to create type: " + type.getSimpleName());
-		return null;
-	}
-
-	private static final Enum<?> extractEnum(String value, Enum<?>[] constants) {
-		for (Enum<?> one : constants) {
-			if (one.toString().equals(value)) {
-				return one;
-			}
+			out.startMap().endMap();
 		}
-		return null;
+		out.flush();
 	}
 
 	/**
@@ -318,7 +101,7 @@ public class Json {
 	 * @return The result of loading the data.
 	 */
 	public static final Object parse(Reader reader) throws IOException {
-		return new Json(reader).nextValue();
+		return new JsonReader(reader).nextValue();
 	}
 
 	/**
@@ -354,7 +137,21 @@ public class Json {
 	 * @return The result of loading the data.
 	 */
 	public static final Object parse(String string) throws IOException {
-		return parse(new StringReader(string));
+		return new JsonReader(string).nextValue();
+	}
+
+	/**
+	 * Maps a UTF-8 JSON file into memory and returns a read-mostly view of it. The file is checked
+	 * and indexed up front, but values are only decoded as they are retrieved, so touching a small
+	 * part of a large file is far cheaper than {@link #parse(InputStream)}. Arrays are decoded in
+	 * full when first retrieved; maps are returned as views whose contents are copied into memory
+	 * only if they are modified.
+	 *
+	 * @param path A {@link Path} to load JSON data from.
+	 * @return The result of mapping the data.
+	 */
+	public static final Object map(Path path) throws IOException {
+		return JsonMappedFile.map(path);
 	}
 
 	/**
@@ -722,21 +519,15 @@ public class Json {
 					array.put(value);
 				}
 			} else if (object instanceof int[]) {
-				for (int value : (int[]) object) {
-					array.put(value);
-				}
+				array.putAll((int[]) object);
 			} else if (object instanceof long[]) {
-				for (long value : (long[]) object) {
-					array.put(value);
-				}
+				array.putAll((long[]) object);
 			} else if (object instanceof float[]) {
 				for (float value : (float[]) object) {
 					array.put(value);
 				}
 			} else if (object instanceof double[]) {
-				for (double value : (double[]) object) {
-					array.put(value);
-				}
+				array.putAll((double[]) object);
 			} else {
 				for (Object obj : (Object[]) object) {
 					array.put(wrap(obj));
@@ -757,18 +548,9 @@ public class Json {
 		if (object instanceof Rectangle) {
 			return Geometry.toString((Rectangle) object);
 		}
-		if (Introspection.hasDeepFieldAnnotation(type, JsonKey.class)) {
-			JsonMap map = new JsonMap();
-			for (FieldAnnotation<JsonKey> fa : Introspection.getDeepFieldAnnotations(type, JsonKey.class)) {
-				Field field = fa.getField();
-				Introspection.makeFieldAccessible(field);
-				try {
-					map.put(fa.getAnnotation().value(), field.get(object));
-				} catch (IllegalAccessException exception) {
-					Log.error(exception);
-				}
-			}
-			return map;
+		JsonBinder binder = JsonBinder.get(type);
+		if (binder != null) {
+			return binder.save(object);
 		}
 		return object.toString();
 	}
@@ -828,288 +610,4 @@ public class Json {
 		buffer.append('"');
 		return buffer.toString();
 	}
-
-	private Json(Reader reader) {
-		mReader = reader;
-	}
-
-	private char next() throws IOException {
-		int c;
-		if (mUsePrevious) {
-			mUsePrevious = false;
-			c = mPrevious;
-		} else {
-			c = mReader.read();
-			if (c <= 0) { // End of stream
-				mEOF = true;
-				c = 0;
-			}
-		}
-		mIndex++;
-		if (mPrevious == '\r') {
-			mLine++;
-			mCharacter = c == '\n' ? 0 : 1;
-		} else if (c == '\n') {
-			mLine++;
-			mCharacter = 0;
-		} else {
-			mCharacter++;
-		}
-		mPrevious = (char) c;
-		return mPrevious;
-	}
-
-	private char nextSkippingWhitespace() throws IOException {
-		for (;;) {
-			char c = next();
-			if (c == 0 || c > ' ') {
-				return c;
-			}
-		}
-	}
-
-	private Object nextValue() throws IOException {
-		char c = nextSkippingWhitespace();
-		String s;
-
-		switch (c) {
-			case '"':
-			case '\'':
-				return nextString(c);
-			case '{':
-				back();
-				return nextMap();
-			case '[':
-			case '(':
-				back();
-				return nextArray();
-			default:
-				break;
-		}
-
-		StringBuffer sb = new StringBuffer();
-		while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-			sb.append(c);
-			c = next();
-		}
-		back();
-
-		s = sb.toString().trim();
-		if (s.equals("")) {
-			throw syntaxError("Missing value");
-		}
-		if (s.equalsIgnoreCase("true")) {
-			return Boolean.TRUE;
-		}
-		if (s.equalsIgnoreCase("false")) {
-			return Boolean.FALSE;
-		}
-		if (s.equalsIgnoreCase("null")) {
-			return JsonNull.INSTANCE;
-		}
-
-		char b = s.charAt(0);
-		if (b >= '0' && b <= '9' || b == '.' || b == '-' || b == '+') {
-			if (b == '0' && s.length() > 2 && (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
-				try {
-					return new Integer(Integer.parseInt(s.substring(2), 16));
-				} catch (Exception ignore) {
-					Log.error(ignore);
-				}
-			}
-			try {
-				if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
-					return Double.valueOf(s);
-				}
-				Long myLong = new Long(s);
-				if (myLong.longValue() == myLong.intValue()) {
-					return new Integer(myLong.intValue());
-				}
-				return myLong;
-			} catch (Exception ignore) {
-				Log.error(ignore);
-			}
-		}
-		return s;
-	}
-
-	private JsonArray nextArray() throws IOException {
-		char c = nextSkippingWhitespace();
-		char q;
-		if (c == '[') {
-			q = ']';
-		} else if (c == '(') {
-			q = ')';
-		} else {
-			throw syntaxError("A JSONArray text must start with '['");
-		}
-		JsonArray array = new JsonArray();
-		if (nextSkippingWhitespace() == ']') {
-			return array;
-		}
-		back();
-		for (;;) {
-			if (nextSkippingWhitespace() == ',') {
-				back();
-				array.put((Object) null);
-			} else {
-				back();
-				array.put(nextValue());
-			}
-			c = nextSkippingWhitespace();
-			switch (c) {
-				case ';':
-				case ',':
-					if (nextSkippingWhitespace() == ']') {
-						return array;
-					}
-					back();
-					break;
-				case ']':
-				case ')':
-					if (q != c) {
-						throw syntaxError("Expected a '" + Character.toString(q) + "'");
-					}
-					return array;
-				default:
-					throw syntaxError("Expected a ',' or ']'");
-			}
-		}
-	}
-
-	private JsonMap nextMap() throws IOException {
-		char c;
-		String key;
-
-		if (nextSkippingWhitespace() != '{') {
-			throw syntaxError("JSON object text must begin with '{'");
-		}
-		JsonMap map = new JsonMap();
-		while (true) {
-			c = nextSkippingWhitespace();
-			switch (c) {
-				case 0:
-					throw syntaxError("JSON object text must end with '}'");
-				case '}':
-					return map;
-				default:
-					back();
-					key = nextValue().toString();
-			}
-
-			c = nextSkippingWhitespace();
-			if (c == '=') {
-				if (next() != '>') {
-					back();
-				}
-			} else if (c != ':') {
-				throw syntaxError("Expected a ':' after a key");
-			}
-			if (map.has(key)) {
-				throw new IOException("Duplicate key \"" + key + "\"");
-			}
-			map.put(key, nextValue());
-
-			switch (nextSkippingWhitespace()) {
-				case ';':
-				case ',':
-					if (nextSkippingWhitespace() == '}') {
-						return map;
-					}
-					back();
-					break;
-				case '}':
-					return map;
-				default:
-					throw syntaxError("Expected a ',' or '}'");
-			}
-		}
-	}
-
-	private String nextString(char quote) throws IOException {
-		char c;
-		StringBuffer buffer = new StringBuffer();
-		for (;;) {
-			c = next();
-			switch (c) {
-				case 0:
-				case '\n':
-				case '\r':
-					throw syntaxError("Unterminated string");
-				case '\\':
-					c = next();
-					switch (c) {
-						case 'b':
-							buffer.append('\b');
-							break;
-						case 't':
-							buffer.append('\t');
-							break;
-						case 'n':
-							buffer.append('\n');
-							break;
-						case 'f':
-							buffer.append('\f');
-							break;
-						case 'r':
-							buffer.append('\r');
-							break;
-						case 'u':
-							buffer.append((char) Integer.parseInt(next(4), 16));
-							break;
-						case '"':
-						case '\'':
-						case '\\':
-						case '/':
-							buffer.append(c);
-							break;
-						default:
-							throw syntaxError("Illegal escape.");
-					}
-					break;
-				default:
-					if (c == quote) {
-						return buffer.toString();
-					}
-					buffer.append(c);
-			}
-		}
-	}
-
-	private void back() {
-		if (mUsePrevious || mIndex <= 0) {
-			throw new IllegalStateException("Stepping back two steps is not supported");
-		}
-		mIndex--;
-		mCharacter--;
-		mUsePrevious = true;
-		mEOF = false;
-	}
-
-	private String next(int n) throws IOException {
-		if (n == 0) {
-			return "";
-		}
-
-		char[] buffer = new char[n];
-		int pos = 0;
-
-		while (pos < n) {
-			buffer[pos] = next();
-			if (mEOF && !mUsePrevious) {
-				throw syntaxError("Substring bounds error");
-			}
-			pos++;
-		}
-		return new String(buffer);
-	}
-
-	private IOException syntaxError(String message) {
-		return new IOException(message + toString());
-	}
-
-	@Override
-	public String toString() {
-		return " at " + mIndex + " [character " + mCharacter + " line " + mLine + "]";
-	}
 }
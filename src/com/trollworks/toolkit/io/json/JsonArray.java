@@ -13,19 +13,47 @@ package com.trollworks.toolkit.io.json;
 
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-/** Represents an array in JSON. */
+/**
+ * Represents an array in JSON. While every element is an {@link Integer}, every element is a
+ * {@link Long} or every element is a {@link Double}, the values are held in a packed primitive
+ * array rather than being boxed. Adding any other kind of value switches the array over to general
+ * object storage.
+ */
 public class JsonArray extends JsonCollection {
-	private List<Object> mList = new ArrayList<>();
+	private static final int	OBJECTS	= 0;
+	private static final int	INTS	= 1;
+	private static final int	LONGS	= 2;
+	private static final int	DOUBLES	= 3;
+	private int					mKind	= INTS;
+	private int					mSize;
+	private int[]				mInts;
+	private long[]				mLongs;
+	private double[]			mDoubles;
+	private List<Object>		mList;
 
 	/**
 	 * @param index The index to retrieve.
 	 * @return The value associated with the index or <code>null</code> if no such index exists.
 	 */
 	public Object get(int index) {
-		return index < 0 || index >= size() ? null : mList.get(index);
+		if (index < 0 || index >= size()) {
+			return null;
+		}
+		switch (mKind) {
+			case INTS:
+				return Integer.valueOf(mInts[index]);
+			case LONGS:
+				return Long.valueOf(mLongs[index]);
+			case DOUBLES:
+				return Double.valueOf(mDoubles[index]);
+			default:
+				return mList.get(index);
+		}
 	}
 
 	/**
@@ -43,6 +71,16 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a byte.
 	 */
 	public byte getByte(int index) {
+		if (mKind != OBJECTS && index >= 0 && index < mSize) {
+			switch (mKind) {
+				case INTS:
+					return (byte) mInts[index];
+				case LONGS:
+					return (byte) mLongs[index];
+				default:
+					return (byte) mDoubles[index];
+			}
+		}
 		return Json.asByte(get(index));
 	}
 
@@ -61,6 +99,16 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a short.
 	 */
 	public short getShort(int index) {
+		if (mKind != OBJECTS && index >= 0 && index < mSize) {
+			switch (mKind) {
+				case INTS:
+					return (short) mInts[index];
+				case LONGS:
+					return (short) mLongs[index];
+				default:
+					return (short) mDoubles[index];
+			}
+		}
 		return Json.asShort(get(index));
 	}
 
@@ -70,6 +118,16 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to an integer.
 	 */
 	public int getInt(int index) {
+		if (mKind != OBJECTS && index >= 0 && index < mSize) {
+			switch (mKind) {
+				case INTS:
+					return mInts[index];
+				case LONGS:
+					return (int) mLongs[index];
+				default:
+					return (int) mDoubles[index];
+			}
+		}
 		return Json.asInt(get(index));
 	}
 
@@ -79,6 +137,16 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a long.
 	 */
 	public long getLong(int index) {
+		if (mKind != OBJECTS && index >= 0 && index < mSize) {
+			switch (mKind) {
+				case INTS:
+					return mInts[index];
+				case LONGS:
+					return mLongs[index];
+				default:
+					return (long) mDoubles[index];
+			}
+		}
 		return Json.asLong(get(index));
 	}
 
@@ -88,6 +156,16 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a float.
 	 */
 	public float getFloat(int index) {
+		if (mKind != OBJECTS && index >= 0 && index < mSize) {
+			switch (mKind) {
+				case INTS:
+					return mInts[index];
+				case LONGS:
+					return mLongs[index];
+				default:
+					return (float) mDoubles[index];
+			}
+		}
 		return Json.asFloat(get(index));
 	}
 
@@ -97,6 +175,16 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a double.
 	 */
 	public double getDouble(int index) {
+		if (mKind != OBJECTS && index >= 0 && index < mSize) {
+			switch (mKind) {
+				case INTS:
+					return mInts[index];
+				case LONGS:
+					return mLongs[index];
+				default:
+					return mDoubles[index];
+			}
+		}
 		return Json.asDouble(get(index));
 	}
 
@@ -149,9 +237,45 @@ public class JsonArray extends JsonCollection {
 		return Json.asRectangle(getString(index, true), allowNull);
 	}
 
+	/** @return The contents of the array as integers. */
+	public int[] toIntArray() {
+		if (mKind == INTS) {
+			return mInts == null ? new int[0] : Arrays.copyOf(mInts, mSize);
+		}
+		int[] data = new int[mSize];
+		for (int i = 0; i < mSize; i++) {
+			data[i] = getInt(i);
+		}
+		return data;
+	}
+
+	/** @return The contents of the array as longs. */
+	public long[] toLongArray() {
+		if (mKind == LONGS) {
+			return Arrays.copyOf(mLongs, mSize);
+		}
+		long[] data = new long[mSize];
+		for (int i = 0; i < mSize; i++) {
+			data[i] = getLong(i);
+		}
+		return data;
+	}
+
+	/** @return The contents of the array as doubles. */
+	public double[] toDoubleArray() {
+		if (mKind == DOUBLES) {
+			return Arrays.copyOf(mDoubles, mSize);
+		}
+		double[] data = new double[mSize];
+		for (int i = 0; i < mSize; i++) {
+			data[i] = getDouble(i);
+		}
+		return data;
+	}
+
 	/** @return The number of elements in the array. */
 	public int size() {
-		return mList.size();
+		return mSize;
 	}
 
 	/**
@@ -160,7 +284,24 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(Object value) {
-		mList.add(Json.wrap(value));
+		value = Json.wrap(value);
+		if (mKind != OBJECTS) {
+			if (value instanceof Integer && useKind(INTS)) {
+				put(((Integer) value).intValue());
+				return;
+			}
+			if (value instanceof Long && useKind(LONGS)) {
+				put(((Long) value).longValue());
+				return;
+			}
+			if (value instanceof Double && useKind(DOUBLES)) {
+				put(((Double) value).doubleValue());
+				return;
+			}
+			convertToObjects();
+		}
+		mList.add(value);
+		mSize++;
 	}
 
 	/**
@@ -205,7 +346,12 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(int value) {
-		put(Integer.valueOf(value));
+		if (useKind(INTS)) {
+			mInts = ensureCapacity(mInts, 1);
+			mInts[mSize++] = value;
+		} else {
+			put(Integer.valueOf(value));
+		}
 	}
 
 	/**
@@ -214,7 +360,12 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(long value) {
-		put(Long.valueOf(value));
+		if (useKind(LONGS)) {
+			mLongs = ensureCapacity(mLongs, 1);
+			mLongs[mSize++] = value;
+		} else {
+			put(Long.valueOf(value));
+		}
 	}
 
 	/**
@@ -232,7 +383,115 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(double value) {
-		put(Double.valueOf(value));
+		if (useKind(DOUBLES)) {
+			mDoubles = ensureCapacity(mDoubles, 1);
+			mDoubles[mSize++] = value;
+		} else {
+			put(Double.valueOf(value));
+		}
+	}
+
+	/**
+	 * Adds each of the values to the end of the array.
+	 *
+	 * @param values The values to store.
+	 */
+	public void putAll(int[] values) {
+		if (useKind(INTS)) {
+			mInts = ensureCapacity(mInts, values.length);
+			System.arraycopy(values, 0, mInts, mSize, values.length);
+			mSize += values.length;
+		} else {
+			for (int value : values) {
+				put(value);
+			}
+		}
+	}
+
+	/**
+	 * Adds each of the values to the end of the array.
+	 *
+	 * @param values The values to store.
+	 */
+	public void putAll(long[] values) {
+		if (useKind(LONGS)) {
+			mLongs = ensureCapacity(mLongs, values.length);
+			System.arraycopy(values, 0, mLongs, mSize, values.length);
+			mSize += values.length;
+		} else {
+			for (long value : values) {
+				put(value);
+			}
+		}
+	}
+
+	/**
+	 * Adds each of the values to the end of the array.
+	 *
+	 * @param values The values to store.
+	 */
+	public void putAll(double[] values) {
+		if (useKind(DOUBLES)) {
+			mDoubles = ensureCapacity(mDoubles, values.length);
+			System.arraycopy(values, 0, mDoubles, mSize, values.length);
+			mSize += values.length;
+		} else {
+			for (double value : values) {
+				put(value);
+			}
+		}
+	}
+
+	/**
+	 * @param kind The packed storage kind a primitive value would like to use.
+	 * @return <code>true</code> if the array is now using that storage kind.
+	 */
+	private boolean useKind(int kind) {
+		if (mKind == kind) {
+			return true;
+		}
+		if (mSize == 0 && mKind != OBJECTS) {
+			mKind = kind;
+			return true;
+		}
+		return false;
+	}
+
+	private int newCapacity(int additional) {
+		return Math.max(Math.max(8, mSize + (mSize >> 1)), mSize + additional);
+	}
+
+	private int[] ensureCapacity(int[] storage, int additional) {
+		if (storage == null) {
+			return new int[newCapacity(additional)];
+		}
+		return mSize + additional > storage.length ? Arrays.copyOf(storage, newCapacity(additional)) : storage;
+	}
+
+	private long[] ensureCapacity(long[] storage, int additional) {
+		if (storage == null) {
+			return new long[newCapacity(additional)];
+		}
+		return mSize + additional > storage.length ? Arrays.copyOf(storage, newCapacity(additional)) : storage;
+	}
+
+	private double[] ensureCapacity(double[] storage, int additional) {
+		if (storage == null) {
+			return new double[newCapacity(additional)];
+		}
+		return mSize + additional > storage.length ? Arrays.copyOf(storage, newCapacity(additional)) : storage;
+	}
+
+	private void convertToObjects() {
+		List<Object> list = new ArrayList<>(Math.max(mSize, 10));
+		for (int i = 0; i < mSize; i++) {
+			list.add(get(i));
+		}
+		mKind = OBJECTS;
+		mList = list;
+		mInts = null;
+		mLongs = null;
+		mDoubles = null;
 	}
 
 	/**
@@ -247,7 +506,18 @@ public class JsonArray extends JsonCollection {
 		if (index >= 0) {
 			value = Json.wrap(value);
 			if (index < size()) {
-				mList.set(index, value);
+				if (mKind == INTS && value instanceof Integer) {
+					mInts[index] = ((Integer) value).intValue();
+				} else if (mKind == LONGS && value instanceof Long) {
+					mLongs[index] = ((Long) value).longValue();
+				} else if (mKind == DOUBLES && value instanceof Double) {
+					mDoubles[index] = ((Double) value).doubleValue();
+				} else {
+					if (mKind != OBJECTS) {
+						convertToObjects();
+					}
+					mList.set(index, value);
+				}
 			} else {
 				while (index != size()) {
 					put(JsonNull.INSTANCE);
@@ -359,9 +629,63 @@ public class JsonArray extends JsonCollection {
 	 * @param index The index of the value to remove.
 	 */
 	public void remove(int index) {
-		if (index >= 0 && index < mList.size()) {
-			mList.remove(index);
+		if (index >= 0 && index < mSize) {
+			switch (mKind) {
+				case INTS:
+					System.arraycopy(mInts, index + 1, mInts, index, mSize - index - 1);
+					break;
+				case LONGS:
+					System.arraycopy(mLongs, index + 1, mLongs, index, mSize - index - 1);
+					break;
+				case DOUBLES:
+					System.arraycopy(mDoubles, index + 1, mDoubles, index, mSize - index - 1);
+					break;
+				default:
+					mList.remove(index);
+					break;
+			}
+			mSize--;
+		}
+	}
+
+	/** @return The packed storage, if the array holds only {@link Integer}s, or <code>null</code>. */
+	int[] packedInts() {
+		return mKind == INTS && mInts != null ? mInts : null;
+	}
+
+	/** @return The packed storage, if the array holds only {@link Long}s, or <code>null</code>. */
+	long[] packedLongs() {
+		return mKind == LONGS ? mLongs : null;
+	}
+
+	/** @return The packed storage, if the array holds only {@link Double}s, or <code>null</code>. */
+	double[] packedDoubles() {
+		return mKind == DOUBLES ? mDoubles : null;
+	}
+
+	/**
+	 * Streams the elements of this array out to a {@link JsonWriter}, without boxing packed
+	 * values.
+	 */
+	void emit(JsonWriter writer) throws IOException {
+		writer.startArray();
+		for (int i = 0; i < mSize; i++) {
+			switch (mKind) {
+				case INTS:
+					writer.value(mInts[i]);
+					break;
+				case LONGS:
+					writer.value(mLongs[i]);
+					break;
+				case DOUBLES:
+					writer.value(mDoubles[i]);
+					break;
+				default:
+					writer.value(mList.get(i));
+					break;
+			}
 		}
+		writer.endArray();
 	}
 
 	@Override
@@ -377,11 +701,21 @@ public class JsonArray extends JsonCollection {
 				buffer.append('\n');
 				indent(buffer, compact, depth);
 			}
-			Object value = mList.get(i);
-			if (value instanceof JsonCollection) {
-				((JsonCollection) value).appendTo(buffer, compact, depth);
-			} else {
-				buffer.append(Json.toString(value));
+			switch (mKind) {
+				case INTS:
+					buffer.append(mInts[i]);
+					break;
+				case LONGS:
+					buffer.append(mLongs[i]);
+					break;
+				default:
+					Object value = get(i);
+					if (value instanceof JsonCollection) {
+						((JsonCollection) value).appendTo(buffer, compact, depth);
+					} else {
+						buffer.append(Json.toString(value));
+					}
+					break;
 			}
 		}
 		if (!compact && len > 0) {
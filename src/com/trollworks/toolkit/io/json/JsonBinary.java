@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A compact, tagged binary encoding for {@link JsonMap}, {@link JsonArray}, {@link JsonNull} and
+ * primitive values. Integers are written as variable-length values, numeric {@link JsonArray}s are
+ * written packed, and each distinct map key is written only once per document, with later
+ * occurrences referring back to it by index. Multi-byte values are always big-endian, so the
+ * encoded form does not depend on the byte order of the {@link ByteBuffer} used.
+ */
+@SuppressWarnings("nls")
+public class JsonBinary {
+	private static final byte		MAGIC_1				= 'J';
+	private static final byte		MAGIC_2				= 'B';
+	private static final byte		VERSION				= 1;
+	private static final byte		TAG_NULL			= 0;
+	private static final byte		TAG_FALSE			= 1;
+	private static final byte		TAG_TRUE			= 2;
+	private static final byte		TAG_INT				= 3;
+	private static final byte		TAG_LONG			= 4;
+	private static final byte		TAG_FLOAT			= 5;
+	private static final byte		TAG_DOUBLE			= 6;
+	private static final byte		TAG_STRING			= 7;
+	private static final byte		TAG_MAP				= 8;
+	private static final byte		TAG_ARRAY			= 9;
+	private static final byte		TAG_INT_ARRAY		= 10;
+	private static final byte		TAG_LONG_ARRAY		= 11;
+	private static final byte		TAG_DOUBLE_ARRAY	= 12;
+	private static final int		MAX_DEPTH			= 512;
+	private ByteBuffer				mBuffer;
+	private boolean					mGrowable;
+	private TObjectIntMap<String>	mKeyIds;
+	private List<String>			mKeys;
+	private int						mDepth;
+
+	/**
+	 * Encodes a value into a new byte array.
+	 *
+	 * @param value The value to encode. Other objects are first converted with
+	 *            {@link Json#wrap(Object)}.
+	 * @return The encoded bytes.
+	 */
+	public static final byte[] encode(Object value) {
+		JsonBinary encoder = new JsonBinary(ByteBuffer.allocate(1024), true);
+		encoder.writeDocument(value);
+		ByteBuffer buffer = encoder.mBuffer;
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	/**
+	 * Encodes a value into a {@link ByteBuffer}, starting at its current position.
+	 *
+	 * @param value The value to encode. Other objects are first converted with
+	 *            {@link Json#wrap(Object)}.
+	 * @param buffer The {@link ByteBuffer} to write to.
+	 * @throws BufferOverflowException if the buffer does not have enough space remaining.
+	 */
+	public static final void encode(Object value, ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		try {
+			new JsonBinary(buffer, false).writeDocument(value);
+		} finally {
+			buffer.order(order);
+		}
+	}
+
+	/**
+	 * @param data The encoded bytes.
+	 * @return The decoded value.
+	 */
+	public static final Object decode(byte[] data) throws IOException {
+		return decode(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Decodes a value from a {@link ByteBuffer}, starting at its current position. On return, the
+	 * buffer will be positioned just past the encoded value.
+	 *
+	 * @param buffer The {@link ByteBuffer} to read from.
+	 * @return The decoded value.
+	 */
+	public static final Object decode(ByteBuffer buffer) throws IOException {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		try {
+			if (buffer.get() != MAGIC_1 || buffer.get() != MAGIC_2) {
+				throw new IOException("Not binary JSON data");
+			}
+			byte version = buffer.get();
+			if (version != VERSION) {
+				throw new IOException("Unsupported binary JSON version: " + version);
+			}
+			JsonBinary decoder = new JsonBinary(buffer, false);
+			decoder.mKeys = new ArrayList<>();
+			return decoder.readValue();
+		} catch (BufferUnderflowException | IndexOutOfBoundsException exception) {
+			throw new IOException("Unexpected end of binary JSON data", exception);
+		} finally {
+			buffer.order(order);
+		}
+	}
+
+	private JsonBinary(ByteBuffer buffer, boolean growable) {
+		mBuffer = buffer;
+		mGrowable = growable;
+	}
+
+	private void ensure(int amount) {
+		if (mBuffer.remaining() < amount) {
+			if (!mGrowable) {
+				throw new BufferOverflowException();
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(mBuffer.capacity() * 2, mBuffer.position() + amount));
+			mBuffer.flip();
+			buffer.put(mBuffer);
+			mBuffer = buffer;
+		}
+	}
+
+	private void writeDocument(Object value) {
+		mKeyIds = new TObjectIntHashMap<>(64, 0.5f, -1);
+		ensure(3);
+		mBuffer.put(MAGIC_1);
+		mBuffer.put(MAGIC_2);
+		mBuffer.put(VERSION);
+		writeValue(Json.wrap(value));
+	}
+
+	private void writeValue(Object value) {
+		if (JsonNull.INSTANCE.equals(value)) {
+			writeTag(TAG_NULL);
+		} else if (value instanceof Boolean) {
+			writeTag(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			writeTag(TAG_INT);
+			writeVarLong(zigZag(((Number) value).intValue()));
+		} else if (value instanceof Long) {
+			writeTag(TAG_LONG);
+			writeVarLong(zigZag(((Long) value).longValue()));
+		} else if (value instanceof Float) {
+			writeTag(TAG_FLOAT);
+			ensure(4);
+			mBuffer.putFloat(((Float) value).floatValue());
+		} else if (value instanceof Double) {
+			writeTag(TAG_DOUBLE);
+			ensure(8);
+			mBuffer.putDouble(((Double) value).doubleValue());
+		} else if (value instanceof JsonMap) {
+			JsonMap map = (JsonMap) value;
+			writeTag(TAG_MAP);
+			writeVarLong(map.keySet().size());
+			for (String key : map.keySet()) {
+				writeKey(key);
+				writeValue(map.get(key));
+			}
+		} else if (value instanceof JsonArray) {
+			writeArray((JsonArray) value);
+		} else if (value instanceof Number) {
+			writeTag(TAG_DOUBLE);
+			ensure(8);
+			mBuffer.putDouble(((Number) value).doubleValue());
+		} else {
+			writeTag(TAG_STRING);
+			writeString(value.toString());
+		}
+	}
+
+	private void writeArray(JsonArray array) {
+		int length = array.size();
+		int[] ints = array.packedInts();
+		if (ints != null) {
+			writeTag(TAG_INT_ARRAY);
+			writeVarLong(length);
+			for (int i = 0; i < length; i++) {
+				writeVarLong(zigZag(ints[i]));
+			}
+			return;
+		}
+		long[] longs = array.packedLongs();
+		if (longs != null) {
+			writeTag(TAG_LONG_ARRAY);
+			writeVarLong(length);
+			for (int i = 0; i < length; i++) {
+				writeVarLong(zigZag(longs[i]));
+			}
+			return;
+		}
+		double[] doubles = array.packedDoubles();
+		if (doubles != null) {
+			writeTag(TAG_DOUBLE_ARRAY);
+			writeVarLong(length);
+			ensure(length * 8);
+			for (int i = 0; i < length; i++) {
+				mBuffer.putDouble(doubles[i]);
+			}
+			return;
+		}
+		writeTag(TAG_ARRAY);
+		writeVarLong(length);
+		for (int i = 0; i < length; i++) {
+			writeValue(array.get(i));
+		}
+	}
+
+	private void writeTag(byte tag) {
+		ensure(1);
+		mBuffer.put(tag);
+	}
+
+	/** Keys are written as (length << 1) followed by the text, or (index << 1 | 1) for repeats. */
+	private void writeKey(String key) {
+		int id = mKeyIds.get(key);
+		if (id >= 0) {
+			writeVarLong((long) id << 1 | 1);
+		} else {
+			mKeyIds.put(key, mKeyIds.size());
+			writeString(key, true);
+		}
+	}
+
+	private void writeString(String str) {
+		writeString(str, false);
+	}
+
+	private void writeString(String str, boolean asKey) {
+		int length = str.length();
+		int byteCount = length;
+		for (int i = 0; i < length; i++) {
+			char ch = str.charAt(i);
+			if (ch >= 0x80) {
+				if (ch < 0x800) {
+					byteCount++;
+				} else {
+					byteCount += 2;
+					if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+						i++;
+					}
+				}
+			}
+		}
+		writeVarLong(asKey ? (long) byteCount << 1 : byteCount);
+		ensure(byteCount);
+		ByteBuffer buffer = mBuffer;
+		for (int i = 0; i < length; i++) {
+			char ch = str.charAt(i);
+			if (ch < 0x80) {
+				buffer.put((byte) ch);
+			} else if (ch < 0x800) {
+				buffer.put((byte) (0xC0 | ch >> 6));
+				buffer.put((byte) (0x80 | ch & 0x3F));
+			} else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint(ch, str.charAt(++i));
+				buffer.put((byte) (0xF0 | cp >> 18));
+				buffer.put((byte) (0x80 | cp >> 12 & 0x3F));
+				buffer.put((byte) (0x80 | cp >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | cp & 0x3F));
+			} else {
+				buffer.put((byte) (0xE0 | ch >> 12));
+				buffer.put((byte) (0x80 | ch >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | ch & 0x3F));
+			}
+		}
+	}
+
+	private static long zigZag(long value) {
+		return value << 1 ^ value >> 63;
+	}
+
+	private static long unZigZag(long value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private void writeVarLong(long value) {
+		ensure(10);
+		ByteBuffer buffer = mBuffer;
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private long readVarLong() throws IOException {
+		ByteBuffer buffer = mBuffer;
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length value");
+	}
+
+	private int readCount() throws IOException {
+		return readCount(1);
+	}
+
+	/** @param elementSize The minimum number of bytes each element occupies. */
+	private int readCount(int elementSize) throws IOException {
+		long count = readVarLong();
+		if (count < 0 || count > mBuffer.remaining() / elementSize) {
+			throw new IOException("Invalid element count: " + count);
+		}
+		return (int) count;
+	}
+
+	private Object readValue() throws IOException {
+		byte tag = mBuffer.get();
+		switch (tag) {
+			case TAG_NULL:
+				return JsonNull.INSTANCE;
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_INT:
+				return Integer.valueOf((int) unZigZag(readVarLong()));
+			case TAG_LONG:
+				return Long.valueOf(unZigZag(readVarLong()));
+			case TAG_FLOAT:
+				return Float.valueOf(mBuffer.getFloat());
+			case TAG_DOUBLE:
+				return Double.valueOf(mBuffer.getDouble());
+			case TAG_STRING:
+				return readString(readCount());
+			case TAG_MAP:
+				int count = readCount();
+				JsonMap map = new JsonMap();
+				enterCollection();
+				for (int i = 0; i < count; i++) {
+					String key = readKey();
+					map.put(key, readValue());
+				}
+				mDepth--;
+				return map;
+			case TAG_ARRAY:
+				count = readCount();
+				JsonArray array = new JsonArray();
+				enterCollection();
+				for (int i = 0; i < count; i++) {
+					array.put(readValue());
+				}
+				mDepth--;
+				return array;
+			case TAG_INT_ARRAY:
+				int[] ints = new int[readCount()];
+				for (int i = 0; i < ints.length; i++) {
+					ints[i] = (int) unZigZag(readVarLong());
+				}
+				array = new JsonArray();
+				array.putAll(ints);
+				return array;
+			case TAG_LONG_ARRAY:
+				long[] longs = new long[readCount()];
+				for (int i = 0; i < longs.length; i++) {
+					longs[i] = unZigZag(readVarLong());
+				}
+				array = new JsonArray();
+				array.putAll(longs);
+				return array;
+			case TAG_DOUBLE_ARRAY:
+				double[] doubles = new double[readCount(8)];
+				mBuffer.asDoubleBuffer().get(doubles);
+				mBuffer.position(mBuffer.position() + doubles.length * 8);
+				array = new JsonArray();
+				array.putAll(doubles);
+				return array;
+			default:
+				throw new IOException("Unknown binary JSON tag: " + tag);
+		}
+	}
+
+	private void enterCollection() throws IOException {
+		if (++mDepth > MAX_DEPTH) {
+			throw new IOException("Binary JSON nested more than " + MAX_DEPTH + " levels deep");
+		}
+	}
+
+	private String readKey() throws IOException {
+		long value = readVarLong();
+		if ((value & 1) != 0) {
+			long id = value >>> 1;
+			if (id >= mKeys.size()) {
+				throw new IOException("Invalid key reference: " + id);
+			}
+			return mKeys.get((int) id);
+		}
+		long length = value >>> 1;
+		if (length > mBuffer.remaining()) {
+			throw new IOException("Invalid key length: " + length);
+		}
+		String key = readString((int) length);
+		mKeys.add(key);
+		return key;
+	}
+
+	private String readString(int length) {
+		ByteBuffer buffer = mBuffer;
+		String str;
+		if (buffer.hasArray()) {
+			str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			str = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return str;
+	}
+}
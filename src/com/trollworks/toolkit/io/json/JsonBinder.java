@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import com.trollworks.toolkit.annotation.JsonKey;
+import com.trollworks.toolkit.io.Log;
+import com.trollworks.toolkit.utility.introspection.FieldAnnotation;
+import com.trollworks.toolkit.utility.introspection.Introspection;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps objects marked with {@link JsonKey} annotations to and from JSON. The annotations, field
+ * types, generic element types and constructor of a class are examined once, the first time the
+ * class is seen, and the resulting per-field loaders and writers are reused for every object of
+ * that class thereafter.
+ */
+@SuppressWarnings("nls")
+final class JsonBinder {
+	private static final ClassValue<JsonBinder>	BINDERS	= new ClassValue<JsonBinder>() {
+															@Override
+															protected JsonBinder computeValue(Class<?> type) {
+																return new JsonBinder(type);
+															}
+														};
+	private Class<?>							mType;
+	private Constructor<?>						mConstructor;
+	private Binding[]							mBindings;
+	private Binding[]							mSortedBindings;
+
+	/**
+	 * @param type The class to retrieve a binder for.
+	 * @return The binder, or <code>null</code> if the class has no {@link JsonKey} annotations.
+	 */
+	static JsonBinder get(Class<?> type) {
+		JsonBinder binder = BINDERS.get(type);
+		return binder.mBindings.length > 0 ? binder : null;
+	}
+
+	private JsonBinder(Class<?> type) {
+		mType = type;
+		List<FieldAnnotation<JsonKey>> annotations = Introspection.getDeepFieldAnnotations(type, JsonKey.class);
+		mBindings = new Binding[annotations.size()];
+		int i = 0;
+		for (FieldAnnotation<JsonKey> fa : annotations) {
+			mBindings[i++] = new Binding(fa.getField(), fa.getAnnotation().value());
+		}
+		mSortedBindings = mBindings.clone();
+		Arrays.sort(mSortedBindings, (b1, b2) -> b1.mKey.compareTo(b2.mKey));
+		if (mBindings.length > 0) {
+			try {
+				mConstructor = type.getDeclaredConstructor();
+				Introspection.makeConstructorAccessible(mConstructor);
+			} catch (Exception exception) {
+				// Reported if an instance is ever needed.
+			}
+		}
+	}
+
+	/**
+	 * Creates a new instance of the bound class and loads it from the map.
+	 *
+	 * @param map The {@link JsonMap} to load from.
+	 * @return The new object.
+	 */
+	Object create(JsonMap map) throws ReflectiveOperationException {
+		if (mConstructor == null) {
+			throw new NoSuchMethodException(mType.getName() + ".<init>()");
+		}
+		return load(mConstructor.newInstance(), map);
+	}
+
+	/**
+	 * @param obj The object to load data into.
+	 * @param map The {@link JsonMap} to load from.
+	 * @return The object that was passed in.
+	 */
+	<T> T load(T obj, JsonMap map) {
+		for (Binding binding : mBindings) {
+			try {
+				binding.mLoader.load(obj, map, binding.mKey);
+			} catch (Exception exception) {
+				Log.error(exception);
+			}
+		}
+		return obj;
+	}
+
+	/**
+	 * @param obj The object to save.
+	 * @return A new {@link JsonMap} holding the object's data.
+	 */
+	JsonMap save(Object obj) {
+		JsonMap map = new JsonMap();
+		for (Binding binding : mBindings) {
+			try {
+				map.put(binding.mKey, binding.mField.get(obj));
+			} catch (IllegalAccessException exception) {
+				Log.error(exception);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Streams the object's data out as a map, without building an intermediate {@link JsonMap}.
+	 *
+	 * @param obj The object to save.
+	 * @param writer The {@link JsonWriter} to write to.
+	 */
+	void write(Object obj, JsonWriter writer) throws IOException {
+		writer.startMap();
+		for (Binding binding : mSortedBindings) {
+			writer.key(binding.mKey);
+			try {
+				binding.mWriter.write(obj, writer);
+			} catch (IllegalAccessException exception) {
+				Log.error(exception);
+				writer.nullValue();
+			}
+		}
+		writer.endMap();
+	}
+
+	private interface FieldLoader {
+		void load(Object obj, JsonMap map, String key) throws Exception;
+	}
+
+	private interface FieldWriter {
+		void write(Object obj, JsonWriter writer) throws IOException, IllegalAccessException;
+	}
+
+	private interface Converter {
+		Object convert(Object jsonData);
+	}
+
+	private static final class Binding {
+		Field		mField;
+		String		mKey;
+		FieldLoader	mLoader;
+		FieldWriter	mWriter;
+
+		Binding(Field field, String key) {
+			Introspection.makeFieldAccessible(field);
+			mField = field;
+			mKey = key;
+			mLoader = createLoader(field, key);
+			mWriter = createWriter(field);
+		}
+	}
+
+	private static FieldLoader createLoader(Field field, String key) {
+		Class<?> type = field.getType();
+		if (type == boolean.class) {
+			return (obj, map, name) -> field.setBoolean(obj, map.getBoolean(name));
+		}
+		if (type == byte.class) {
+			return (obj, map, name) -> field.setByte(obj, map.getByte(name));
+		}
+		if (type == char.class) {
+			return (obj, map, name) -> field.setChar(obj, map.getChar(name));
+		}
+		if (type == short.class) {
+			return (obj, map, name) -> field.setShort(obj, Json.asShort(map.get(name)));
+		}
+		if (type == int.class) {
+			return (obj, map, name) -> field.setInt(obj, map.getInt(name));
+		}
+		if (type == long.class) {
+			return (obj, map, name) -> field.setLong(obj, map.getLong(name));
+		}
+		if (type == float.class) {
+			return (obj, map, name) -> field.setFloat(obj, map.getFloat(name));
+		}
+		if (type == double.class) {
+			return (obj, map, name) -> field.setDouble(obj, map.getDouble(name));
+		}
+		if (type.isArray()) {
+			ArrayCreator creator = createArrayCreator(type.getComponentType(), key);
+			return (obj, map, name) -> {
+				JsonArray array = map.getArray(name, true);
+				field.set(obj, array != null ? creator.create(array) : null);
+			};
+		}
+		if (List.class.isAssignableFrom(type)) {
+			Converter converter = createListElementConverter(field);
+			return (obj, map, name) -> field.set(obj, createList(converter, map.getArray(name, true)));
+		}
+		if (Map.class.isAssignableFrom(type)) {
+			Converter converter = createMapValueConverter(field);
+			return (obj, map, name) -> field.set(obj, createMap(converter, map.getMap(name, true)));
+		}
+		Converter converter = createConverter(type);
+		if (converter == null) {
+			return (obj, map, name) -> Log.error("Unable to restore " + type.getName() + " for key " + name);
+		}
+		return (obj, map, name) -> field.set(obj, converter.convert(map.get(name)));
+	}
+
+	private static FieldWriter createWriter(Field field) {
+		Class<?> type = field.getType();
+		if (type == boolean.class) {
+			return (obj, writer) -> writer.value(field.getBoolean(obj));
+		}
+		if (type == byte.class || type == short.class || type == int.class || type == long.class) {
+			return (obj, writer) -> writer.value(field.getLong(obj));
+		}
+		if (type == double.class) {
+			return (obj, writer) -> writer.value(field.getDouble(obj));
+		}
+		return (obj, writer) -> writer.value(field.get(obj));
+	}
+
+	/** Does not support creating Arrays, Lists or Maps. */
+	private static Converter createConverter(Class<?> type) {
+		if (type == boolean.class || type == Boolean.class) {
+			return Json::asBooleanObject;
+		}
+		if (type == byte.class || type == Byte.class) {
+			return Json::asByteObject;
+		}
+		if (type == char.class || type == Character.class) {
+			return Json::asCharObject;
+		}
+		if (type == short.class || type == Short.class) {
+			return Json::asShortObject;
+		}
+		if (type == int.class || type == Integer.class) {
+			return Json::asIntObject;
+		}
+		if (type == long.class || type == Long.class) {
+			return Json::asLongObject;
+		}
+		if (type == float.class || type == Float.class) {
+			return Json::asFloatObject;
+		}
+		if (type == double.class || type == Double.class) {
+			return Json::asDoubleObject;
+		}
+		if (type == String.class) {
+			return jsonData -> Json.asString(jsonData, true);
+		}
+		if (type.isEnum()) {
+			Enum<?>[] constants = (Enum<?>[]) type.getEnumConstants();
+			return jsonData -> extractEnum(Json.asString(jsonData, false), constants);
+		}
+		if (Introspection.hasDeepFieldAnnotation(type, JsonKey.class)) {
+			// The nested binder is looked up lazily, as the type may refer back to this one.
+			return jsonData -> {
+				JsonMap objMap = Json.asMap(jsonData, true);
+				if (objMap != null) {
+					try {
+						return BINDERS.get(type).create(objMap);
+					} catch (Exception exception) {
+						Log.error(exception);
+					}
+				}
+				return null;
+			};
+		}
+		return null;
+	}
+
+	private static Enum<?> extractEnum(String value, Enum<?>[] constants) {
+		for (Enum<?> one : constants) {
+			if (one.toString().equals(value)) {
+				return one;
+			}
+		}
+		return null;
+	}
+
+	private interface ArrayCreator {
+		Object create(JsonArray array);
+	}
+
+	/** Does not support creating Arrays containing Arrays, Lists or Maps. */
+	private static ArrayCreator createArrayCreator(Class<?> componentType, String key) {
+		if (componentType == boolean.class) {
+			return array -> {
+				boolean[] data = new boolean[array.size()];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = array.getBoolean(i);
+				}
+				return data;
+			};
+		}
+		if (componentType == byte.class) {
+			return array -> {
+				byte[] data = new byte[array.size()];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = array.getByte(i);
+				}
+				return data;
+			};
+		}
+		if (componentType == char.class) {
+			return array -> {
+				char[] data = new char[array.size()];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = array.getChar(i);
+				}
+				return data;
+			};
+		}
+		if (componentType == short.class) {
+			return array -> {
+				short[] data = new short[array.size()];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = array.getShort(i);
+				}
+				return data;
+			};
+		}
+		if (componentType == int.class) {
+			return JsonArray::toIntArray;
+		}
+		if (componentType == long.class) {
+			return JsonArray::toLongArray;
+		}
+		if (componentType == float.class) {
+			return array -> {
+				float[] data = new float[array.size()];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = array.getFloat(i);
+				}
+				return data;
+			};
+		}
+		if (componentType == double.class) {
+			return JsonArray::toDoubleArray;
+		}
+		Converter converter = createConverter(componentType);
+		if (converter == null) {
+			return array -> {
+				Log.error("Unable to restore " + componentType.getName() + " for key " + key);
+				return Array.newInstance(componentType, array.size());
+			};
+		}
+		return array -> {
+			int length = array.size();
+			Object[] data = (Object[]) Array.newInstance(componentType, length);
+			for (int i = 0; i < length; i++) {
+				data[i] = converter.convert(array.get(i));
+			}
+			return data;
+		};
+	}
+
+	/** Does not support creating Lists containing Arrays, Lists or Maps. */
+	private static Converter createListElementConverter(Field field) {
+		Type genericType = field.getGenericType();
+		if (genericType instanceof ParameterizedType) {
+			Type[] args = ((ParameterizedType) genericType).getActualTypeArguments();
+			if (args.length == 1) {
+				return createElementConverter(args[0]);
+			}
+			Log.error("Must have one type argument for a list");
+		} else {
+			Log.error("Unable to determine generic type");
+		}
+		return null;
+	}
+
+	/** Does not support creating Maps containing Arrays, Lists or Maps. */
+	private static Converter createMapValueConverter(Field field) {
+		Type genericType = field.getGenericType();
+		if (genericType instanceof ParameterizedType) {
+			Type[] args = ((ParameterizedType) genericType).getActualTypeArguments();
+			if (args.length == 2) {
+				if (args[0] == String.class) {
+					return createElementConverter(args[1]);
+				}
+				Log.error("Only maps with Strings for their keys are permitted");
+			} else {
+				Log.error("Must have two type arguments for a map");
+			}
+		} else {
+			Log.error("Unable to determine generic type");
+		}
+		return null;
+	}
+
+	private static Converter createElementConverter(Type type) {
+		try {
+			Class<?> cls = type instanceof Class ? (Class<?>) type : Class.forName(type.getTypeName());
+			Converter converter = createConverter(cls);
+			if (converter != null) {
+				return converter;
+			}
+			return jsonData -> {
+				Log.error("Unable to create type: " + cls.getSimpleName());
+				return null;
+			};
+		} catch (ClassNotFoundException exception) {
+			Log.error(exception);
+			return null;
+		}
+	}
+
+	private static List<?> createList(Converter converter, JsonArray array) {
+		if (array == null || converter == null) {
+			return null;
+		}
+		int length = array.size();
+		List<Object> result = new ArrayList<>(length);
+		for (int i = 0; i < length; i++) {
+			result.add(converter.convert(array.get(i)));
+		}
+		return result;
+	}
+
+	private static Map<String, ?> createMap(Converter converter, JsonMap map) {
+		if (map == null || converter == null) {
+			return null;
+		}
+		Map<String, Object> result = new HashMap<>();
+		for (String key : map.keySet()) {
+			result.put(key, converter.convert(map.get(key)));
+		}
+		return result;
+	}
+}
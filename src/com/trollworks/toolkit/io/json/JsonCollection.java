@@ -11,6 +11,10 @@
 
 package com.trollworks.toolkit.io.json;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
 /** Common base class for JSON collections. */
 public abstract class JsonCollection {
 	@Override
@@ -22,6 +26,27 @@ public abstract class JsonCollection {
 		return appendTo(new StringBuilder(), compact, 0).toString();
 	}
 
+	/**
+	 * Streams this collection to a {@link Writer} without first building it in memory.
+	 *
+	 * @param writer The {@link Writer} to write to. It will be flushed, but not closed.
+	 * @param compact Whether to omit the line breaks and indentation used for pretty output.
+	 */
+	public final void writeTo(Writer writer, boolean compact) throws IOException {
+		new JsonWriter(writer, compact).value(this).flush();
+	}
+
+	/**
+	 * Streams this collection to an {@link OutputStream} as UTF-8 without first building it in
+	 * memory.
+	 *
+	 * @param stream The {@link OutputStream} to write to. It will be flushed, but not closed.
+	 * @param compact Whether to omit the line breaks and indentation used for pretty output.
+	 */
+	public final void writeTo(OutputStream stream, boolean compact) throws IOException {
+		new JsonWriter(stream, compact).value(this).flush();
+	}
+
 	public abstract StringBuilder appendTo(StringBuilder buffer, boolean compact, int depth);
 
 	protected static void indent(StringBuilder buffer, boolean compact, int depth) {
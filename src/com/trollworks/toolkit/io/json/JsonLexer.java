@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import com.trollworks.toolkit.io.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A buffered tokenizer for JSON text. Characters are pulled from the underlying {@link Reader} in
+ * blocks into a reusable buffer, and whitespace, punctuation and numbers are handled in place
+ * without creating intermediate objects.
+ */
+@SuppressWarnings("nls")
+final class JsonLexer {
+	/** Returned by {@link #peek()} and {@link #next()} when the end of input has been reached. */
+	static final int				EOF			= -1;
+	private static final int		BUFFER_SIZE	= 8192;
+	private static final boolean[]	LITERAL_STOP;
+	private Reader					mSource;
+	private Reader					mReader;
+	private char[]					mBuffer;
+	private int						mPos;
+	private int						mLimit;
+	private int						mMark		= -1;
+	private long					mOffset;
+	private int						mLine		= 1;
+	private long					mLineStart	= -1;
+	private boolean					mLastWasCR;
+	private StringBuilder			mScratch;
+	private int						mLiteralStart;
+	private int						mLiteralEnd;
+
+	static {
+		LITERAL_STOP = new boolean[128];
+		for (int i = 0; i < ' '; i++) {
+			LITERAL_STOP[i] = true;
+		}
+		for (char ch : ",:]}/\\\"[{;=#".toCharArray()) {
+			LITERAL_STOP[ch] = true;
+		}
+	}
+
+	/** @param reader The {@link Reader} to pull characters from. */
+	JsonLexer(Reader reader) {
+		mSource = reader;
+		mReader = reader;
+		mBuffer = new char[BUFFER_SIZE];
+	}
+
+	/**
+	 * @param text The text to tokenize. Its characters are copied into the buffer once, up front,
+	 *            so the buffer never needs refilling.
+	 */
+	JsonLexer(String text) {
+		mBuffer = text.toCharArray();
+		mLimit = mBuffer.length;
+	}
+
+	/**
+	 * Pulls more characters into the buffer, preserving everything from the current mark onward.
+	 *
+	 * @return <code>true</code> if at least one more character is available.
+	 */
+	private boolean fill() throws IOException {
+		if (mReader == null) {
+			return false;
+		}
+		int keep = mMark >= 0 ? mMark : mPos;
+		if (keep > 0) {
+			int remaining = mLimit - keep;
+			System.arraycopy(mBuffer, keep, mBuffer, 0, remaining);
+			mOffset += keep;
+			mPos -= keep;
+			mLimit = remaining;
+			if (mMark >= 0) {
+				mMark = 0;
+			}
+		}
+		if (mLimit == mBuffer.length) {
+			char[] buffer = new char[mBuffer.length * 2];
+			System.arraycopy(mBuffer, 0, buffer, 0, mLimit);
+			mBuffer = buffer;
+		}
+		int amt = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+		if (amt <= 0) {
+			mReader = null;
+			return false;
+		}
+		mLimit += amt;
+		return true;
+	}
+
+	/**
+	 * Skips any whitespace, tracking line breaks as it goes.
+	 *
+	 * @return <code>true</code> if a non-whitespace character is available.
+	 */
+	private boolean skipWhitespace() throws IOException {
+		for (;;) {
+			while (mPos < mLimit) {
+				char ch = mBuffer[mPos];
+				if (ch > ' ') {
+					// Whatever follows this character, an LF can't be part of a CR LF pair
+					mLastWasCR = false;
+					return true;
+				}
+				mPos++;
+				if (ch == '\r') {
+					mLine++;
+					mLineStart = mOffset + mPos;
+					mLastWasCR = true;
+				} else {
+					if (ch == '\n') {
+						if (!mLastWasCR) {
+							mLine++;
+						}
+						mLineStart = mOffset + mPos;
+					} else if (ch == 0) {
+						mPos--;
+						return false;
+					}
+					mLastWasCR = false;
+				}
+			}
+			if (!fill()) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return The next non-whitespace character, without consuming it, or {@link #EOF} if the end
+	 *         of input has been reached.
+	 */
+	int peek() throws IOException {
+		return skipWhitespace() ? mBuffer[mPos] : EOF;
+	}
+
+	/**
+	 * @return The next non-whitespace character, or {@link #EOF} if the end of input has been
+	 *         reached.
+	 */
+	int next() throws IOException {
+		return skipWhitespace() ? mBuffer[mPos++] : EOF;
+	}
+
+	/**
+	 * Consumes the next character if it matches, without skipping whitespace first.
+	 *
+	 * @param ch The character to look for.
+	 * @return <code>true</code> if the character was present and consumed.
+	 */
+	boolean consumeIf(char ch) throws IOException {
+		if (mPos < mLimit || fill()) {
+			if (mBuffer[mPos] == ch) {
+				mPos++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the remainder of a quoted string. The opening quote must already have been consumed.
+	 *
+	 * @param quote The quote character that terminates the string.
+	 * @return The string.
+	 */
+	String readString(char quote) throws IOException {
+		mMark = mPos;
+		try {
+			for (;;) {
+				while (mPos < mLimit) {
+					char ch = mBuffer[mPos];
+					if (ch == quote) {
+						String str = new String(mBuffer, mMark, mPos - mMark);
+						mPos++;
+						return str;
+					}
+					if (ch == '\\') {
+						return readEscapedString(quote);
+					}
+					if (ch == '\n' || ch == '\r' || ch == 0) {
+						throw syntaxError("Unterminated string");
+					}
+					mPos++;
+				}
+				if (!fill()) {
+					throw syntaxError("Unterminated string");
+				}
+			}
+		} finally {
+			mMark = -1;
+		}
+	}
+
+	/**
+	 * Skips the remainder of a quoted string without creating it. The opening quote must already
+	 * have been consumed.
+	 *
+	 * @param quote The quote character that terminates the string.
+	 */
+	void skipString(char quote) throws IOException {
+		for (;;) {
+			if (mPos == mLimit && !fill()) {
+				throw syntaxError("Unterminated string");
+			}
+			char ch = mBuffer[mPos++];
+			if (ch == quote) {
+				return;
+			}
+			switch (ch) {
+				case 0:
+				case '\n':
+				case '\r':
+					throw syntaxError("Unterminated string");
+				case '\\':
+					if (mPos == mLimit && !fill()) {
+						throw syntaxError("Unterminated string");
+					}
+					if (mBuffer[mPos++] == 'u') {
+						readUnicodeEscape();
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private String readEscapedString(char quote) throws IOException {
+		if (mScratch == null) {
+			mScratch = new StringBuilder();
+		}
+		StringBuilder buffer = mScratch;
+		buffer.setLength(0);
+		buffer.append(mBuffer, mMark, mPos - mMark);
+		mMark = -1;
+		for (;;) {
+			if (mPos == mLimit && !fill()) {
+				throw syntaxError("Unterminated string");
+			}
+			char ch = mBuffer[mPos++];
+			switch (ch) {
+				case 0:
+				case '\n':
+				case '\r':
+					throw syntaxError("Unterminated string");
+				case '\\':
+					if (mPos == mLimit && !fill()) {
+						throw syntaxError("Unterminated string");
+					}
+					ch = mBuffer[mPos++];
+					switch (ch) {
+						case 'b':
+							buffer.append('\b');
+							break;
+						case 't':
+							buffer.append('\t');
+							break;
+						case 'n':
+							buffer.append('\n');
+							break;
+						case 'f':
+							buffer.append('\f');
+							break;
+						case 'r':
+							buffer.append('\r');
+							break;
+						case 'u':
+							buffer.append(readUnicodeEscape());
+							break;
+						case '"':
+						case '\'':
+						case '\\':
+						case '/':
+							buffer.append(ch);
+							break;
+						default:
+							throw syntaxError("Illegal escape.");
+					}
+					break;
+				default:
+					if (ch == quote) {
+						return buffer.toString();
+					}
+					buffer.append(ch);
+					break;
+			}
+		}
+	}
+
+	private char readUnicodeEscape() throws IOException {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			if (mPos == mLimit && !fill()) {
+				throw syntaxError("Substring bounds error");
+			}
+			int digit = Character.digit(mBuffer[mPos++], 16);
+			if (digit < 0) {
+				throw syntaxError("Illegal escape.");
+			}
+			value = value << 4 | digit;
+		}
+		return (char) value;
+	}
+
+	/**
+	 * Scans an unquoted literal (a number, <code>true</code>, <code>false</code>,
+	 * <code>null</code> or a bare word) and leaves its trimmed extent in the buffer, where it
+	 * remains valid until the next call into this lexer. Leading whitespace must already have been
+	 * skipped.
+	 *
+	 * @return The length of the literal.
+	 */
+	int scanLiteral() throws IOException {
+		mMark = mPos;
+		try {
+			for (;;) {
+				while (mPos < mLimit) {
+					char ch = mBuffer[mPos];
+					if (ch < 128 && LITERAL_STOP[ch]) {
+						return markLiteral();
+					}
+					mPos++;
+				}
+				if (!fill()) {
+					return markLiteral();
+				}
+			}
+		} finally {
+			mMark = -1;
+		}
+	}
+
+	private int markLiteral() {
+		int end = mPos;
+		while (end > mMark && mBuffer[end - 1] <= ' ') {
+			end--;
+		}
+		mLiteralStart = mMark;
+		mLiteralEnd = end;
+		return end - mMark;
+	}
+
+	/**
+	 * @param word The word to compare against. Must be lowercase.
+	 * @return <code>true</code> if the last literal scanned matches the word, ignoring case.
+	 */
+	boolean literalIs(String word) {
+		int length = word.length();
+		if (mLiteralEnd - mLiteralStart != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (Character.toLowerCase(mBuffer[mLiteralStart + i]) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return The last literal scanned, as a {@link String}. */
+	String literalString() {
+		return new String(mBuffer, mLiteralStart, mLiteralEnd - mLiteralStart);
+	}
+
+	/** @return <code>true</code> if the last literal scanned starts like a number. */
+	boolean literalIsNumeric() {
+		if (mLiteralEnd == mLiteralStart) {
+			return false;
+		}
+		char ch = mBuffer[mLiteralStart];
+		return ch >= '0' && ch <= '9' || ch == '.' || ch == '-' || ch == '+';
+	}
+
+	/**
+	 * @return <code>true</code> if the last literal scanned is a plain integer that fits in a
+	 *         long. The value is available from {@link #literalLong()}.
+	 */
+	boolean literalIsLong() {
+		int i = mLiteralStart;
+		int end = mLiteralEnd;
+		if (i < end && (mBuffer[i] == '-' || mBuffer[i] == '+')) {
+			i++;
+		}
+		if (i == end || end - i > 18) {
+			return false;
+		}
+		for (; i < end; i++) {
+			char ch = mBuffer[i];
+			if (ch < '0' || ch > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return The last literal scanned, which must have passed {@link #literalIsLong()}. */
+	long literalLong() {
+		int i = mLiteralStart;
+		boolean negative = mBuffer[i] == '-';
+		if (negative || mBuffer[i] == '+') {
+			i++;
+		}
+		long value = 0;
+		for (; i < mLiteralEnd; i++) {
+			value = value * 10 + mBuffer[i] - '0';
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Converts the last literal scanned into a value, following the lenient rules the JSON parser
+	 * has always used.
+	 *
+	 * @return A {@link Boolean}, {@link JsonNull}, {@link Number} or {@link String}.
+	 */
+	Object literalValue() {
+		if (literalIs("true")) {
+			return Boolean.TRUE;
+		}
+		if (literalIs("false")) {
+			return Boolean.FALSE;
+		}
+		if (literalIs("null")) {
+			return JsonNull.INSTANCE;
+		}
+		if (literalIsNumeric()) {
+			if (literalIsLong()) {
+				long value = literalLong();
+				if (value == (int) value) {
+					return Integer.valueOf((int) value);
+				}
+				return Long.valueOf(value);
+			}
+			String s = literalString();
+			if (s.charAt(0) == '0' && s.length() > 2 && (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
+				try {
+					return Integer.valueOf(Integer.parseInt(s.substring(2), 16));
+				} catch (Exception ignore) {
+					Log.error(ignore);
+				}
+			}
+			try {
+				if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
+					return Double.valueOf(s);
+				}
+				long value = Long.parseLong(s);
+				if (value == (int) value) {
+					return Integer.valueOf((int) value);
+				}
+				return Long.valueOf(value);
+			} catch (Exception ignore) {
+				Log.error(ignore);
+			}
+			return s;
+		}
+		return literalString();
+	}
+
+	/** @return The current line number. */
+	int getLineNumber() {
+		return mLine;
+	}
+
+	/**
+	 * @return The current column number, which is the number of characters consumed so far on the
+	 *         current line. As with the original parser, the count starts at one on the first line
+	 *         and at zero on the lines after it.
+	 */
+	int getColumnNumber() {
+		return (int) (mOffset + mPos - mLineStart);
+	}
+
+	/** Closes the underlying {@link Reader}, if any. */
+	void close() throws IOException {
+		if (mSource != null) {
+			mSource.close();
+		}
+	}
+
+	/**
+	 * @param message The message to use.
+	 * @return An {@link IOException} describing the problem and where it occurred.
+	 */
+	IOException syntaxError(String message) {
+		return new IOException(message + toString());
+	}
+
+	@Override
+	public String toString() {
+		return " at " + (mOffset + mPos) + " [character " + getColumnNumber() + " line " + mLine + "]";
+	}
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import com.trollworks.toolkit.io.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A UTF-8 JSON document held in a memory-mapped file. A single validating pass over the bytes
+ * records where each map and array ends, after which values can be located and decoded on demand
+ * without further scanning of the data they contain.
+ */
+@SuppressWarnings("nls")
+final class JsonMappedFile {
+	private static final boolean[]	LITERAL_STOP;
+	private static final int		EOF		= -1;
+	private static final int		VALUE	= 0;
+	private static final int		NEXT	= 1;
+	private ByteBuffer				mBuffer;
+	private int						mLimit;
+	private int[]					mOpens	= new int[64];
+	private int[]					mEnds	= new int[64];
+	private int						mCount;
+
+	static {
+		LITERAL_STOP = new boolean[128];
+		for (int i = 0; i < ' '; i++) {
+			LITERAL_STOP[i] = true;
+		}
+		for (char ch : ",:]}/\\\"[{;=#".toCharArray()) {
+			LITERAL_STOP[ch] = true;
+		}
+	}
+
+	/**
+	 * @param path The file to map.
+	 * @return The top-level value of the document. Maps are returned as lazy views.
+	 */
+	static Object map(Path path) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File is too large to map: " + path);
+			}
+			buffer = channel.map(MapMode.READ_ONLY, 0, size);
+		}
+		JsonMappedFile file = new JsonMappedFile(buffer);
+		int start = file.skipWhitespace(0);
+		return file.decode(start, file.validate(start));
+	}
+
+	private JsonMappedFile(ByteBuffer buffer) {
+		mBuffer = buffer;
+		mLimit = buffer.limit();
+	}
+
+	private int byteAt(int pos) {
+		return pos < mLimit ? mBuffer.get(pos) : EOF;
+	}
+
+	/**
+	 * @param pos The position to start at.
+	 * @return The position of the next non-whitespace byte, which may be the end of the data.
+	 */
+	int skipWhitespace(int pos) {
+		while (pos < mLimit) {
+			byte b = mBuffer.get(pos);
+			if (b > ' ' || b < 0) {
+				return pos;
+			}
+			if (b == 0) {
+				return mLimit;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Walks the value starting at the specified position, checking its syntax and recording the
+	 * extent of every map and array within it.
+	 *
+	 * @param pos The position of the first byte of the value.
+	 * @return The position just past the end of the value.
+	 */
+	private int validate(int pos) throws IOException {
+		int[] stack = new int[32];
+		int depth = 0;
+		int state = VALUE;
+		for (;;) {
+			pos = skipWhitespace(pos);
+			int b = byteAt(pos);
+			if (state == VALUE) {
+				switch (b) {
+					case '{':
+						stack = push(stack, depth++, pos);
+						pos = skipWhitespace(pos + 1);
+						if (byteAt(pos) == '}') {
+							close(stack[--depth], pos++);
+							state = NEXT;
+						} else {
+							pos = validateKey(pos);
+						}
+						break;
+					case '[':
+					case '(':
+						stack = push(stack, depth++, pos);
+						pos = skipWhitespace(pos + 1);
+						int c = byteAt(pos);
+						if (c == (b == '(' ? ')' : ']')) {
+							close(stack[--depth], pos++);
+							state = NEXT;
+						} else if (c == ',') {
+							state = NEXT;
+						}
+						break;
+					case '"':
+					case '\'':
+						pos = skipString(pos);
+						state = NEXT;
+						break;
+					default:
+						int end = skipLiteral(pos);
+						if (end == pos) {
+							throw syntaxError("Missing value", pos);
+						}
+						pos = end;
+						state = NEXT;
+						break;
+				}
+			} else {
+				if (depth == 0) {
+					return pos;
+				}
+				int open = mBuffer.get(mOpens[stack[depth - 1]]);
+				int closer = open == '{' ? '}' : open == '(' ? ')' : ']';
+				if (b == ',' || b == ';') {
+					pos = skipWhitespace(pos + 1);
+					b = byteAt(pos);
+					if (b == closer) {
+						close(stack[--depth], pos++);
+					} else if (open == '{') {
+						pos = validateKey(pos);
+						state = VALUE;
+					} else if (b != ',') {
+						state = VALUE;
+					}
+				} else if (b == closer) {
+					close(stack[--depth], pos++);
+				} else {
+					throw syntaxError("Expected a ',' or '" + (char) closer + "'", pos + 1);
+				}
+			}
+		}
+	}
+
+	private int[] push(int[] stack, int depth, int pos) {
+		if (mCount == mOpens.length) {
+			mOpens = Arrays.copyOf(mOpens, mCount * 2);
+			mEnds = Arrays.copyOf(mEnds, mCount * 2);
+		}
+		mOpens[mCount] = pos;
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth] = mCount++;
+		return stack;
+	}
+
+	private void close(int index, int pos) {
+		mEnds[index] = pos;
+	}
+
+	private int validateKey(int pos) throws IOException {
+		switch (byteAt(pos)) {
+			case EOF:
+				throw syntaxError("JSON object text must end with '}'", pos);
+			case '{':
+			case '[':
+			case '(':
+				throw syntaxError("Expected a key", pos);
+			default:
+				break;
+		}
+		int end = skipKey(pos);
+		if (end == pos) {
+			throw syntaxError("Missing value", pos);
+		}
+		int next = skipSeparator(end);
+		if (next == -1) {
+			throw syntaxError("Expected a ':' after a key", skipWhitespace(end) + 1);
+		}
+		return next;
+	}
+
+	/**
+	 * @param pos The position of the first byte of a key.
+	 * @return The position just past the end of the key.
+	 */
+	int skipKey(int pos) throws IOException {
+		int b = byteAt(pos);
+		return b == '"' || b == '\'' ? skipString(pos) : skipLiteral(pos);
+	}
+
+	/**
+	 * @param pos The position just past the end of a key.
+	 * @return The position just past the separator that follows the key, or -1 if there isn't one.
+	 */
+	int skipSeparator(int pos) {
+		pos = skipWhitespace(pos);
+		int b = byteAt(pos++);
+		if (b == '=') {
+			if (byteAt(pos) == '>') {
+				pos++;
+			}
+		} else if (b != ':') {
+			return -1;
+		}
+		return pos;
+	}
+
+	/**
+	 * @param pos The position of the first byte of a value.
+	 * @return The position just past the end of the value.
+	 */
+	int skipValue(int pos) throws IOException {
+		switch (byteAt(pos)) {
+			case '{':
+			case '[':
+			case '(':
+				return endOf(pos) + 1;
+			case '"':
+			case '\'':
+				return skipString(pos);
+			default:
+				return skipLiteral(pos);
+		}
+	}
+
+	private int skipString(int pos) throws IOException {
+		byte quote = mBuffer.get(pos++);
+		while (pos < mLimit) {
+			byte b = mBuffer.get(pos++);
+			if (b == quote) {
+				return pos;
+			}
+			if (b == '\\') {
+				pos++;
+			} else if (b == '\n' || b == '\r' || b == 0) {
+				pos--;
+				break;
+			}
+		}
+		throw syntaxError("Unterminated string", Math.min(pos, mLimit));
+	}
+
+	private int skipLiteral(int pos) {
+		while (pos < mLimit) {
+			byte b = mBuffer.get(pos);
+			if (b >= 0 && LITERAL_STOP[b]) {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @param start The position of the opening byte of a map or array.
+	 * @return The position of the matching closing byte.
+	 */
+	int endOf(int start) {
+		return mEnds[Arrays.binarySearch(mOpens, 0, mCount, start)];
+	}
+
+	/**
+	 * @param start The position of the first byte of the key.
+	 * @param end The position just past the end of the key.
+	 * @return The key.
+	 */
+	String decodeKey(int start, int end) throws IOException {
+		int b = mBuffer.get(start);
+		if ((b == '"' || b == '\'') && !contains(start, end, '\\')) {
+			return text(start + 1, end - 1);
+		}
+		JsonReader reader = new JsonReader(text(start, end));
+		return reader.nextValue().toString();
+	}
+
+	/**
+	 * @param start The position of the first byte of the value.
+	 * @param end The position just past the end of the value.
+	 * @return The value, or <code>null</code> if it could not be decoded. Maps are returned as
+	 *         lazy views.
+	 */
+	Object decode(int start, int end) {
+		try {
+			switch (mBuffer.get(start)) {
+				case '{':
+					return new JsonMappedMap(this, start, end - 1);
+				case '[':
+				case '(':
+					return decodeArray(start, end - 1);
+				case '"':
+				case '\'':
+					if (!contains(start, end, '\\')) {
+						return text(start + 1, end - 1);
+					}
+					break;
+				default:
+					Object value = decodeInteger(start, end);
+					if (value != null) {
+						return value;
+					}
+					break;
+			}
+			return new JsonReader(text(start, end)).nextValue();
+		} catch (IOException exception) {
+			Log.error(exception);
+			return null;
+		}
+	}
+
+	private JsonArray decodeArray(int start, int end) throws IOException {
+		JsonArray array = new JsonArray();
+		int pos = start + 1;
+		for (;;) {
+			pos = skipWhitespace(pos);
+			if (pos >= end) {
+				return array;
+			}
+			int b = mBuffer.get(pos);
+			if (b == ',' || b == ';') {
+				// An empty slot, such as the middle of [1,,2], is treated as a null.
+				array.put(JsonNull.INSTANCE);
+				pos++;
+			} else {
+				int valueEnd = skipValue(pos);
+				array.put(decode(pos, valueEnd));
+				pos = skipWhitespace(valueEnd);
+				if (pos < end) {
+					pos++;
+				}
+			}
+		}
+	}
+
+	/** @return The value of a plain integer literal, or <code>null</code> if it isn't one. */
+	private Object decodeInteger(int start, int end) {
+		while (end > start && mBuffer.get(end - 1) <= ' ' && mBuffer.get(end - 1) >= 0) {
+			end--;
+		}
+		int pos = start;
+		int b = mBuffer.get(pos);
+		boolean negative = b == '-';
+		if (negative || b == '+') {
+			pos++;
+		}
+		if (pos == end || end - pos > 18) {
+			return null;
+		}
+		long value = 0;
+		for (; pos < end; pos++) {
+			b = mBuffer.get(pos);
+			if (b < '0' || b > '9') {
+				return null;
+			}
+			value = value * 10 + b - '0';
+		}
+		if (negative) {
+			value = -value;
+		}
+		if (value == (int) value) {
+			return Integer.valueOf((int) value);
+		}
+		return Long.valueOf(value);
+	}
+
+	private boolean contains(int start, int end, char ch) {
+		for (int i = start; i < end; i++) {
+			if (mBuffer.get(i) == ch) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String text(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		ByteBuffer buffer = mBuffer.duplicate();
+		buffer.position(start);
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private IOException syntaxError(String message, int pos) {
+		int line = 1;
+		int lineStart = 0;
+		for (int i = 0; i < pos && i < mLimit; i++) {
+			byte b = mBuffer.get(i);
+			if (b == '\n' || b == '\r' && byteAt(i + 1) != '\n') {
+				line++;
+				lineStart = i + 1;
+			}
+		}
+		return new IOException(message + " at " + pos + " [character " + (pos - lineStart + 1) + " line " + line + "]");
+	}
+}
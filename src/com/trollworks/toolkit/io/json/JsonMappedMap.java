@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import com.trollworks.toolkit.io.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A {@link JsonMap} backed by a region of a {@link JsonMappedFile}. Its keys are indexed the first
+ * time the map is accessed, and each value is decoded only when it is first retrieved. Modifying
+ * the map copies its contents into ordinary storage first.
+ */
+@SuppressWarnings("nls")
+final class JsonMappedMap extends JsonMap {
+	private JsonMappedFile			mFile;
+	private int						mStart;
+	private int						mEnd;
+	private TObjectIntMap<String>	mIndex;
+	private int[]					mValueStarts;
+	private int[]					mValueEnds;
+	private Object[]				mValues;
+
+	/**
+	 * @param file The {@link JsonMappedFile} holding the data.
+	 * @param start The position of the opening brace.
+	 * @param end The position of the closing brace.
+	 */
+	JsonMappedMap(JsonMappedFile file, int start, int end) {
+		mFile = file;
+		mStart = start;
+		mEnd = end;
+	}
+
+	private boolean isMapped() {
+		if (mFile == null) {
+			return false;
+		}
+		if (mIndex == null) {
+			buildIndex();
+		}
+		return true;
+	}
+
+	private void buildIndex() {
+		mIndex = new TObjectIntHashMap<>(16, 0.5f, -1);
+		mValueStarts = new int[8];
+		mValueEnds = new int[8];
+		int count = 0;
+		int pos = mStart + 1;
+		try {
+			for (;;) {
+				pos = mFile.skipWhitespace(pos);
+				if (pos >= mEnd) {
+					break;
+				}
+				int keyEnd = mFile.skipKey(pos);
+				String key = mFile.decodeKey(pos, keyEnd);
+				int valueStart = mFile.skipWhitespace(mFile.skipSeparator(keyEnd));
+				int valueEnd = mFile.skipValue(valueStart);
+				int slot = mIndex.get(key);
+				if (slot == -1) {
+					slot = count++;
+					mIndex.put(key, slot);
+					if (slot == mValueStarts.length) {
+						mValueStarts = Arrays.copyOf(mValueStarts, slot * 2);
+						mValueEnds = Arrays.copyOf(mValueEnds, slot * 2);
+					}
+				} else {
+					Log.error("Duplicate key \"" + key + "\" at " + pos);
+				}
+				mValueStarts[slot] = valueStart;
+				mValueEnds[slot] = valueEnd;
+				pos = mFile.skipWhitespace(valueEnd);
+				if (pos < mEnd) {
+					pos++;
+				}
+			}
+		} catch (IOException exception) {
+			Log.error(exception);
+		}
+		mValues = new Object[count];
+	}
+
+	private void materialize() {
+		if (isMapped()) {
+			String[] keys = mIndex.keys(new String[mIndex.size()]);
+			Object[] values = new Object[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				values[i] = get(keys[i]);
+			}
+			mFile = null;
+			mIndex = null;
+			mValueStarts = null;
+			mValueEnds = null;
+			mValues = null;
+			for (int i = 0; i < keys.length; i++) {
+				super.put(keys[i], values[i]);
+			}
+		}
+	}
+
+	@Override
+	public boolean has(String key) {
+		return isMapped() ? mIndex.containsKey(key) : super.has(key);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return isMapped() ? Collections.unmodifiableSet(mIndex.keySet()) : super.keySet();
+	}
+
+	@Override
+	public Object get(String key) {
+		if (!isMapped()) {
+			return super.get(key);
+		}
+		int slot = key != null ? mIndex.get(key) : -1;
+		if (slot == -1) {
+			return null;
+		}
+		Object value = mValues[slot];
+		if (value == null) {
+			value = mFile.decode(mValueStarts[slot], mValueEnds[slot]);
+			mValues[slot] = value;
+		}
+		return value;
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		materialize();
+		super.put(key, value);
+	}
+
+	@Override
+	public Object remove(String key) {
+		materialize();
+		return super.remove(key);
+	}
+
+	@Override
+	public StringBuilder appendTo(StringBuilder buffer, boolean compact, int depth) {
+		materialize();
+		return super.appendTo(buffer, compact, depth);
+	}
+}
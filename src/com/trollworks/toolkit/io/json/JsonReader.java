@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A cursor-style reader for JSON data. Rather than building a complete tree of {@link JsonMap}s and
+ * {@link JsonArray}s, the document is presented one {@link JsonToken} at a time, so memory use is
+ * proportional to the nesting depth rather than the document size. Accepts the same lenient syntax
+ * as {@link Json#parse(Reader)}.
+ */
+@SuppressWarnings("nls")
+public class JsonReader implements AutoCloseable {
+	private static final int	EMPTY_DOCUMENT		= 0;
+	private static final int	NONEMPTY_DOCUMENT	= 1;
+	private static final int	ARRAY_VALUE			= 2;
+	private static final int	ARRAY_NEXT			= 3;
+	private static final int	MAP_KEY				= 4;
+	private static final int	MAP_VALUE			= 5;
+	private static final int	MAP_NEXT			= 6;
+	private static final int	PAREN				= 8;
+	private JsonLexer			mLexer;
+	private int[]				mStack				= new int[16];
+	private int					mStackSize			= 1;
+	private JsonToken			mPeeked;
+	private char				mPeekedQuote;
+	private boolean				mPeekedIsLong;
+	private long				mPeekedLong;
+	private Object				mPeekedValue;
+	private Object				mValue;
+	private boolean				mValueIsLong;
+	private long				mValueLong;
+
+	/**
+	 * Creates a new {@link JsonReader}. {@link StandardCharsets#UTF_8} will be used as the encoding
+	 * when reading from the stream.
+	 *
+	 * @param stream The underlying {@link InputStream} to use.
+	 */
+	public JsonReader(InputStream stream) {
+		this(stream, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates a new {@link JsonReader}.
+	 *
+	 * @param stream The underlying {@link InputStream} to use.
+	 * @param encoding The character encoding to use when reading from the stream.
+	 */
+	public JsonReader(InputStream stream, Charset encoding) {
+		this(new InputStreamReader(stream, encoding));
+	}
+
+	/**
+	 * Creates a new {@link JsonReader}.
+	 *
+	 * @param reader The underlying {@link Reader} to use.
+	 */
+	public JsonReader(Reader reader) {
+		mLexer = new JsonLexer(reader);
+	}
+
+	/**
+	 * Creates a new {@link JsonReader}.
+	 *
+	 * @param string The JSON text to read.
+	 */
+	public JsonReader(String string) {
+		mLexer = new JsonLexer(string);
+	}
+
+	/** Closes the underlying {@link Reader}. */
+	@Override
+	public void close() throws IOException {
+		mLexer.close();
+	}
+
+	/** @return The current collection nesting depth. */
+	public int getDepth() {
+		return mStackSize - 1;
+	}
+
+	/** @return The current line number. */
+	public int getLineNumber() {
+		return mLexer.getLineNumber();
+	}
+
+	/** @return The current column number. */
+	public int getColumnNumber() {
+		return mLexer.getColumnNumber();
+	}
+
+	/** @return A description of the current parse position. */
+	public String getPositionDescription() {
+		return mLexer.toString().trim();
+	}
+
+	/** @return The type of the next token, without consuming it. */
+	public JsonToken peek() throws IOException {
+		if (mPeeked == null) {
+			mPeeked = doPeek();
+		}
+		return mPeeked;
+	}
+
+	/**
+	 * Advances to the next token. For {@link JsonToken#KEY} and scalar tokens, the value is
+	 * available afterwards from {@link #getValue()}.
+	 *
+	 * @return The type of the token that was consumed.
+	 */
+	public JsonToken nextToken() throws IOException {
+		JsonToken token = peek();
+		mPeeked = null;
+		mValue = null;
+		mValueIsLong = false;
+		switch (token) {
+			case START_MAP:
+				mLexer.next();
+				push(MAP_KEY);
+				break;
+			case START_ARRAY:
+				push(mLexer.next() == '(' ? ARRAY_VALUE | PAREN : ARRAY_VALUE);
+				break;
+			case END_MAP:
+			case END_ARRAY:
+				mStackSize--;
+				valueConsumed();
+				break;
+			case KEY:
+				mValue = readKey(true);
+				break;
+			case END_DOCUMENT:
+				break;
+			default:
+				consumeScalar();
+				valueConsumed();
+				break;
+		}
+		return token;
+	}
+
+	/**
+	 * @return The value of the last {@link JsonToken#KEY} or scalar token consumed by
+	 *         {@link #nextToken()}. {@link JsonToken#NULL} produces {@link JsonNull#INSTANCE}.
+	 */
+	public Object getValue() {
+		if (mValueIsLong) {
+			if (mValueLong == (int) mValueLong) {
+				return Integer.valueOf((int) mValueLong);
+			}
+			return Long.valueOf(mValueLong);
+		}
+		return mValue;
+	}
+
+	/** @return The next key within the current map. */
+	public String nextKey() throws IOException {
+		if (peek() != JsonToken.KEY) {
+			throw mLexer.syntaxError("Expected a key");
+		}
+		nextToken();
+		return (String) mValue;
+	}
+
+	/**
+	 * @return The next value as a {@link String}. Numbers and booleans are converted. A
+	 *         {@link JsonToken#NULL} produces <code>null</code>.
+	 */
+	public String nextString() throws IOException {
+		switch (peek()) {
+			case STRING:
+			case NUMBER:
+			case BOOLEAN:
+				nextToken();
+				return getValue().toString();
+			case NULL:
+				nextToken();
+				return null;
+			default:
+				throw mLexer.syntaxError("Expected a string");
+		}
+	}
+
+	/** @return The next value as a boolean. */
+	public boolean nextBoolean() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.BOOLEAN && token != JsonToken.STRING) {
+			throw mLexer.syntaxError("Expected a boolean");
+		}
+		nextToken();
+		return Json.asBoolean(mValue);
+	}
+
+	/**
+	 * @return The next value as an integer. A string must hold an integer literal. Values with a
+	 *         fractional part, or outside the range of an integer, are rejected rather than being
+	 *         truncated.
+	 */
+	public int nextInt() throws IOException {
+		long value = nextIntegral();
+		if (value != (int) value) {
+			throw mLexer.syntaxError("Integer out of range: " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @return The next value as a long. A string must hold an integer literal. Values with a
+	 *         fractional part, or outside the range of a long, are rejected rather than being
+	 *         truncated.
+	 */
+	public long nextLong() throws IOException {
+		return nextIntegral();
+	}
+
+	/** @return The next value as a double. */
+	public double nextDouble() throws IOException {
+		return nextNumber() ? mValueLong : Json.asDouble(mValue);
+	}
+
+	private long nextIntegral() throws IOException {
+		if (nextNumber()) {
+			return mValueLong;
+		}
+		if (mValue instanceof Double || mValue instanceof Float) {
+			double value = ((Number) mValue).doubleValue();
+			if (value != Math.rint(value) || value < -0x1p63 || value >= 0x1p63) {
+				throw mLexer.syntaxError("Expected an integer, not " + mValue);
+			}
+			return (long) value;
+		}
+		if (mValue instanceof Number) {
+			return ((Number) mValue).longValue();
+		}
+		try {
+			return Long.parseLong((String) mValue);
+		} catch (NumberFormatException exception) {
+			throw mLexer.syntaxError("Expected an integer, not \"" + mValue + "\"");
+		}
+	}
+
+	/** @return <code>true</code> if the number was parsed in place and is in mValueLong. */
+	private boolean nextNumber() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+			throw mLexer.syntaxError("Expected a number");
+		}
+		nextToken();
+		return mValueIsLong;
+	}
+
+	/**
+	 * Reads the next value in its entirety, building {@link JsonMap}s and {@link JsonArray}s for
+	 * any collections.
+	 *
+	 * @return The value.
+	 */
+	public Object nextValue() throws IOException {
+		switch (nextToken()) {
+			case START_MAP:
+				JsonMap map = new JsonMap();
+				while (peek() != JsonToken.END_MAP) {
+					String key = nextKey();
+					if (map.has(key)) {
+						throw new IOException("Duplicate key \"" + key + "\"");
+					}
+					map.put(key, nextValue());
+				}
+				nextToken();
+				return map;
+			case START_ARRAY:
+				JsonArray array = new JsonArray();
+				while (peek() != JsonToken.END_ARRAY) {
+					if (mPeeked == JsonToken.NUMBER && mPeekedIsLong) {
+						long value = nextLong();
+						if (value == (int) value) {
+							array.put((int) value);
+						} else {
+							array.put(value);
+						}
+					} else {
+						array.put(nextValue());
+					}
+				}
+				nextToken();
+				return array;
+			case END_DOCUMENT:
+				throw mLexer.syntaxError("Missing value");
+			case END_MAP:
+			case END_ARRAY:
+			case KEY:
+				throw mLexer.syntaxError("Expected a value");
+			default:
+				return getValue();
+		}
+	}
+
+	/**
+	 * Skips over the next value, including any nested content, without materializing it. If the
+	 * next token is a {@link JsonToken#KEY}, both the key and its value are skipped.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		for (;;) {
+			switch (peek()) {
+				case START_MAP:
+				case START_ARRAY:
+					nextToken();
+					depth++;
+					continue;
+				case END_MAP:
+				case END_ARRAY:
+					if (depth == 0) {
+						throw mLexer.syntaxError("Expected a value");
+					}
+					nextToken();
+					depth--;
+					break;
+				case KEY:
+					mPeeked = null;
+					readKey(false);
+					continue;
+				case END_DOCUMENT:
+					if (depth == 0) {
+						return;
+					}
+					throw mLexer.syntaxError("Missing value");
+				default:
+					mPeeked = null;
+					if (mPeekedQuote != 0) {
+						mLexer.next();
+						mLexer.skipString(mPeekedQuote);
+						mPeekedQuote = 0;
+					}
+					mPeekedIsLong = false;
+					mPeekedValue = null;
+					valueConsumed();
+					break;
+			}
+			if (depth == 0) {
+				return;
+			}
+		}
+	}
+
+	private void push(int state) {
+		if (mStackSize == mStack.length) {
+			int[] stack = new int[mStackSize * 2];
+			System.arraycopy(mStack, 0, stack, 0, mStackSize);
+			mStack = stack;
+		}
+		mStack[mStackSize++] = state;
+	}
+
+	private void valueConsumed() {
+		int top = mStackSize - 1;
+		int state = mStack[top];
+		switch (state & ~PAREN) {
+			case EMPTY_DOCUMENT:
+				mStack[top] = NONEMPTY_DOCUMENT;
+				break;
+			case ARRAY_VALUE:
+				mStack[top] = state & PAREN | ARRAY_NEXT;
+				break;
+			case MAP_VALUE:
+				mStack[top] = MAP_NEXT;
+				break;
+			default:
+				break;
+		}
+	}
+
+	private JsonToken doPeek() throws IOException {
+		int top = mStackSize - 1;
+		int state = mStack[top];
+		char closer = (state & PAREN) != 0 ? ')' : ']';
+		int c;
+		switch (state & ~PAREN) {
+			case EMPTY_DOCUMENT:
+				return mLexer.peek() == JsonLexer.EOF ? JsonToken.END_DOCUMENT : peekValue();
+			case NONEMPTY_DOCUMENT:
+				return JsonToken.END_DOCUMENT;
+			case ARRAY_NEXT:
+				c = mLexer.next();
+				switch (c) {
+					case ';':
+					case ',':
+						mStack[top] = state & PAREN | ARRAY_VALUE;
+						return peekArrayValue(closer);
+					case ']':
+					case ')':
+						if (c != closer) {
+							throw mLexer.syntaxError("Expected a '" + closer + "'");
+						}
+						return JsonToken.END_ARRAY;
+					default:
+						throw mLexer.syntaxError("Expected a ',' or ']'");
+				}
+			case ARRAY_VALUE:
+				return peekArrayValue(closer);
+			case MAP_NEXT:
+				switch (mLexer.next()) {
+					case ';':
+					case ',':
+						mStack[top] = MAP_KEY;
+						return peekKey();
+					case '}':
+						return JsonToken.END_MAP;
+					default:
+						throw mLexer.syntaxError("Expected a ',' or '}'");
+				}
+			case MAP_KEY:
+				return peekKey();
+			case MAP_VALUE:
+				return peekValue();
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	private JsonToken peekArrayValue(char closer) throws IOException {
+		int c = mLexer.peek();
+		if (c == closer) {
+			mLexer.next();
+			return JsonToken.END_ARRAY;
+		}
+		if (c == ',') {
+			// An empty slot, such as the middle of [1,,2], is treated as a null.
+			mPeekedValue = JsonNull.INSTANCE;
+			return JsonToken.NULL;
+		}
+		return peekValue();
+	}
+
+	private JsonToken peekKey() throws IOException {
+		int c = mLexer.peek();
+		switch (c) {
+			case JsonLexer.EOF:
+				throw mLexer.syntaxError("JSON object text must end with '}'");
+			case '}':
+				mLexer.next();
+				return JsonToken.END_MAP;
+			case '{':
+			case '[':
+			case '(':
+				throw mLexer.syntaxError("Expected a key");
+			case '"':
+			case '\'':
+				mPeekedQuote = (char) c;
+				return JsonToken.KEY;
+			default:
+				return JsonToken.KEY;
+		}
+	}
+
+	private JsonToken peekValue() throws IOException {
+		int c = mLexer.peek();
+		switch (c) {
+			case '"':
+			case '\'':
+				mPeekedQuote = (char) c;
+				return JsonToken.STRING;
+			case '{':
+				return JsonToken.START_MAP;
+			case '[':
+			case '(':
+				return JsonToken.START_ARRAY;
+			default:
+				break;
+		}
+		if (c == JsonLexer.EOF || mLexer.scanLiteral() == 0) {
+			throw mLexer.syntaxError("Missing value");
+		}
+		if (mLexer.literalIs("true")) {
+			mPeekedValue = Boolean.TRUE;
+			return JsonToken.BOOLEAN;
+		}
+		if (mLexer.literalIs("false")) {
+			mPeekedValue = Boolean.FALSE;
+			return JsonToken.BOOLEAN;
+		}
+		if (mLexer.literalIs("null")) {
+			mPeekedValue = JsonNull.INSTANCE;
+			return JsonToken.NULL;
+		}
+		if (mLexer.literalIsNumeric() && mLexer.literalIsLong()) {
+			mPeekedIsLong = true;
+			mPeekedLong = mLexer.literalLong();
+			return JsonToken.NUMBER;
+		}
+		mPeekedValue = mLexer.literalValue();
+		return mPeekedValue instanceof Number ? JsonToken.NUMBER : JsonToken.STRING;
+	}
+
+	private void consumeScalar() throws IOException {
+		if (mPeekedQuote != 0) {
+			mLexer.next();
+			mValue = mLexer.readString(mPeekedQuote);
+			mPeekedQuote = 0;
+		} else if (mPeekedIsLong) {
+			mValueIsLong = true;
+			mValueLong = mPeekedLong;
+			mPeekedIsLong = false;
+		} else {
+			mValue = mPeekedValue;
+			mPeekedValue = null;
+		}
+	}
+
+	private String readKey(boolean materialize) throws IOException {
+		String key = null;
+		if (mPeekedQuote != 0) {
+			mLexer.next();
+			if (materialize) {
+				key = mLexer.readString(mPeekedQuote);
+			} else {
+				mLexer.skipString(mPeekedQuote);
+			}
+			mPeekedQuote = 0;
+		} else {
+			if (mLexer.scanLiteral() == 0) {
+				throw mLexer.syntaxError("Missing value");
+			}
+			if (materialize) {
+				key = mLexer.literalValue().toString();
+			}
+		}
+		int c = mLexer.next();
+		if (c == '=') {
+			mLexer.consumeIf('>');
+		} else if (c != ':') {
+			throw mLexer.syntaxError("Expected a ':' after a key");
+		}
+		mStack[mStackSize - 1] = MAP_VALUE;
+		return key;
+	}
+}
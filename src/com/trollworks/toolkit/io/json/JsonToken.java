@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+/** The various tokens that the {@link JsonReader} generates. */
+public enum JsonToken {
+	/** The start of a map. */
+	START_MAP, /** The end of a map. */
+	END_MAP, /** The start of an array. */
+	START_ARRAY, /** The end of an array. */
+	END_ARRAY, /** A key within a map. */
+	KEY, /** A string value. */
+	STRING, /** A numeric value. */
+	NUMBER, /** A boolean value. */
+	BOOLEAN, /** A null value. */
+	NULL, /** The end of the JSON document. */
+	END_DOCUMENT;
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes JSON directly to a {@link Writer}, {@link OutputStream} or {@link ByteBuffer} without
+ * first building the serialized document in memory. The output is identical to that produced by
+ * {@link JsonCollection#toString(boolean)}. It may be driven with existing {@link JsonMap} and
+ * {@link JsonArray} trees or objects marked with {@link com.trollworks.toolkit.annotation.JsonKey}
+ * annotations via {@link #value(Object)}, or by hand for incremental emission.
+ */
+@SuppressWarnings("nls")
+public class JsonWriter implements AutoCloseable, Flushable {
+	private static final int	BUFFER_SIZE		= 8192;
+	private static final int	MAP				= 1;
+	private static final int	ARRAY			= 2;
+	private static final int	HAS_ELEMENTS	= 4;
+	private static final char[]	HEX				= "0123456789abcdef".toCharArray();
+	private Writer				mWriter;
+	private OutputStream		mStream;
+	private ByteBuffer			mByteBuffer;
+	private byte[]				mBytes;
+	private char[]				mBuffer			= new char[BUFFER_SIZE];
+	private int					mPos;
+	private boolean				mCompact;
+	private int[]				mStack			= new int[16];
+	private int					mDepth;
+	private boolean				mKeyPending;
+	private boolean				mComplete;
+
+	/**
+	 * Creates a new {@link JsonWriter}.
+	 *
+	 * @param writer The {@link Writer} to write to.
+	 * @param compact Whether to omit the line breaks and indentation used for pretty output.
+	 */
+	public JsonWriter(Writer writer, boolean compact) {
+		mWriter = writer;
+		mCompact = compact;
+	}
+
+	/**
+	 * Creates a new {@link JsonWriter} that encodes its output as UTF-8.
+	 *
+	 * @param stream The {@link OutputStream} to write to.
+	 * @param compact Whether to omit the line breaks and indentation used for pretty output.
+	 */
+	public JsonWriter(OutputStream stream, boolean compact) {
+		mStream = stream;
+		mBytes = new byte[BUFFER_SIZE * 3];
+		mCompact = compact;
+	}
+
+	/**
+	 * Creates a new {@link JsonWriter} that encodes its output as UTF-8. If the buffer runs out of
+	 * space, a {@link java.nio.BufferOverflowException} will be thrown.
+	 *
+	 * @param buffer The {@link ByteBuffer} to write to.
+	 * @param compact Whether to omit the line breaks and indentation used for pretty output.
+	 */
+	public JsonWriter(ByteBuffer buffer, boolean compact) {
+		mByteBuffer = buffer;
+		mBytes = new byte[BUFFER_SIZE * 3];
+		mCompact = compact;
+	}
+
+	/** Starts a new map. */
+	public JsonWriter startMap() throws IOException {
+		beforeValue();
+		write('{');
+		push(MAP);
+		return this;
+	}
+
+	/** Ends the current map. */
+	public JsonWriter endMap() throws IOException {
+		return end(MAP, '}');
+	}
+
+	/** Starts a new array. */
+	public JsonWriter startArray() throws IOException {
+		beforeValue();
+		write('[');
+		push(ARRAY);
+		return this;
+	}
+
+	/** Ends the current array. */
+	public JsonWriter endArray() throws IOException {
+		return end(ARRAY, ']');
+	}
+
+	/**
+	 * Emits a key within the current map. Must be followed by a value.
+	 *
+	 * @param key The key.
+	 */
+	public JsonWriter key(String key) throws IOException {
+		if (mDepth == 0 || (mStack[mDepth - 1] & MAP) == 0 || mKeyPending) {
+			throw new IllegalStateException("A key is not permitted here");
+		}
+		nextElement();
+		writeQuoted(key);
+		if (mCompact) {
+			write(':');
+		} else {
+			write(" : ");
+		}
+		mKeyPending = true;
+		return this;
+	}
+
+	/** Emits a null value. */
+	public JsonWriter nullValue() throws IOException {
+		beforeValue();
+		write("null");
+		return this;
+	}
+
+	/** @param value The value to emit. */
+	public JsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		write(value ? "true" : "false");
+		return this;
+	}
+
+	/** @param value The value to emit. */
+	public JsonWriter value(long value) throws IOException {
+		beforeValue();
+		writeLong(value);
+		return this;
+	}
+
+	/** @param value The value to emit. */
+	public JsonWriter value(double value) throws IOException {
+		beforeValue();
+		writeNumber(Double.toString(value));
+		return this;
+	}
+
+	/** @param value The value to emit. <code>null</code> is permitted. */
+	public JsonWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		beforeValue();
+		writeQuoted(value);
+		return this;
+	}
+
+	/**
+	 * Emits a value. {@link JsonMap}s and {@link JsonArray}s are streamed out element by element.
+	 * Other objects are converted as {@link Json#toString(Object)} would.
+	 *
+	 * @param value The value to emit. <code>null</code> is permitted.
+	 */
+	public JsonWriter value(Object value) throws IOException {
+		if (JsonNull.INSTANCE.equals(value)) {
+			return nullValue();
+		}
+		if (value instanceof String) {
+			return value((String) value);
+		}
+		if (value instanceof Boolean) {
+			return value(((Boolean) value).booleanValue());
+		}
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return value(((Number) value).longValue());
+		}
+		if (value instanceof Number) {
+			beforeValue();
+			writeNumber(value.toString());
+			return this;
+		}
+		if (value instanceof JsonMap) {
+			JsonMap map = (JsonMap) value;
+			List<String> keys = new ArrayList<>(map.keySet());
+			Collections.sort(keys);
+			startMap();
+			for (String key : keys) {
+				key(key);
+				value(map.get(key));
+			}
+			return endMap();
+		}
+		if (value instanceof JsonArray) {
+			((JsonArray) value).emit(this);
+			return this;
+		}
+		JsonBinder binder = JsonBinder.get(value.getClass());
+		if (binder != null) {
+			binder.write(value, this);
+			return this;
+		}
+		Object wrapped = Json.wrap(value);
+		if (wrapped instanceof JsonCollection) {
+			return value(wrapped);
+		}
+		return value(wrapped.toString());
+	}
+
+	/** Writes any buffered output through to the destination. */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer(true);
+		if (mWriter != null) {
+			mWriter.flush();
+		} else if (mStream != null) {
+			mStream.flush();
+		}
+	}
+
+	/** Flushes any buffered output and closes the underlying {@link Writer} or stream. */
+	@Override
+	public void close() throws IOException {
+		flush();
+		if (mWriter != null) {
+			mWriter.close();
+		} else if (mStream != null) {
+			mStream.close();
+		}
+	}
+
+	private void push(int kind) {
+		if (mDepth == mStack.length) {
+			int[] stack = new int[mDepth * 2];
+			System.arraycopy(mStack, 0, stack, 0, mDepth);
+			mStack = stack;
+		}
+		mStack[mDepth++] = kind;
+	}
+
+	private JsonWriter end(int kind, char closer) throws IOException {
+		if (mDepth == 0 || (mStack[mDepth - 1] & kind) == 0 || mKeyPending) {
+			throw new IllegalStateException("Mismatched end of " + (kind == MAP ? "map" : "array"));
+		}
+		boolean hasElements = (mStack[--mDepth] & HAS_ELEMENTS) != 0;
+		if (!mCompact && hasElements) {
+			newline();
+		}
+		write(closer);
+		if (mDepth == 0) {
+			mComplete = true;
+		}
+		return this;
+	}
+
+	private void beforeValue() throws IOException {
+		if (mDepth == 0) {
+			if (mComplete) {
+				throw new IllegalStateException("The JSON document is already complete");
+			}
+			mComplete = true;
+		} else if ((mStack[mDepth - 1] & MAP) != 0) {
+			if (!mKeyPending) {
+				throw new IllegalStateException("A key must be emitted before a value in a map");
+			}
+			mKeyPending = false;
+		} else {
+			nextElement();
+		}
+	}
+
+	private void nextElement() throws IOException {
+		int state = mStack[mDepth - 1];
+		if ((state & HAS_ELEMENTS) != 0) {
+			write(',');
+		} else {
+			mStack[mDepth - 1] = state | HAS_ELEMENTS;
+		}
+		if (!mCompact) {
+			newline();
+		}
+	}
+
+	private void newline() throws IOException {
+		write('\n');
+		for (int i = 0; i < mDepth; i++) {
+			write('\t');
+		}
+	}
+
+	private void write(char ch) throws IOException {
+		if (mPos == mBuffer.length) {
+			flushBuffer(false);
+		}
+		mBuffer[mPos++] = ch;
+	}
+
+	private void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	private void write(String str, int start, int end) throws IOException {
+		while (start < end) {
+			if (mPos == mBuffer.length) {
+				flushBuffer(false);
+			}
+			int amt = Math.min(end - start, mBuffer.length - mPos);
+			str.getChars(start, start + amt, mBuffer, mPos);
+			mPos += amt;
+			start += amt;
+		}
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			write(Long.toString(value));
+			return;
+		}
+		if (mBuffer.length - mPos < 20) {
+			flushBuffer(false);
+		}
+		if (value < 0) {
+			mBuffer[mPos++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		int pos = mPos + digits;
+		mPos = pos;
+		do {
+			mBuffer[--pos] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+	}
+
+	/** Writes a number, trimming trailing zeros from the fraction as {@link Json#toString(Object)} does. */
+	private void writeNumber(String str) throws IOException {
+		int end = str.length();
+		if (str.indexOf('.') > 0 && str.indexOf('e') < 0 && str.indexOf('E') < 0) {
+			while (str.charAt(end - 1) == '0') {
+				end--;
+			}
+			if (str.charAt(end - 1) == '.') {
+				end--;
+			}
+		}
+		write(str, 0, end);
+	}
+
+	/** Writes a quoted string, escaping it exactly as {@link Json#quote(String)} does. */
+	private void writeQuoted(String str) throws IOException {
+		write('"');
+		int length = str.length();
+		int start = 0;
+		char last = 0;
+		for (int i = 0; i < length; i++) {
+			char ch = str.charAt(i);
+			char prev = last;
+			last = ch;
+			if (ch >= ' ' && ch != '"' && ch != '\\' && ch != '/' && ch < '\u0080') {
+				continue;
+			}
+			char escape;
+			switch (ch) {
+				case '\\':
+				case '"':
+					escape = ch;
+					break;
+				case '/':
+					if (prev != '<') {
+						continue;
+					}
+					escape = ch;
+					break;
+				case '\b':
+					escape = 'b';
+					break;
+				case '\t':
+					escape = 't';
+					break;
+				case '\n':
+					escape = 'n';
+					break;
+				case '\f':
+					escape = 'f';
+					break;
+				case '\r':
+					escape = 'r';
+					break;
+				default:
+					if (ch >= '\u00a0' && (ch < '\u2000' || ch >= '\u2100')) {
+						continue;
+					}
+					escape = 'u';
+					break;
+			}
+			write(str, start, i);
+			start = i + 1;
+			write('\\');
+			write(escape);
+			if (escape == 'u') {
+				write(HEX[ch >> 12 & 0xF]);
+				write(HEX[ch >> 8 & 0xF]);
+				write(HEX[ch >> 4 & 0xF]);
+				write(HEX[ch & 0xF]);
+			}
+		}
+		write(str, start, length);
+		write('"');
+	}
+
+	private void flushBuffer(boolean all) throws IOException {
+		if (mPos == 0) {
+			return;
+		}
+		if (mWriter != null) {
+			mWriter.write(mBuffer, 0, mPos);
+			mPos = 0;
+			return;
+		}
+		int count = mPos;
+		// Hold back a trailing high surrogate until its partner arrives.
+		boolean holdBack = !all && Character.isHighSurrogate(mBuffer[count - 1]);
+		if (holdBack) {
+			count--;
+		}
+		byte[] bytes = mBytes;
+		int out = 0;
+		for (int i = 0; i < count; i++) {
+			char ch = mBuffer[i];
+			if (ch < 0x80) {
+				bytes[out++] = (byte) ch;
+			} else if (ch < 0x800) {
+				bytes[out++] = (byte) (0xC0 | ch >> 6);
+				bytes[out++] = (byte) (0x80 | ch & 0x3F);
+			} else if (Character.isSurrogate(ch)) {
+				if (Character.isHighSurrogate(ch) && i + 1 < count && Character.isLowSurrogate(mBuffer[i + 1])) {
+					int cp = Character.toCodePoint(ch, mBuffer[++i]);
+					bytes[out++] = (byte) (0xF0 | cp >> 18);
+					bytes[out++] = (byte) (0x80 | cp >> 12 & 0x3F);
+					bytes[out++] = (byte) (0x80 | cp >> 6 & 0x3F);
+					bytes[out++] = (byte) (0x80 | cp & 0x3F);
+				} else {
+					bytes[out++] = '?';
+				}
+			} else {
+				bytes[out++] = (byte) (0xE0 | ch >> 12);
+				bytes[out++] = (byte) (0x80 | ch >> 6 & 0x3F);
+				bytes[out++] = (byte) (0x80 | ch & 0x3F);
+			}
+		}
+		if (mStream != null) {
+			mStream.write(bytes, 0, out);
+		} else {
+			mByteBuffer.put(bytes, 0, out);
+		}
+		if (holdBack) {
+			mBuffer[0] = mBuffer[count];
+			mPos = 1;
+		} else {
+			mPos = 0;
+		}
+	}
+}
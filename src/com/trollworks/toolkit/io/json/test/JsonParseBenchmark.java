@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json.test;
+
+import com.trollworks.toolkit.io.json.Json;
+import com.trollworks.toolkit.io.json.JsonArray;
+import com.trollworks.toolkit.io.json.JsonMap;
+
+import java.util.Random;
+
+/**
+ * Compares {@link Json#parse(String)} with the parser it replaced on a generated document of
+ * several megabytes, after checking that both produce the same result.
+ * <p>
+ * Usage: <code>JsonParseBenchmark [megabytes] [rounds]</code>
+ */
+@SuppressWarnings("nls")
+public final class JsonParseBenchmark {
+	private JsonParseBenchmark() {
+	}
+
+	/** @param args The approximate size of the document in megabytes and the number of rounds. */
+	public static void main(String[] args) throws Exception {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		String document = createDocument(megabytes * 1024 * 1024);
+		String expected = LegacyJsonParser.parse(document).toString();
+		if (!expected.equals(Json.parse(document).toString())) {
+			System.out.println("The parsers disagree on the content of the document");
+			System.exit(1);
+		}
+		double size = document.length() / (1024.0 * 1024.0);
+		System.out.printf("document: %.1f MB%n", Double.valueOf(size));
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			LegacyJsonParser.parse(document);
+			long legacy = System.nanoTime();
+			Json.parse(document);
+			long current = System.nanoTime();
+			System.out.printf("round %d: original %.1f MB/s, current %.1f MB/s%n", Integer.valueOf(round + 1), Double.valueOf(size / ((legacy - start) / 1e9)), Double.valueOf(size / ((current - legacy) / 1e9)));
+		}
+	}
+
+	private static String createDocument(int size) {
+		Random random = new Random(1);
+		JsonArray records = new JsonArray();
+		int length = 0;
+		for (int i = 0; length < size; i++) {
+			JsonMap record = new JsonMap();
+			record.put("id", i);
+			record.put("name", "Record \"" + i + "\"\twith\\escapes");
+			record.put("active", random.nextBoolean());
+			record.put("weight", random.nextDouble() * 1000);
+			record.put("serial", random.nextLong());
+			JsonArray values = new JsonArray();
+			for (int j = 0; j < 8; j++) {
+				values.put(random.nextInt(100000));
+			}
+			record.put("values", values);
+			JsonMap location = new JsonMap();
+			location.put("x", random.nextInt(1000));
+			location.put("y", random.nextInt(1000));
+			location.put("label", "Location " + Integer.toHexString(random.nextInt()));
+			record.put("location", location);
+			records.put(record);
+			length += 330;
+		}
+		return records.toString(false);
+	}
+}
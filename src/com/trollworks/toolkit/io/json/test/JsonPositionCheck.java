@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json.test;
+
+import com.trollworks.toolkit.io.json.Json;
+
+import java.io.IOException;
+
+/**
+ * Verifies that {@link Json#parse(String)} reports the same positions for syntax errors as the
+ * original parser did, across LF, CR LF and lone CR line endings.
+ * <p>
+ * Usage: <code>JsonPositionCheck</code>
+ */
+@SuppressWarnings("nls")
+public final class JsonPositionCheck {
+	private static final String[][] CASES = { //
+			{ "{\"a\" 1}", "Expected a ':' after a key at 6 [character 7 line 1]" }, //
+			{ "{\"a\":1,\n\"b\":2,\n\"c\": }", "Missing value at 20 [character 5 line 3]" }, //
+			{ "{\"a\":1,\r\n\"b\":2,\n\"c\": }", "Missing value at 21 [character 5 line 3]" }, //
+			{ "{\"a\":1,\r\"b\":2,\n\"c\": }", "Missing value at 20 [character 5 line 3]" }, //
+			{ "{\"a\":1,\n\"b\":2,\r\r\"c\": }", "Missing value at 21 [character 5 line 4]" }, //
+	};
+
+	private JsonPositionCheck() {
+	}
+
+	/** @param args Unused. */
+	public static void main(String[] args) {
+		int failures = 0;
+		for (String[] one : CASES) {
+			String message;
+			try {
+				Json.parse(one[0]);
+				message = "no error";
+			} catch (IOException exception) {
+				message = exception.getMessage();
+			}
+			if (!one[1].equals(message)) {
+				System.out.println("FAILED: " + one[0].replace("\r", "\\r").replace("\n", "\\n"));
+				System.out.println("  expected: " + one[1]);
+				System.out.println("  actual:   " + message);
+				failures++;
+			}
+		}
+		System.out.println(failures == 0 ? "OK" : failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
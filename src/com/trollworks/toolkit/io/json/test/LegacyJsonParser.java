@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.json.test;
+
+import com.trollworks.toolkit.io.Log;
+import com.trollworks.toolkit.io.json.JsonArray;
+import com.trollworks.toolkit.io.json.JsonMap;
+import com.trollworks.toolkit.io.json.JsonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * The character-at-a-time parser that {@link com.trollworks.toolkit.io.json.Json} used before it
+ * was given a buffered lexer, kept as a baseline for {@link JsonParseBenchmark}.
+ */
+@SuppressWarnings("nls")
+final class LegacyJsonParser {
+	private Reader	mReader;
+	private int		mIndex;
+	private int		mCharacter	= 1;
+	private int		mLine		= 1;
+	private char	mPrevious;
+	private boolean	mEOF;
+	private boolean	mUsePrevious;
+
+	private LegacyJsonParser(Reader reader) {
+		mReader = reader;
+	}
+
+	/**
+	 * @param string A {@link String} to load JSON data from.
+	 * @return The result of loading the data.
+	 */
+	static Object parse(String string) throws IOException {
+		return new LegacyJsonParser(new StringReader(string)).nextValue();
+	}
+
+	private char next() throws IOException {
+		int c;
+		if (mUsePrevious) {
+			mUsePrevious = false;
+			c = mPrevious;
+		} else {
+			c = mReader.read();
+			if (c <= 0) { // End of stream
+				mEOF = true;
+				c = 0;
+			}
+		}
+		mIndex++;
+		if (mPrevious == '\r') {
+			mLine++;
+			mCharacter = c == '\n' ? 0 : 1;
+		} else if (c == '\n') {
+			mLine++;
+			mCharacter = 0;
+		} else {
+			mCharacter++;
+		}
+		mPrevious = (char) c;
+		return mPrevious;
+	}
+
+	private char nextSkippingWhitespace() throws IOException {
+		for (;;) {
+			char c = next();
+			if (c == 0 || c > ' ') {
+				return c;
+			}
+		}
+	}
+
+	private Object nextValue() throws IOException {
+		char c = nextSkippingWhitespace();
+		String s;
+
+		switch (c) {
+			case '"':
+			case '\'':
+				return nextString(c);
+			case '{':
+				back();
+				return nextMap();
+			case '[':
+			case '(':
+				back();
+				return nextArray();
+			default:
+				break;
+		}
+
+		StringBuffer sb = new StringBuffer();
+		while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+			sb.append(c);
+			c = next();
+		}
+		back();
+
+		s = sb.toString().trim();
+		if (s.equals("")) {
+			throw syntaxError("Missing value");
+		}
+		if (s.equalsIgnoreCase("true")) {
+			return Boolean.TRUE;
+		}
+		if (s.equalsIgnoreCase("false")) {
+			return Boolean.FALSE;
+		}
+		if (s.equalsIgnoreCase("null")) {
+			return JsonNull.INSTANCE;
+		}
+
+		char b = s.charAt(0);
+		if (b >= '0' && b <= '9' || b == '.' || b == '-' || b == '+') {
+			if (b == '0' && s.length() > 2 && (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
+				try {
+					return Integer.valueOf(Integer.parseInt(s.substring(2), 16));
+				} catch (Exception ignore) {
+					Log.error(ignore);
+				}
+			}
+			try {
+				if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
+					return Double.valueOf(s);
+				}
+				Long myLong = Long.valueOf(s);
+				if (myLong.longValue() == myLong.intValue()) {
+					return Integer.valueOf(myLong.intValue());
+				}
+				return myLong;
+			} catch (Exception ignore) {
+				Log.error(ignore);
+			}
+		}
+		return s;
+	}
+
+	private JsonArray nextArray() throws IOException {
+		char c = nextSkippingWhitespace();
+		char q;
+		if (c == '[') {
+			q = ']';
+		} else if (c == '(') {
+			q = ')';
+		} else {
+			throw syntaxError("A JSONArray text must start with '['");
+		}
+		JsonArray array = new JsonArray();
+		if (nextSkippingWhitespace() == ']') {
+			return array;
+		}
+		back();
+		for (;;) {
+			if (nextSkippingWhitespace() == ',') {
+				back();
+				array.put((Object) null);
+			} else {
+				back();
+				array.put(nextValue());
+			}
+			c = nextSkippingWhitespace();
+			switch (c) {
+				case ';':
+				case ',':
+					if (nextSkippingWhitespace() == ']') {
+						return array;
+					}
+					back();
+					break;
+				case ']':
+				case ')':
+					if (q != c) {
+						throw syntaxError("Expected a '" + Character.toString(q) + "'");
+					}
+					return array;
+				default:
+					throw syntaxError("Expected a ',' or ']'");
+			}
+		}
+	}
+
+	private JsonMap nextMap() throws IOException {
+		char c;
+		String key;
+
+		if (nextSkippingWhitespace() != '{') {
+			throw syntaxError("JSON object text must begin with '{'");
+		}
+		JsonMap map = new JsonMap();
+		while (true) {
+			c = nextSkippingWhitespace();
+			switch (c) {
+				case 0:
+					throw syntaxError("JSON object text must end with '}'");
+				case '}':
+					return map;
+				default:
+					back();
+					key = nextValue().toString();
+			}
+
+			c = nextSkippingWhitespace();
+			if (c == '=') {
+				if (next() != '>') {
+					back();
+				}
+			} else if (c != ':') {
+				throw syntaxError("Expected a ':' after a key");
+			}
+			if (map.has(key)) {
+				throw new IOException("Duplicate key \"" + key + "\"");
+			}
+			map.put(key, nextValue());
+
+			switch (nextSkippingWhitespace()) {
+				case ';':
+				case ',':
+					if (nextSkippingWhitespace() == '}') {
+						return map;
+					}
+					back();
+					break;
+				case '}':
+					return map;
+				default:
+					throw syntaxError("Expected a ',' or '}'");
+			}
+		}
+	}
+
+	private String nextString(char quote) throws IOException {
+		char c;
+		StringBuffer buffer = new StringBuffer();
+		for (;;) {
+			c = next();
+			switch (c) {
+				case 0:
+				case '\n':
+				case '\r':
+					throw syntaxError("Unterminated string");
+				case '\\':
+					c = next();
+					switch (c) {
+						case 'b':
+							buffer.append('\b');
+							break;
+						case 't':
+							buffer.append('\t');
+							break;
+						case 'n':
+							buffer.append('\n');
+							break;
+						case 'f':
+							buffer.append('\f');
+							break;
+						case 'r':
+							buffer.append('\r');
+							break;
+						case 'u':
+							buffer.append((char) Integer.parseInt(next(4), 16));
+							break;
+						case '"':
+						case '\'':
+						case '\\':
+						case '/':
+							buffer.append(c);
+							break;
+						default:
+							throw syntaxError("Illegal escape.");
+					}
+					break;
+				default:
+					if (c == quote) {
+						return buffer.toString();
+					}
+					buffer.append(c);
+			}
+		}
+	}
+
+	private void back() {
+		if (mUsePrevious || mIndex <= 0) {
+			throw new IllegalStateException("Stepping back two steps is not supported");
+		}
+		mIndex--;
+		mCharacter--;
+		mUsePrevious = true;
+		mEOF = false;
+	}
+
+	private String next(int n) throws IOException {
+		if (n == 0) {
+			return "";
+		}
+
+		char[] buffer = new char[n];
+		int pos = 0;
+
+		while (pos < n) {
+			buffer[pos] = next();
+			if (mEOF && !mUsePrevious) {
+				throw syntaxError("Substring bounds error");
+			}
+			pos++;
+		}
+		return new String(buffer);
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + toString());
+	}
+
+	@Override
+	public String toString() {
+		return " at " + mIndex + " [character " + mCharacter + " line " + mLine + "]";
+	}
+}
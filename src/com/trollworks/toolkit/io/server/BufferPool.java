@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe pool of {@link ByteBuffer}s, used by the server for reads, queued input and
+ * outbound data. Buffers are grouped into power-of-two size classes from
+ * {@link #SMALLEST_CAPACITY} to {@link #LARGEST_CAPACITY} bytes. Requests for more than the
+ * largest class are satisfied with a freshly allocated heap buffer that is never retained, so that
+ * occasional large responses don't eat into the limit on direct memory.
+ * <p>
+ * A buffer obtained from {@link #acquire(int)} may be handed back with {@link #release(ByteBuffer)}
+ * once nothing refers to it any longer. Releasing a buffer that is still in use, or releasing the
+ * same buffer twice, will corrupt the data of whoever acquires it next.
+ */
+@SuppressWarnings("nls")
+public final class BufferPool {
+	/** The capacity of the smallest size class. */
+	public static final int		SMALLEST_CAPACITY	= 512;
+	/** The capacity of the largest size class. */
+	public static final int		LARGEST_CAPACITY	= 256 * 1024;
+	private static final int	SMALLEST_SHIFT		= 9;
+	private boolean				mDirect;
+	private SizeClass[]			mClasses;
+	private LongAdder			mHits				= new LongAdder();
+	private LongAdder			mMisses				= new LongAdder();
+	private LongAdder			mDiscards			= new LongAdder();
+
+	/**
+	 * @param direct Whether to allocate direct, rather than heap, buffers.
+	 * @param retainedBytesPerClass The maximum number of bytes to hold on to within each size
+	 *            class. Released buffers beyond this are left for the garbage collector.
+	 */
+	public BufferPool(boolean direct, int retainedBytesPerClass) {
+		mDirect = direct;
+		mClasses = new SizeClass[Integer.numberOfTrailingZeros(LARGEST_CAPACITY) - SMALLEST_SHIFT + 1];
+		for (int i = 0; i < mClasses.length; i++) {
+			int capacity = SMALLEST_CAPACITY << i;
+			mClasses[i] = new SizeClass(capacity, Math.max(retainedBytesPerClass / capacity, 1));
+		}
+	}
+
+	/** @return Whether this pool hands out direct buffers. */
+	public boolean isDirect() {
+		return mDirect;
+	}
+
+	/**
+	 * @param minimumCapacity The minimum number of bytes the buffer must be able to hold.
+	 * @return A cleared buffer with at least the requested capacity.
+	 */
+	public ByteBuffer acquire(int minimumCapacity) {
+		if (minimumCapacity > LARGEST_CAPACITY) {
+			mMisses.increment();
+			return ByteBuffer.allocate(minimumCapacity);
+		}
+		SizeClass sizeClass = mClasses[indexFor(minimumCapacity)];
+		ByteBuffer buffer = sizeClass.mFree.poll();
+		if (buffer == null) {
+			mMisses.increment();
+			return allocate(sizeClass.mCapacity);
+		}
+		sizeClass.mCount.decrementAndGet();
+		mHits.increment();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers that did not come from a pool of this kind are ignored.
+	 *
+	 * @param buffer The buffer to release. May be <code>null</code>.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.isDirect() != mDirect || buffer.isReadOnly()) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		if (capacity < SMALLEST_CAPACITY || capacity > LARGEST_CAPACITY || Integer.bitCount(capacity) != 1) {
+			return;
+		}
+		SizeClass sizeClass = mClasses[indexFor(capacity)];
+		if (sizeClass.mCount.incrementAndGet() > sizeClass.mLimit) {
+			sizeClass.mCount.decrementAndGet();
+			mDiscards.increment();
+			return;
+		}
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		sizeClass.mFree.offer(buffer);
+	}
+
+	/** @return The number of times {@link #acquire(int)} was satisfied by a pooled buffer. */
+	public long getHits() {
+		return mHits.sum();
+	}
+
+	/** @return The number of times {@link #acquire(int)} had to allocate a new buffer. */
+	public long getMisses() {
+		return mMisses.sum();
+	}
+
+	/** @return The number of released buffers dropped because their size class was full. */
+	public long getDiscards() {
+		return mDiscards.sum();
+	}
+
+	/** @return The number of bytes currently held by the pool. */
+	public long getRetainedBytes() {
+		long total = 0;
+		for (SizeClass sizeClass : mClasses) {
+			total += (long) sizeClass.mCount.get() * sizeClass.mCapacity;
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "BufferPool [hits=" + getHits() + ", misses=" + getMisses() + ", discards=" + getDiscards() + ", retained=" + getRetainedBytes() + "]";
+	}
+
+	private static int indexFor(int capacity) {
+		return Math.max(32 - Integer.numberOfLeadingZeros(capacity - 1) - SMALLEST_SHIFT, 0);
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return mDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private static class SizeClass {
+		final int				mCapacity;
+		final int				mLimit;
+		final Queue<ByteBuffer>	mFree	= new ConcurrentLinkedQueue<>();
+		final AtomicInteger		mCount	= new AtomicInteger();
+
+		SizeClass(int capacity, int limit) {
+			mCapacity = capacity;
+			mLimit = limit;
+		}
+	}
+}
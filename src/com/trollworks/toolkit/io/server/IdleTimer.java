@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Closes {@link Session}s that have been idle for longer than their timeout, using a hashed timing
+ * wheel. Each {@link Session} sits in the slot for the tick at which it would next expire. Activity
+ * on a {@link Session} only updates its last activity time; when its slot comes around, a
+ * {@link Session} that has seen activity in the meantime is simply moved to the slot for its new
+ * deadline. Each tick therefore only looks at the {@link Session}s that might be expiring, rather
+ * than sweeping all of them.
+ */
+final class IdleTimer extends Thread {
+	private static final int			TICK_MILLIS	= 250;
+	private static final int			WHEEL_SIZE	= 1024;
+	private List<ArrayList<Session>>	mWheel		= new ArrayList<>(WHEEL_SIZE);
+	private ArrayList<Session>			mSpare		= new ArrayList<>();
+	private Queue<Session>				mAdditions	= new ConcurrentLinkedQueue<>();
+	private long						mStart		= System.nanoTime();
+	private long						mTick;
+
+	IdleTimer() {
+		setName(getClass().getSimpleName());
+		setDaemon(true);
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			mWheel.add(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Starts tracking the {@link Session}, or re-evaluates its deadline if it is already being
+	 * tracked, such as after its timeout has been changed. May be called from any thread.
+	 *
+	 * @param session The {@link Session} to track.
+	 */
+	void schedule(Session session) {
+		mAdditions.add(session);
+	}
+
+	@Override
+	public void run() {
+		while (!isInterrupted()) {
+			try {
+				long delay = (mTick + 1) * TICK_MILLIS - elapsedMillis();
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+			} catch (InterruptedException exception) {
+				break;
+			}
+			// The wheel turns with the monotonic clock, so changes to the wall clock can't move a
+			// slot out from under the sessions in it
+			long target = elapsedMillis() / TICK_MILLIS;
+			long now = System.currentTimeMillis();
+			// Catch up on any ticks missed while we weren't running
+			while (mTick < target) {
+				Session session;
+				while ((session = mAdditions.poll()) != null) {
+					place(session);
+				}
+				mTick++;
+				int index = (int) (mTick % WHEEL_SIZE);
+				ArrayList<Session> slot = mWheel.get(index);
+				if (!slot.isEmpty()) {
+					mWheel.set(index, mSpare);
+					for (Session one : slot) {
+						if (one.getIdleTimerTick() == mTick) {
+							expireOrReschedule(one, now);
+						}
+					}
+					slot.clear();
+					mSpare = slot;
+				}
+			}
+		}
+	}
+
+	private long elapsedMillis() {
+		return (System.nanoTime() - mStart) / 1000000;
+	}
+
+	private void expireOrReschedule(Session session, long now) {
+		if (!session.getChannel().isOpen()) {
+			return;
+		}
+		long timeout = session.getIdleTimeout();
+		if (timeout > 0 && session.getLastActivity() + timeout <= now) {
+			session.setIdleTimerTick(-1);
+			session.requestClose(false);
+		} else {
+			place(session);
+		}
+	}
+
+	private void place(Session session) {
+		long timeout = session.getIdleTimeout();
+		long tick = mTick + WHEEL_SIZE - 1;
+		if (timeout > 0) {
+			// Activity is recorded in wall clock time, so only the time remaining is carried over
+			long remaining = session.getLastActivity() + timeout - System.currentTimeMillis();
+			tick = Math.min(Math.max(mTick + (remaining + TICK_MILLIS - 1) / TICK_MILLIS, mTick + 1), tick);
+		}
+		if (session.getIdleTimerTick() != tick) {
+			session.setIdleTimerTick(tick);
+			mWheel.get((int) (tick % WHEEL_SIZE)).add(session);
+		}
+	}
+}
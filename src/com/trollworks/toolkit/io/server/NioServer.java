@@ -16,22 +16,16 @@ import com.trollworks.toolkit.io.Log;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.channels.CancelledKeyException;
-import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -39,35 +33,69 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLContext;
 
-/** The core non-blocking i/o server. */
+/**
+ * The core non-blocking i/o server. This thread accepts connections. By default it also services
+ * them, but it may instead be configured to pin each connection to one of several separate
+ * selector loops, each with its own thread.
+ */
 public class NioServer extends Thread {
-	private Selector									mSelector;
-	private List<ChangeRequest>							mPendingChanges		= new LinkedList<>();
-	private Map<SocketChannel, LinkedList<ByteBuffer>>	mPendingWriteData	= new HashMap<>();
-	private ByteBuffer									mReadBuffer			= ByteBuffer.allocate(8192);
-	private LinkedBlockingQueue<Session>				mQueue				= new LinkedBlockingQueue<>();
-	private List<NioWorker>								mWorkers			= new ArrayList<>();
-	private Set<Session>								mSessions			= new HashSet<>();
-	private SSLContext									mSSLContext;
-	private TimeoutMonitor								mTimeoutMonitor;
+	/** The default number of milliseconds a {@link Session} may sit idle before it is closed. */
+	public static final long				DEFAULT_IDLE_TIMEOUT	= TimeUnit.MILLISECONDS.convert(2, TimeUnit.MINUTES);
+	private SelectorLoop					mAcceptor;
+	private SelectorLoop[]					mLoops;
+	private List<Thread>					mLoopThreads			= new ArrayList<>();
+	private int								mNextLoop;
+	private LinkedBlockingQueue<Session>	mQueue					= new LinkedBlockingQueue<>();
+	private List<NioWorker>					mWorkers				= new ArrayList<>();
+	private Set<Session>					mSessions				= new HashSet<>();
+	private BufferPool						mBufferPool				= new BufferPool(true, 1024 * 1024);
+	private volatile int					mWriteCoalescingThreshold;
+	private SSLContext						mSSLContext;
+	private IdleTimer						mIdleTimer;
 
 	/**
+	 * Creates a server that accepts and services connections on a single thread.
+	 *
 	 * @param sslContext The {@link SSLContext} to use. Typically created by calling
 	 *            {@link SSLSupport#createContext(URL, String)}.
 	 */
 	public NioServer(SSLContext sslContext) throws IOException {
+		this(sslContext, 1);
+	}
+
+	/**
+	 * @param sslContext The {@link SSLContext} to use. Typically created by calling
+	 *            {@link SSLSupport#createContext(URL, String)}.
+	 * @param selectorCount The number of selector loops to service connections with. If this is
+	 *            greater than 1, this thread only accepts connections, handing each one off to a
+	 *            separate selector loop in turn, where it remains until it is closed. Otherwise,
+	 *            this thread services the connections itself.
+	 */
+	public NioServer(SSLContext sslContext, int selectorCount) throws IOException {
 		setName(getClass().getSimpleName());
 		setDaemon(true);
 		mSSLContext = sslContext;
-		mSelector = SelectorProvider.provider().openSelector();
+		mAcceptor = new SelectorLoop(this);
+		if (selectorCount > 1) {
+			mLoops = new SelectorLoop[selectorCount];
+			for (int i = 0; i < selectorCount; i++) {
+				mLoops[i] = new SelectorLoop(this);
+				Thread thread = new Thread(mLoops[i], "NioSelector " + (i + 1)); //$NON-NLS-1$
+				thread.setDaemon(true);
+				thread.start();
+				mLoopThreads.add(thread);
+			}
+		} else {
+			mLoops = new SelectorLoop[] { mAcceptor };
+		}
 		int count = Runtime.getRuntime().availableProcessors() + 1;
 		for (int i = 0; i < count; i++) {
 			NioWorker worker = new NioWorker(mQueue);
 			worker.start();
 			mWorkers.add(worker);
 		}
-		mTimeoutMonitor = new TimeoutMonitor(TimeUnit.MILLISECONDS.convert(2, TimeUnit.MINUTES));
-		mTimeoutMonitor.start();
+		mIdleTimer = new IdleTimer();
+		mIdleTimer.start();
 	}
 
 	/** @return The {@link SSLContext} to use with this server. */
@@ -75,6 +103,30 @@ public class NioServer extends Thread {
 		return mSSLContext;
 	}
 
+	/**
+	 * @return The {@link BufferPool} used for reads, queued input and outbound data. Its hit and
+	 *         miss counts give an indication of how well it is sized for the current load.
+	 */
+	public final BufferPool getBufferPool() {
+		return mBufferPool;
+	}
+
+	/** @return The size below which outbound writes are coalesced. 0 if coalescing is disabled. */
+	public final int getWriteCoalescingThreshold() {
+		return mWriteCoalescingThreshold;
+	}
+
+	/**
+	 * Outbound writes smaller than the threshold are copied into a buffer shared with the other
+	 * small writes queued for the same {@link Session}, so that a stream of tiny writes doesn't
+	 * occupy a separate slot in each gathering write. Disabled by default.
+	 *
+	 * @param threshold The size below which outbound writes are coalesced. Pass in 0 to disable.
+	 */
+	public final void setWriteCoalescingThreshold(int threshold) {
+		mWriteCoalescingThreshold = Math.max(threshold, 0);
+	}
+
 	/** @return The current {@link Session}s. */
 	public final List<Session> getSessions() {
 		synchronized (mSessions) {
@@ -87,15 +139,15 @@ public class NioServer extends Thread {
 		synchronized (mSessions) {
 			mSessions.remove(session);
 		}
+		SelectorLoop loop = session.getSelectorLoop();
+		if (loop != null) {
+			loop.forget(session.getChannel());
+		}
 	}
 
 	/** Call to shutdown the server. */
 	public final void shutdown() {
-		try {
-			mSelector.close();
-		} catch (IOException exception) {
-			Log.error(exception);
-		}
+		mAcceptor.close();
 		try {
 			join();
 		} catch (InterruptedException exception) {
@@ -114,90 +166,70 @@ public class NioServer extends Thread {
 		ServerSocketChannel channel = ServerSocketChannel.open();
 		channel.configureBlocking(false);
 		channel.socket().bind(new InetSocketAddress(hostAddress, port));
-		channel.register(mSelector, SelectionKey.OP_ACCEPT, sessionFactory);
+		channel.register(mAcceptor.getSelector(), SelectionKey.OP_ACCEPT, sessionFactory);
 	}
 
 	@Override
 	public final void run() {
-		while (true) {
+		mAcceptor.run();
+		// Shutdown the other selector loops
+		for (SelectorLoop loop : mLoops) {
+			if (loop != mAcceptor) {
+				loop.close();
+			}
+		}
+		for (Thread thread : mLoopThreads) {
 			try {
-				// Adjust what we're waiting on
-				synchronized (mPendingChanges) {
-					for (ChangeRequest request : mPendingChanges) {
-						try {
-							request.mSocket.keyFor(mSelector).interestOps(request.mOperation);
-						} catch (Exception exception) {
-							// Ignore
-						}
-					}
-					mPendingChanges.clear();
-				}
-
-				// Wait for some work
-				mSelector.select();
-
-				// Handle the work
-				Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
-				while (keys.hasNext()) {
-					SelectionKey key = keys.next();
-					keys.remove();
-					if (key.isValid()) {
-						if (key.isAcceptable()) {
-							accept(key);
-						} else if (key.isReadable()) {
-							read(key);
-						} else if (key.isWritable()) {
-							write(key);
-						}
-					}
-				}
-			} catch (CancelledKeyException cke) {
-				// Ignore
-			} catch (ClosedSelectorException cse) {
-				// Allow the work queue to drain
-				while (!mQueue.isEmpty()) {
-					try {
-						Thread.sleep(50);
-					} catch (InterruptedException exception) {
-						break;
-					}
-				}
-				// Shutdown the workers
-				for (NioWorker worker : mWorkers) {
-					worker.interrupt();
-					try {
-						worker.join();
-					} catch (InterruptedException ie) {
-						break;
-					}
-				}
+				thread.join();
+			} catch (InterruptedException ie) {
+				break;
+			}
+		}
+		// Allow the work queue to drain
+		while (!mQueue.isEmpty()) {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException exception) {
+				break;
+			}
+		}
+		mIdleTimer.interrupt();
+		// Shutdown the workers
+		for (NioWorker worker : mWorkers) {
+			worker.interrupt();
+			try {
+				worker.join();
+			} catch (InterruptedException ie) {
 				break;
-			} catch (Throwable throwable) {
-				Log.error(throwable);
 			}
 		}
 	}
 
 	/**
-	 * Puts the data into the send queue.
+	 * Puts the data into the send queue of the selector loop servicing the {@link Session}. May
+	 * block if the {@link Session}'s high watermark is exceeded.
 	 *
-	 * @param socket The socket to send data through.
+	 * @param session The {@link Session} to send data through.
 	 * @param data The data to send. A copy of the data is not made, so do not modify it once passed
 	 *            to this method.
+	 * @param release Whether to return the data to the {@link BufferPool} once it has been written.
 	 */
-	final void send(SocketChannel socket, ByteBuffer data) {
-		synchronized (mPendingWriteData) {
-			LinkedList<ByteBuffer> list = mPendingWriteData.get(socket);
-			if (list == null) {
-				list = new LinkedList<>();
-				mPendingWriteData.put(socket, list);
-			}
-			list.add(data);
-		}
-		synchronized (mPendingChanges) {
-			mPendingChanges.add(new ChangeRequest(socket, SelectionKey.OP_WRITE));
-		}
-		mSelector.wakeup();
+	final void send(Session session, ByteBuffer data, boolean release) {
+		session.getSelectorLoop().send(session, data, release);
+	}
+
+	/**
+	 * Puts a region of a file into the send queue of the selector loop servicing the
+	 * {@link Session}.
+	 *
+	 * @param session The {@link Session} to send data through.
+	 * @param file The file to send data from. Ownership passes to the server, which closes it once
+	 *            the data has been sent.
+	 * @param position The position within the file to start at.
+	 * @param count The number of bytes to send.
+	 */
+	final void sendFile(Session session, FileChannel file, long position, long count) {
+		session.getSelectorLoop().sendFile(session, file, position, count);
 	}
 
 	/**
@@ -205,41 +237,51 @@ public class NioServer extends Thread {
 	 * @return <code>true</code> if there is data waiting to be sent on the specified socket.
 	 */
 	public final boolean hasPendingWrite(SocketChannel socket) {
-		synchronized (mPendingWriteData) {
-			LinkedList<ByteBuffer> list = mPendingWriteData.get(socket);
-			return list != null && !list.isEmpty();
+		for (SelectorLoop loop : mLoops) {
+			if (loop.hasPendingWrite(socket)) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	private final void accept(SelectionKey key) throws IOException {
+	/**
+	 * Accepts a pending connection and hands it off to a selector loop. Called on this thread.
+	 *
+	 * @param key The key of the listening socket.
+	 */
+	final void accept(SelectionKey key) throws IOException {
 		@SuppressWarnings("resource")
 		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
 		@SuppressWarnings("resource")
 		SocketChannel socketChannel = serverSocketChannel.accept();
+		if (socketChannel == null) {
+			return;
+		}
 		socketChannel.configureBlocking(false);
-		Session session = ((SessionFactory) key.attachment()).createSession(this, socketChannel);
+		// Writes are already gathered together before being handed to the socket, so holding back
+		// partial segments only adds delay, particularly when a response header is followed by a
+		// file transfer.
+		socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+		SessionFactory factory = (SessionFactory) key.attachment();
+		Session session = factory.createSession(this, socketChannel);
 		synchronized (mSessions) {
 			mSessions.add(session);
 		}
-		socketChannel.register(mSelector, SelectionKey.OP_READ, session);
+		SelectorLoop loop = mLoops[mNextLoop];
+		mNextLoop = (mNextLoop + 1) % mLoops.length;
+		session.setSelectorLoop(loop);
+		session.setIdleTimeout(factory.getIdleTimeout());
+		loop.register(socketChannel, session);
 	}
 
-	private final void read(SelectionKey key) {
-		@SuppressWarnings("resource")
-		SocketChannel socketChannel = (SocketChannel) key.channel();
-		Session session = (Session) key.attachment();
-		mReadBuffer.clear();
-		int amount;
-		try {
-			amount = socketChannel.read(mReadBuffer);
-			if (amount > 0) {
-				session.requestHandleInput(mReadBuffer);
-			} else if (amount == -1) {
-				session.requestClose(false);
-			}
-		} catch (Throwable throwable) {
-			session.requestClose(true);
-		}
+	/**
+	 * Asks the idle timer to (re-)evaluate the deadline of the specified {@link Session}.
+	 *
+	 * @param session The {@link Session} to check.
+	 */
+	final void scheduleIdleCheck(Session session) {
+		mIdleTimer.schedule(session);
 	}
 
 	/**
@@ -251,42 +293,6 @@ public class NioServer extends Thread {
 		mQueue.add(session);
 	}
 
-	@SuppressWarnings("resource")
-	private final void write(SelectionKey key) {
-		SocketChannel socketChannel = (SocketChannel) key.channel();
-		synchronized (mPendingWriteData) {
-			LinkedList<ByteBuffer> list = mPendingWriteData.get(socketChannel);
-			if (list == null || list.isEmpty()) {
-				key.interestOps(SelectionKey.OP_READ);
-			} else {
-				ByteBuffer buffer = list.getFirst();
-				try {
-					socketChannel.write(buffer);
-				} catch (IOException ioe) {
-					mPendingWriteData.remove(socketChannel);
-					key.interestOps(SelectionKey.OP_READ);
-					return;
-				}
-				if (buffer.remaining() == 0) {
-					list.removeFirst();
-					if (list.isEmpty()) {
-						key.interestOps(SelectionKey.OP_READ);
-					}
-				}
-			}
-		}
-	}
-
-	private static class ChangeRequest {
-		final SocketChannel	mSocket;
-		final int			mOperation;
-
-		ChangeRequest(SocketChannel socket, int operation) {
-			mSocket = socket;
-			mOperation = operation;
-		}
-	}
-
 	private static class NioWorker extends Thread {
 		private static final AtomicInteger		NEXT_ID	= new AtomicInteger();
 		private LinkedBlockingQueue<Session>	mQueue;
@@ -315,31 +321,4 @@ public class NioServer extends Thread {
 			}
 		}
 	}
-
-	private class TimeoutMonitor extends Thread {
-		private long mTimeout;
-
-		TimeoutMonitor(long timeoutMilliseconds) {
-			setName(getClass().getSimpleName());
-			setDaemon(true);
-			mTimeout = timeoutMilliseconds;
-		}
-
-		@Override
-		public void run() {
-			while (true) {
-				try {
-					Thread.sleep(Math.max(mTimeout / 4, 1000));
-					long timeout = System.currentTimeMillis() - mTimeout;
-					for (Session session : getSessions()) {
-						if (session.getLastActivity() <= timeout) {
-							session.requestClose(false);
-						}
-					}
-				} catch (InterruptedException exception) {
-					break;
-				}
-			}
-		}
-	}
 }
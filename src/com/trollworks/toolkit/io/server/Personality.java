@@ -13,6 +13,7 @@ package com.trollworks.toolkit.io.server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /** A {@link Personality} provides the actual data handling for a {@link Session}. */
 public abstract class Personality {
@@ -39,7 +40,8 @@ public abstract class Personality {
 	 * @param buffer The data to process. It is not required that all the data within the passed in
 	 *            buffer be consumed in a single call, however, the {@link Session} will continue to
 	 *            call {@link #processInput(ByteBuffer)} with the same buffer until the entire
-	 *            buffer has been consumed.
+	 *            buffer has been consumed. The buffer is reused once consumed, so no reference to it
+	 *            may be kept.
 	 */
 	public abstract void processInput(ByteBuffer buffer) throws IOException;
 
@@ -48,7 +50,38 @@ public abstract class Personality {
 	 *            passed to this method.
 	 */
 	public final void send(ByteBuffer buffer) {
-		mSession.send(buffer);
+		mSession.send(buffer, false);
+	}
+
+	/**
+	 * @return The {@link BufferPool} to obtain buffers from for use with
+	 *         {@link #sendPooled(ByteBuffer)}.
+	 */
+	public final BufferPool getBufferPool() {
+		return mSession.getServer().getBufferPool();
+	}
+
+	/**
+	 * @param buffer The data to send. Must have been obtained from {@link #getBufferPool()}.
+	 *            Ownership passes to the server, which returns the buffer to the pool once its data
+	 *            has been written, so do not touch it once passed to this method.
+	 */
+	public final void sendPooled(ByteBuffer buffer) {
+		mSession.send(buffer, true);
+	}
+
+	/**
+	 * Sends a region of a file. On an unencrypted connection, the data is transferred straight
+	 * from the file to the socket as the socket is able to accept it, without being copied through
+	 * the Java heap.
+	 *
+	 * @param file The file to send data from. Ownership passes to the server, which closes it once
+	 *            the data has been sent, so do not use it once passed to this method.
+	 * @param position The position within the file to start at.
+	 * @param count The number of bytes to send.
+	 */
+	public final void sendFile(FileChannel file, long position, long count) {
+		mSession.sendFile(file, position, count);
 	}
 
 	/**
@@ -60,6 +93,25 @@ public abstract class Personality {
 		mSession.requestClose(dueToError);
 	}
 
+	/**
+	 * @return <code>true</code> if the associated {@link Session} has been asked to close. Code
+	 *         producing a long stream of output should check this periodically and stop once it
+	 *         returns <code>true</code>.
+	 */
+	public final boolean isCloseRequested() {
+		return mSession.isCloseRequested();
+	}
+
+	/**
+	 * @return The number of milliseconds a {@link Session} using this {@link Personality} may sit
+	 *         idle before it is closed, with 0 meaning no timeout, or -1 to use the timeout the
+	 *         {@link Session} was given by its {@link SessionFactory}. Checked whenever the
+	 *         {@link Session}'s deadline comes around, so should not be changed afterwards.
+	 */
+	public long getIdleTimeout() {
+		return -1;
+	}
+
 	/** Called when the {@link Session} is closing down. */
 	public abstract void closing() throws IOException;
 }
@@ -214,10 +214,10 @@ public class SSLSupport {
 		mOutboundData.flip();
 		int limit = mOutboundData.limit();
 		if (limit > 0) {
-			ByteBuffer buffer = ByteBuffer.allocate(limit);
+			ByteBuffer buffer = mSession.getServer().getBufferPool().acquire(limit);
 			buffer.put(mOutboundData);
 			buffer.flip();
-			mSession.getServer().send(mSession.getChannel(), buffer);
+			mSession.getServer().send(mSession, buffer, true);
 		}
 		mOutboundData.clear();
 	}
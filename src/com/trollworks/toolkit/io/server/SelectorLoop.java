@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server;
+
+import com.trollworks.toolkit.io.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Selector} and the loop that services it. Each {@link Session} is pinned to a single
+ * loop for its lifetime. The loop owns the queues of data waiting to be written and the interest-op
+ * changes for the channels registered with it, so separate loops never contend with one another.
+ * Other threads hand work to a loop through {@link #execute(Runnable)}.
+ */
+final class SelectorLoop implements Runnable {
+	private static final int				READ_SIZE			= 8192;
+	private static final int				COALESCE_SIZE		= 4096;
+	private static final long				TRANSFER_SIZE		= 1024 * 1024;
+	private NioServer						mServer;
+	private Selector						mSelector;
+	private Map<SocketChannel, WriteQueue>	mPendingWriteData	= new ConcurrentHashMap<>();
+	private ByteBuffer[]					mGather				= new ByteBuffer[64];
+	private Queue<Runnable>					mTasks				= new ConcurrentLinkedQueue<>();
+	private AtomicBoolean					mWakeupPending		= new AtomicBoolean();
+	private volatile Thread					mThread;
+
+	/** @param server The {@link NioServer} this loop belongs to. */
+	SelectorLoop(NioServer server) throws IOException {
+		mServer = server;
+		mSelector = SelectorProvider.provider().openSelector();
+	}
+
+	/** @return The {@link Selector} serviced by this loop. */
+	Selector getSelector() {
+		return mSelector;
+	}
+
+	/** Closes the {@link Selector}, causing {@link #run()} to return. */
+	void close() {
+		if (mThread != null) {
+			// Closing the selector while the loop is walking its selected keys would break the walk
+			execute(this::closeSelector);
+		} else {
+			closeSelector();
+		}
+	}
+
+	private void closeSelector() {
+		try {
+			mSelector.close();
+		} catch (IOException exception) {
+			Log.error(exception);
+		}
+	}
+
+	/**
+	 * Arranges for the task to be run on this loop's thread. If called from that thread, the task is
+	 * run immediately.
+	 *
+	 * @param task The task to run.
+	 */
+	void execute(Runnable task) {
+		if (Thread.currentThread() == mThread) {
+			task.run();
+		} else {
+			mTasks.add(task);
+			if (mWakeupPending.compareAndSet(false, true)) {
+				mSelector.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * Registers a newly accepted connection with this loop.
+	 *
+	 * @param channel The channel to register.
+	 * @param session The {@link Session} for the channel.
+	 */
+	void register(SocketChannel channel, Session session) {
+		mPendingWriteData.put(channel, new WriteQueue());
+		execute(() -> {
+			try {
+				channel.register(mSelector, hasPendingWrite(channel) ? SelectionKey.OP_WRITE : SelectionKey.OP_READ, session);
+			} catch (IOException exception) {
+				session.requestClose(true);
+			}
+		});
+	}
+
+	/**
+	 * Puts the data into the send queue. If this pushes the amount of data waiting to be written
+	 * above the {@link Session}'s high watermark, the calling thread is blocked until it drops back
+	 * down to the low watermark, the channel is closed, or a close of the {@link Session} is
+	 * requested.
+	 *
+	 * @param session The {@link Session} to send data through.
+	 * @param data The data to send. A copy of the data is not made, so do not modify it once passed
+	 *            to this method.
+	 * @param release Whether to return the data to the server's {@link BufferPool} once written.
+	 */
+	void send(Session session, ByteBuffer data, boolean release) {
+		SocketChannel channel = session.getChannel();
+		WriteQueue queue = mPendingWriteData.get(channel);
+		BufferPool pool = mServer.getBufferPool();
+		if (queue == null) {
+			if (release) {
+				pool.release(data);
+			}
+			return;
+		}
+		boolean schedule;
+		synchronized (queue) {
+			if (queue.mClosed) {
+				if (release) {
+					pool.release(data);
+				}
+				return;
+			}
+			int size = data.remaining();
+			int threshold = mServer.getWriteCoalescingThreshold();
+			if (size > 0 && size < threshold) {
+				if (queue.mTail != null && queue.mTail.remaining() < size) {
+					queue.flushTail();
+				}
+				if (queue.mTail == null) {
+					queue.mTail = pool.acquire(Math.max(threshold, COALESCE_SIZE));
+				}
+				queue.mTail.put(data);
+				if (release) {
+					pool.release(data);
+				}
+			} else {
+				queue.flushTail();
+				queue.mPending.add(new PendingWrite(data, release));
+			}
+			queue.mPendingBytes += size;
+			schedule = !queue.mWriteScheduled;
+			queue.mWriteScheduled = true;
+		}
+		if (schedule) {
+			execute(() -> setInterest(channel, SelectionKey.OP_WRITE));
+		}
+		int high = session.getHighWriteWatermark();
+		if (high > 0 && Thread.currentThread() != mThread) {
+			synchronized (queue) {
+				if (queue.mPendingBytes > high) {
+					int low = session.getLowWriteWatermark();
+					queue.mWaiters++;
+					try {
+						while (queue.mPendingBytes > low && !queue.mClosed && !queue.mUnblocked) {
+							queue.wait();
+						}
+					} catch (InterruptedException exception) {
+						Thread.currentThread().interrupt();
+					} finally {
+						queue.mWaiters--;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Puts a region of a file into the send queue. The data is handed from the file to the channel
+	 * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} as the
+	 * channel becomes writable, so it never passes through the Java heap. Since the data isn't
+	 * held in memory, it does not count towards the {@link Session}'s watermarks.
+	 *
+	 * @param session The {@link Session} to send data through.
+	 * @param file The file to send. Ownership passes to this loop, which closes it once the region
+	 *            has been sent or the channel is closed.
+	 * @param position The position within the file to start at.
+	 * @param count The number of bytes to send.
+	 */
+	void sendFile(Session session, FileChannel file, long position, long count) {
+		SocketChannel channel = session.getChannel();
+		WriteQueue queue = mPendingWriteData.get(channel);
+		if (queue == null) {
+			closeQuietly(file);
+			return;
+		}
+		boolean schedule;
+		synchronized (queue) {
+			if (queue.mClosed) {
+				closeQuietly(file);
+				return;
+			}
+			queue.flushTail();
+			queue.mPending.add(new PendingWrite(file, position, count));
+			schedule = !queue.mWriteScheduled;
+			queue.mWriteScheduled = true;
+		}
+		if (schedule) {
+			execute(() -> setInterest(channel, SelectionKey.OP_WRITE));
+		}
+	}
+
+	private static void closeQuietly(FileChannel file) {
+		try {
+			file.close();
+		} catch (IOException exception) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * @param channel The channel to check.
+	 * @return <code>true</code> if there is data waiting to be sent on the specified channel.
+	 */
+	boolean hasPendingWrite(SocketChannel channel) {
+		WriteQueue queue = mPendingWriteData.get(channel);
+		if (queue != null) {
+			synchronized (queue) {
+				return queue.mPendingBytes > 0 || !queue.mPending.isEmpty();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stops blocking senders on the specified channel, both now and in the future. Called when a
+	 * close has been requested, so that the close request isn't held up behind a stalled sender.
+	 *
+	 * @param channel The channel.
+	 */
+	void stopBlocking(SocketChannel channel) {
+		WriteQueue queue = mPendingWriteData.get(channel);
+		if (queue != null) {
+			synchronized (queue) {
+				queue.mUnblocked = true;
+				queue.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Discards any state held for a channel that has been closed.
+	 *
+	 * @param channel The channel.
+	 */
+	void forget(SocketChannel channel) {
+		execute(() -> {
+			WriteQueue queue = mPendingWriteData.remove(channel);
+			if (queue != null) {
+				synchronized (queue) {
+					queue.close(mServer.getBufferPool());
+				}
+			}
+		});
+	}
+
+	private void setInterest(SocketChannel channel, int operation) {
+		SelectionKey key = channel.keyFor(mSelector);
+		if (key != null) {
+			try {
+				key.interestOps(operation);
+			} catch (CancelledKeyException exception) {
+				// Ignore
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		mThread = Thread.currentThread();
+		while (true) {
+			try {
+				// Apply the changes requested by other threads
+				mWakeupPending.set(false);
+				Runnable task;
+				while ((task = mTasks.poll()) != null) {
+					task.run();
+				}
+
+				// Wait for some work
+				mSelector.select();
+
+				// Handle the work
+				Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid()) {
+						if (key.isAcceptable()) {
+							mServer.accept(key);
+						} else if (key.isReadable()) {
+							read(key);
+						} else if (key.isWritable()) {
+							write(key);
+						}
+					}
+				}
+			} catch (CancelledKeyException cke) {
+				// Ignore
+			} catch (ClosedSelectorException cse) {
+				break;
+			} catch (Throwable throwable) {
+				Log.error(throwable);
+			}
+		}
+	}
+
+	private void read(SelectionKey key) {
+		@SuppressWarnings("resource")
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		Session session = (Session) key.attachment();
+		BufferPool pool = mServer.getBufferPool();
+		ByteBuffer buffer = pool.acquire(READ_SIZE);
+		int amount;
+		try {
+			amount = socketChannel.read(buffer);
+			if (amount > 0) {
+				buffer.flip();
+				session.requestHandleInput(buffer);
+				return;
+			}
+			if (amount == -1) {
+				session.requestClose(false);
+			}
+		} catch (Throwable throwable) {
+			session.requestClose(true);
+		}
+		pool.release(buffer);
+	}
+
+	/**
+	 * Writes as much of the pending data as the channel will accept, handing as many queued buffers
+	 * as possible to each gathering write. File regions are transferred on their own, a chunk at a
+	 * time.
+	 */
+	@SuppressWarnings("resource")
+	private void write(SelectionKey key) {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		WriteQueue queue = mPendingWriteData.get(socketChannel);
+		if (queue == null) {
+			key.interestOps(SelectionKey.OP_READ);
+			return;
+		}
+		BufferPool pool = mServer.getBufferPool();
+		while (true) {
+			int count = 0;
+			long available = 0;
+			PendingWrite region = null;
+			synchronized (queue) {
+				queue.flushTail();
+				for (PendingWrite pending : queue.mPending) {
+					if (pending.mFile != null) {
+						if (count == 0) {
+							region = pending;
+						}
+						break;
+					}
+					mGather[count++] = pending.mBuffer;
+					available += pending.mBuffer.remaining();
+					if (count == mGather.length) {
+						break;
+					}
+				}
+				if (count == 0 && region == null) {
+					queue.mWriteScheduled = false;
+					key.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+			}
+			if (region != null) {
+				if (!transfer(key, queue, region)) {
+					return;
+				}
+				continue;
+			}
+			long written;
+			try {
+				written = socketChannel.write(mGather, 0, count);
+			} catch (IOException ioe) {
+				synchronized (queue) {
+					queue.close(pool);
+				}
+				key.interestOps(SelectionKey.OP_READ);
+				return;
+			} finally {
+				Arrays.fill(mGather, 0, count, null);
+			}
+			synchronized (queue) {
+				queue.mPendingBytes -= written;
+				PendingWrite pending;
+				while ((pending = queue.mPending.peek()) != null && pending.mFile == null && !pending.mBuffer.hasRemaining()) {
+					queue.mPending.poll();
+					if (pending.mRelease) {
+						pool.release(pending.mBuffer);
+					}
+				}
+				if (queue.mWaiters > 0 && written > 0) {
+					queue.notifyAll();
+				}
+			}
+			if (written < available) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Transfers the next chunk of a file region.
+	 *
+	 * @return <code>true</code> if the channel accepted everything it was offered.
+	 */
+	@SuppressWarnings("resource")
+	private boolean transfer(SelectionKey key, WriteQueue queue, PendingWrite region) {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		long amount = Math.min(region.mRemaining, TRANSFER_SIZE);
+		long transferred;
+		try {
+			transferred = region.mFile.transferTo(region.mPosition, amount, socketChannel);
+			if (transferred == 0 && amount > 0 && region.mPosition >= region.mFile.size()) {
+				// The file shrank, so the promised amount of data can't be delivered
+				throw new IOException("File truncated while being sent"); //$NON-NLS-1$
+			}
+		} catch (IOException ioe) {
+			synchronized (queue) {
+				queue.close(mServer.getBufferPool());
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			((Session) key.attachment()).requestClose(true);
+			return false;
+		}
+		region.mPosition += transferred;
+		region.mRemaining -= transferred;
+		if (region.mRemaining == 0) {
+			synchronized (queue) {
+				queue.mPending.poll();
+			}
+			closeQuietly(region.mFile);
+		}
+		return transferred == amount;
+	}
+
+	/**
+	 * The data waiting to be written to a channel. Guarded by its own monitor, which is shared only
+	 * by the selector loop and the threads sending to that one channel.
+	 */
+	private static class WriteQueue {
+		ArrayDeque<PendingWrite>	mPending	= new ArrayDeque<>();
+		ByteBuffer					mTail;
+		long						mPendingBytes;
+		int							mWaiters;
+		boolean						mWriteScheduled;
+		boolean						mUnblocked;
+		boolean						mClosed;
+
+		/** Moves any small writes gathered together in the tail buffer onto the queue. */
+		void flushTail() {
+			if (mTail != null) {
+				mTail.flip();
+				mPending.add(new PendingWrite(mTail, true));
+				mTail = null;
+			}
+		}
+
+		/**
+		 * Discards all pending data and wakes any blocked senders. Must be called on the loop's
+		 * thread, while holding this queue's monitor.
+		 */
+		void close(BufferPool pool) {
+			mClosed = true;
+			for (PendingWrite pending : mPending) {
+				if (pending.mFile != null) {
+					closeQuietly(pending.mFile);
+				} else if (pending.mRelease) {
+					pool.release(pending.mBuffer);
+				}
+			}
+			mPending.clear();
+			pool.release(mTail);
+			mTail = null;
+			mPendingBytes = 0;
+			notifyAll();
+		}
+	}
+
+	/** Either a buffer or a region of a file, waiting to be written. */
+	private static class PendingWrite {
+		final ByteBuffer	mBuffer;
+		final boolean		mRelease;
+		final FileChannel	mFile;
+		long				mPosition;
+		long				mRemaining;
+
+		PendingWrite(ByteBuffer buffer, boolean release) {
+			mBuffer = buffer;
+			mRelease = release;
+			mFile = null;
+		}
+
+		PendingWrite(FileChannel file, long position, long count) {
+			mBuffer = null;
+			mRelease = false;
+			mFile = file;
+			mPosition = position;
+			mRemaining = count;
+		}
+	}
+}
@@ -16,6 +16,7 @@ import com.trollworks.toolkit.io.Log;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
@@ -27,18 +28,29 @@ import javax.net.ssl.SSLException;
 /** Tracks a single connection to the server. */
 @SuppressWarnings("nls")
 public class Session implements Runnable, Log.Context {
-	private static final AtomicInteger	NEXT_ID	= new AtomicInteger();
+	/** The default high watermark for data waiting to be written. */
+	public static final int				DEFAULT_HIGH_WRITE_WATERMARK	= 1024 * 1024;
+	/** The default low watermark for data waiting to be written. */
+	public static final int				DEFAULT_LOW_WRITE_WATERMARK		= 256 * 1024;
+	private static final int			FILE_CHUNK_SIZE					= 64 * 1024;
+	private static final AtomicInteger	NEXT_ID							= new AtomicInteger();
 	private int							mId;
 	private NioServer					mServer;
+	private SelectorLoop				mSelectorLoop;
 	private SocketChannel				mChannel;
 	private InetAddress					mAddress;
 	private Personality					mPersonality;
 	private SSLSupport					mSSLSupport;
 	private LinkedList<Request>			mRequests;
-	private long						mLastActivity;
+	private volatile long				mLastActivity					= System.currentTimeMillis();
+	private volatile long				mIdleTimeout					= NioServer.DEFAULT_IDLE_TIMEOUT;
+	private long						mIdleTimerTick					= -1;
 	private boolean						mInRequest;
 	private boolean						mHasClosed;
 	private boolean						mNoFurtherWrites;
+	private volatile boolean			mCloseRequested;
+	private volatile int				mLowWriteWatermark				= DEFAULT_LOW_WRITE_WATERMARK;
+	private volatile int				mHighWriteWatermark				= DEFAULT_HIGH_WRITE_WATERMARK;
 
 	/**
 	 * @param server The {@link NioServer} that will be providing the connection.
@@ -68,20 +80,65 @@ public class Session implements Runnable, Log.Context {
 		return mLastActivity;
 	}
 
+	/**
+	 * @return The number of milliseconds this {@link Session} may sit idle before it is closed. If
+	 *         the current {@link Personality} specifies a timeout, that is used. Otherwise, the
+	 *         value set by {@link #setIdleTimeout(long)} is used. 0 or less means no timeout.
+	 */
+	public final long getIdleTimeout() {
+		long timeout = getPersonality().getIdleTimeout();
+		return timeout >= 0 ? timeout : mIdleTimeout;
+	}
+
+	/**
+	 * @param timeout The number of milliseconds this {@link Session} may sit idle before it is
+	 *            closed, when the current {@link Personality} does not specify its own. 0 or less
+	 *            means no timeout.
+	 */
+	public final void setIdleTimeout(long timeout) {
+		mIdleTimeout = timeout;
+		mServer.scheduleIdleCheck(this);
+	}
+
+	/** @return The tick of the {@link IdleTimer} slot this {@link Session} currently occupies. */
+	final long getIdleTimerTick() {
+		return mIdleTimerTick;
+	}
+
+	/** @param tick The tick of the {@link IdleTimer} slot this {@link Session} now occupies. */
+	final void setIdleTimerTick(long tick) {
+		mIdleTimerTick = tick;
+	}
+
 	/**
 	 * Requests that the {@link Session} be closed.
 	 *
 	 * @param dueToError Pass in <code>true</code> if an error condition triggered this request.
 	 */
 	final void requestClose(boolean dueToError) {
+		mCloseRequested = true;
 		addRequest(new Request(dueToError));
+		SelectorLoop loop = mSelectorLoop;
+		if (loop != null) {
+			loop.stopBlocking(mChannel);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the {@link Session} has been asked to close, whether by the
+	 *         remote end, an error, or the {@link Personality}. Any further data sent may be
+	 *         discarded.
+	 */
+	public final boolean isCloseRequested() {
+		return mCloseRequested;
 	}
 
 	/**
 	 * Request that the specified input data be processed.
 	 *
-	 * @param buffer The data to process. The buffer contents are copied to an internal buffer, so
-	 *            the passed in buffer may be modified after this call.
+	 * @param buffer The data to process, ready to be read. The buffer must have come from the
+	 *            server's {@link BufferPool}. Ownership passes to this {@link Session}, which
+	 *            releases it back to the pool once the data has been processed.
 	 */
 	final void requestHandleInput(ByteBuffer buffer) {
 		addRequest(new Request(buffer));
@@ -107,15 +164,22 @@ public class Session implements Runnable, Log.Context {
 			}
 		}
 		try {
-			if (request != null && !mHasClosed) {
+			if (request != null && mHasClosed) {
+				mServer.getBufferPool().release(request.getBuffer());
+			} else if (request != null) {
 				mLastActivity = System.currentTimeMillis();
 				if (request.isInput()) {
-					ByteBuffer buffer = request.getBuffer();
-					if (isSecure()) {
-						buffer = mSSLSupport.processInput(buffer);
-					}
-					while (buffer.hasRemaining() && !Thread.currentThread().isInterrupted()) {
-						getPersonality().processInput(buffer);
+					ByteBuffer input = request.getBuffer();
+					try {
+						ByteBuffer buffer = input;
+						if (isSecure()) {
+							buffer = mSSLSupport.processInput(buffer);
+						}
+						while (buffer.hasRemaining() && !Thread.currentThread().isInterrupted()) {
+							getPersonality().processInput(buffer);
+						}
+					} finally {
+						mServer.getBufferPool().release(input);
 					}
 				} else {
 					mHasClosed = true;
@@ -145,8 +209,10 @@ public class Session implements Runnable, Log.Context {
 	/**
 	 * @param buffer The data to send. A copy of the data is not made, so do not modify it once
 	 *            passed to this method.
+	 * @param release Whether to return the data to the server's {@link BufferPool} once it has been
+	 *            written.
 	 */
-	final void send(ByteBuffer buffer) {
+	final void send(ByteBuffer buffer, boolean release) {
 		mLastActivity = System.currentTimeMillis();
 		if (isSecure()) {
 			try {
@@ -154,16 +220,90 @@ public class Session implements Runnable, Log.Context {
 			} catch (Throwable throwable) {
 				Log.error(this, throwable);
 			}
+			if (release) {
+				mServer.getBufferPool().release(buffer);
+			}
 		} else {
-			mServer.send(mChannel, buffer);
+			mServer.send(this, buffer, release);
 		}
 	}
 
+	/**
+	 * @param file The file to send data from. Ownership passes to this {@link Session}, which
+	 *            closes it once the data has been sent.
+	 * @param position The position within the file to start at.
+	 * @param count The number of bytes to send.
+	 */
+	final void sendFile(FileChannel file, long position, long count) {
+		mLastActivity = System.currentTimeMillis();
+		if (isSecure()) {
+			// The data has to be encrypted, so it can't go straight from the file to the socket.
+			BufferPool pool = mServer.getBufferPool();
+			ByteBuffer buffer = pool.acquire(FILE_CHUNK_SIZE);
+			try (FileChannel in = file) {
+				while (count > 0) {
+					buffer.clear();
+					if (count < buffer.capacity()) {
+						buffer.limit((int) count);
+					}
+					int amount = in.read(buffer, position);
+					if (amount < 0) {
+						throw new IOException("File truncated while being sent");
+					}
+					position += amount;
+					count -= amount;
+					buffer.flip();
+					mSSLSupport.processOutput(buffer);
+				}
+			} catch (Throwable throwable) {
+				Log.error(this, throwable);
+				requestClose(true);
+			} finally {
+				pool.release(buffer);
+			}
+		} else {
+			mServer.sendFile(this, file, position, count);
+		}
+	}
+
+	/** @return The amount of pending output that blocked senders wait for the queue to drain to. */
+	public final int getLowWriteWatermark() {
+		return mLowWriteWatermark;
+	}
+
+	/** @return The amount of pending output beyond which senders are blocked. */
+	public final int getHighWriteWatermark() {
+		return mHighWriteWatermark;
+	}
+
+	/**
+	 * Sets the bounds on the amount of output allowed to wait for the remote end. Once more than
+	 * the high watermark is pending, threads sending data block until the pending amount falls to
+	 * the low watermark, so that a slow reader can't cause the queue to grow without bound.
+	 *
+	 * @param low The low watermark, in bytes.
+	 * @param high The high watermark, in bytes. Pass in 0 to never block senders.
+	 */
+	public final void setWriteWatermarks(int low, int high) {
+		mLowWriteWatermark = Math.max(Math.min(low, high), 0);
+		mHighWriteWatermark = Math.max(high, 0);
+	}
+
 	/** @return The associated {@link NioServer}. */
 	public final NioServer getServer() {
 		return mServer;
 	}
 
+	/** @return The selector loop servicing this {@link Session}. */
+	final SelectorLoop getSelectorLoop() {
+		return mSelectorLoop;
+	}
+
+	/** @param loop The selector loop servicing this {@link Session}. */
+	final void setSelectorLoop(SelectorLoop loop) {
+		mSelectorLoop = loop;
+	}
+
 	/** @return The associated {@link SocketChannel}. */
 	public final SocketChannel getChannel() {
 		return mChannel;
@@ -181,6 +321,7 @@ public class Session implements Runnable, Log.Context {
 	public final synchronized void setPersonality(Personality personality) {
 		mPersonality = personality;
 		mPersonality.setSession(this);
+		mServer.scheduleIdleCheck(this);
 	}
 
 	/** @return <code>true</code> if SSL support has been enabled for this {@link Session}. */
@@ -240,10 +381,7 @@ public class Session implements Runnable, Log.Context {
 
 		Request(ByteBuffer buffer) {
 			// Input request
-			buffer.flip();
-			mBuffer = ByteBuffer.allocate(buffer.limit());
-			mBuffer.put(buffer);
-			mBuffer.flip();
+			mBuffer = buffer;
 		}
 
 		final boolean isInput() {
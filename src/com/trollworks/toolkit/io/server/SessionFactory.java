@@ -22,4 +22,12 @@ public interface SessionFactory {
 	 * @return The newly created {@link Session}.
 	 */
 	Session createSession(NioServer server, SocketChannel channel) throws IOException;
+
+	/**
+	 * @return The number of milliseconds the {@link Session}s created by this factory may sit idle
+	 *         before they are closed. 0 or less means no timeout.
+	 */
+	default long getIdleTimeout() {
+		return NioServer.DEFAULT_IDLE_TIMEOUT;
+	}
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.http;
+
+import com.trollworks.toolkit.io.server.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} that sends body content through a {@link Http} connection using the
+ * chunked transfer coding. Each chunk is assembled in a pooled buffer that has room reserved in
+ * front of it for the chunk size, so the content is only copied once on its way to the socket.
+ * Since sending blocks while the {@link com.trollworks.toolkit.io.server.Session Session}'s write
+ * queue is above its high watermark, a producer can never get further ahead of the remote end
+ * than that.
+ */
+final class ChunkedOutputStream extends OutputStream {
+	private static final int	BUFFER_SIZE	= 16 * 1024;
+	/** Room for up to four hex digits and a CRLF. */
+	private static final int	PREFIX_SIZE	= 6;
+	/** Room for the CRLF that ends a chunk and the "0\r\n\r\n" that ends the content. */
+	private static final int	SUFFIX_SIZE	= 7;
+	private Http				mHttp;
+	private ByteBuffer			mHeader;
+	private ByteBuffer			mBuffer;
+	private boolean				mChunked;
+	private boolean				mClosed;
+
+	/**
+	 * @param http The {@link Http} connection to send through.
+	 * @param header The formatted response header, obtained from the {@link Http}'s
+	 *            {@link BufferPool} and ready to be read. It is held back until the first content is
+	 *            sent, so that a failure before then can still be answered with an error response.
+	 * @param chunked Whether to use the chunked transfer coding. If not, the content is sent as-is
+	 *            and the end of the content must be signaled by closing the connection.
+	 */
+	ChunkedOutputStream(Http http, ByteBuffer header, boolean chunked) {
+		mHttp = http;
+		mHeader = header;
+		mChunked = chunked;
+	}
+
+	/** @return <code>true</code> if any part of the response has been sent. */
+	boolean isCommitted() {
+		return mHeader == null;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		prepare().put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+		while (length > 0) {
+			ByteBuffer buffer = prepare();
+			int amount = Math.min(length, buffer.remaining());
+			buffer.put(data, offset, amount);
+			offset += amount;
+			length -= amount;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		if (mBuffer != null && mBuffer.position() > PREFIX_SIZE) {
+			sendChunk(false);
+		}
+	}
+
+	/** Sends any remaining content and marks the end of the content. */
+	@Override
+	public void close() throws IOException {
+		if (!mClosed) {
+			checkOpen();
+			if (mChunked || mBuffer != null && mBuffer.position() > PREFIX_SIZE) {
+				if (mBuffer == null) {
+					allocate();
+				}
+				sendChunk(true);
+			} else {
+				commit();
+			}
+			mClosed = true;
+		}
+	}
+
+	/** Releases any buffers still held, without sending them. */
+	void discard() {
+		mClosed = true;
+		BufferPool pool = mHttp.getBufferPool();
+		pool.release(mHeader);
+		mHeader = null;
+		pool.release(mBuffer);
+		mBuffer = null;
+	}
+
+	private void checkOpen() throws IOException {
+		if (mClosed) {
+			throw new IOException("Stream closed");
+		}
+		if (mHttp.isCloseRequested()) {
+			throw new IOException("Connection closed");
+		}
+	}
+
+	/** @return A buffer with room for at least one more byte of content. */
+	private ByteBuffer prepare() throws IOException {
+		if (mBuffer == null) {
+			checkOpen();
+			allocate();
+		} else if (!mBuffer.hasRemaining()) {
+			checkOpen();
+			sendChunk(false);
+			allocate();
+		}
+		return mBuffer;
+	}
+
+	private void allocate() {
+		mBuffer = mHttp.getBufferPool().acquire(BUFFER_SIZE);
+		mBuffer.position(PREFIX_SIZE);
+		mBuffer.limit(Math.min(mBuffer.capacity(), BUFFER_SIZE) - SUFFIX_SIZE);
+	}
+
+	private void commit() {
+		if (mHeader != null) {
+			mHttp.sendPooled(mHeader);
+			mHeader = null;
+		}
+	}
+
+	private void sendChunk(boolean last) {
+		ByteBuffer buffer = mBuffer;
+		mBuffer = null;
+		int length = buffer.position() - PREFIX_SIZE;
+		int start = PREFIX_SIZE;
+		buffer.limit(buffer.capacity());
+		if (mChunked) {
+			if (length > 0) {
+				start -= 2;
+				buffer.put(start, (byte) '\r');
+				buffer.put(start + 1, (byte) '\n');
+				int remaining = length;
+				do {
+					buffer.put(--start, (byte) Character.forDigit(remaining & 0xF, 16));
+					remaining >>>= 4;
+				} while (remaining != 0);
+				buffer.put((byte) '\r');
+				buffer.put((byte) '\n');
+			}
+			if (last) {
+				buffer.put((byte) '0');
+				buffer.put((byte) '\r');
+				buffer.put((byte) '\n');
+				buffer.put((byte) '\r');
+				buffer.put((byte) '\n');
+			}
+		}
+		buffer.limit(buffer.position());
+		buffer.position(start);
+		commit();
+		mHttp.sendPooled(buffer);
+	}
+}
@@ -17,48 +17,29 @@ import com.trollworks.toolkit.io.server.Session;
 import com.trollworks.toolkit.io.server.websocket.WebSocket;
 import com.trollworks.toolkit.io.server.websocket.WebSocketFactory;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.net.SocketTimeoutException;
-import java.net.URLDecoder;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /** A {@link Personality} for handling HTTP connections. */
 @SuppressWarnings("nls")
 public class Http extends Personality {
-	private static final int			MAXIMUM_HEADER_SIZE		= 8 * 1024;
-	private static final int			MAXIMUM_CONTENT_SIZE	= 1024 * 1024;
-	private static final Pattern		REQUEST_PATTERN			= Pattern.compile("^(\\S+)\\s+(\\S+)\\s+HTTP/(\\d+)\\.(\\d+)$");
-	private HttpSessionFactory			mFactory;
-	private int							mState;
-	private int							mContentSize;
-	private ByteArrayOutputStream		mBuffer					= new ByteArrayOutputStream(MAXIMUM_HEADER_SIZE);
-	private byte[]						mBody;
-	private String						mUri;
-	private HttpMethod					mMethod;
-	private int							mVersionMajor;
-	private int							mVersionMinor;
-	private Map<String, List<String>>	mParameters				= new HashMap<>();
-	private Map<String, List<String>>	mHeaders				= new HashMap<>();
+	private HttpSessionFactory	mFactory;
+	private HttpRequestParser	mParser	= new HttpRequestParser();
+	private RouteTable.Match	mRoute	= new RouteTable.Match();
+	private boolean				mDiscardInput;
 
 	/** @param factory The factory to use when creating new {@link Session}s. */
 	public Http(HttpSessionFactory factory) {
@@ -70,33 +51,42 @@ public class Http extends Personality {
 		return "HTTP";
 	}
 
-	private void reset() {
-		mState = 0;
-		mContentSize = 0;
-		mBuffer = new ByteArrayOutputStream(MAXIMUM_HEADER_SIZE);
-		mBody = null;
-		mUri = null;
-		mMethod = null;
-		mVersionMajor = 0;
-		mVersionMinor = 0;
-		mParameters = new HashMap<>();
-		mHeaders = new HashMap<>();
-	}
-
 	@Override
 	public void processInput(ByteBuffer buffer) throws IOException {
-		while (buffer.hasRemaining()) {
-			if (parse(buffer.get())) {
-				processRequest();
-				reset();
+		if (mDiscardInput) {
+			buffer.position(buffer.limit());
+			return;
+		}
+		try {
+			while (buffer.hasRemaining()) {
+				if (mParser.parse(buffer)) {
+					processRequest();
+					mParser.reset();
+					if (mDiscardInput) {
+						// Requests pipelined behind one that closed the connection are never answered
+						buffer.position(buffer.limit());
+						return;
+					}
+					if (getSession().getPersonality() != this) {
+						// Anything that follows belongs to the new personality
+						return;
+					}
+				} else if (mParser.isAwaitingContinue()) {
+					new HttpResponse(HttpStatusCode.CONTINUE, null, null).send(this);
+				}
 			}
+		} catch (HttpResponseException exception) {
+			// The request couldn't be parsed, so there is no way to find the start of the next one
+			buffer.position(buffer.limit());
+			new HttpResponse(exception.getStatus(), MimeTypes.TEXT, exception.getMessage()).send(this);
+			endConnection();
 		}
 	}
 
 	private void processRequest() throws IOException {
 		try {
 			Path rootPath = mFactory.getRootPath();
-			Path path = rootPath.resolve("./" + mUri).toAbsolutePath().normalize();
+			Path path = rootPath.resolve("./" + getUri()).toAbsolutePath().normalize();
 			if (!path.startsWith(rootPath)) {
 				throw new HttpResponseException(HttpStatusCode.FORBIDDEN, "FORBIDDEN: Outside of web scope");
 			}
@@ -106,25 +96,25 @@ public class Http extends Personality {
 				return;
 			}
 
-			HttpRequestHandler handler = mFactory.getHttpHandler(mUri);
+			HttpRequestHandler handler = mFactory.findHttpHandler(getUri(), mRoute);
 			if (handler != null) {
-				handler.handleHttpRequest(this).send(this);
-			} else {
+				sendHandlerResponse(handler);
+			} else if (!sendCachedAsset(path)) {
 				if (!Files.exists(path)) {
 					throw new HttpResponseException(HttpStatusCode.NOT_FOUND, "File not found");
 				}
 
 				if (Files.isDirectory(path)) {
-					if (!mUri.endsWith("/")) {
-						HttpResponse response = new HttpResponse(HttpStatusCode.REDIRECT, MimeTypes.HTML, "<html><body>Redirected: <a href=\"" + mUri + "/\">" + mUri + "/</a></body></html>");
-						response.addHeader("Location", mUri + "/");
+					if (!getUri().endsWith("/")) {
+						HttpResponse response = new HttpResponse(HttpStatusCode.REDIRECT, MimeTypes.HTML, "<html><body>Redirected: <a href=\"" + getUri() + "/\">" + getUri() + "/</a></body></html>");
+						response.addHeader("Location", getUri() + "/");
 						response.send(this);
-						requestClose(false);
+						endConnection();
 						return;
 					}
-					handler = mFactory.getHttpHandler(mUri + "index.html");
+					handler = mFactory.findHttpHandler(getUri() + "index.html", mRoute);
 					if (handler != null) {
-						handler.handleHttpRequest(this).send(this);
+						sendHandlerResponse(handler);
 						closeIfNotKeepAlive();
 						return;
 					}
@@ -137,17 +127,7 @@ public class Http extends Personality {
 				}
 
 				try {
-					String name = path.getFileName().toString();
-					int dot = name.lastIndexOf('.');
-					if (dot != -1 && dot + 1 < name.length()) {
-						name = name.substring(dot + 1);
-					}
-					String mime = MimeTypes.lookup(name);
-					long size = Files.size(path);
-					HttpResponse response = new HttpResponse(HttpStatusCode.OK, mime, path);
-					response.addHeader("Content-Length", Long.toString(size));
-					response.setRequestMethod(mMethod);
-					response.send(this);
+					serveFile(path);
 				} catch (IOException ioe) {
 					throw new HttpResponseException(HttpStatusCode.FORBIDDEN, "FORBIDDEN: Reading file failed");
 				}
@@ -158,243 +138,285 @@ public class Http extends Personality {
 		} catch (HttpResponseException re) {
 			HttpResponse response = new HttpResponse(re.getStatus(), MimeTypes.TEXT, re.getMessage());
 			response.send(this);
-			requestClose(false);
+			endConnection();
 		} catch (IOException ioe) {
 			HttpResponse response = new HttpResponse(HttpStatusCode.INTERNAL_ERROR, MimeTypes.TEXT, "INTERNAL ERROR: " + ioe.getMessage());
 			response.send(this);
-			requestClose(false);
+			endConnection();
 		} catch (Exception exception) {
 			Log.warn(getSession(), exception);
 			HttpResponse response = new HttpResponse(HttpStatusCode.INTERNAL_ERROR, MimeTypes.TEXT, "INTERNAL ERROR: " + exception.getMessage());
 			response.send(this);
-			requestClose(false);
+			endConnection();
 		}
 	}
 
-	private void closeIfNotKeepAlive() {
-		if ("close".equals(getFirstHeader("connection"))) {
-			requestClose(false);
+	private void sendHandlerResponse(HttpRequestHandler handler) throws IOException {
+		HttpResponse response = handler.handleHttpRequest(this);
+		if (response.getRequestMethod() == null) {
+			// A body sent in reply to HEAD would be taken for the start of the next response
+			response.setRequestMethod(getMethod());
 		}
+		response.send(this);
 	}
 
-	private void upgradeToWebSocket() throws IOException, NoSuchAlgorithmException {
-		if (!"websocket".equalsIgnoreCase(getFirstHeader("upgrade"))) {
-			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: Invalid upgrade request");
-		}
-		int version = getFirstHeaderAsInt("sec-websocket-version");
-		if (version < 0) {
-			version = getFirstHeaderAsInt("sec-websocket-draft");
-		}
-		if (version != 13) {
-			HttpResponse response = new HttpResponse(HttpStatusCode.BAD_REQUEST, MimeTypes.TEXT, "Unsupported websocket version specification");
-			response.addHeader("Sec-WebSocket-Version", "13");
-			response.send(this);
-			requestClose(false);
-			return;
+	private void serveFile(Path path) throws IOException {
+		String name = path.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot != -1 && dot + 1 < name.length()) {
+			name = name.substring(dot + 1);
 		}
-		String key = getFirstHeader("sec-websocket-key");
-		if (key == null) {
-			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: Invalid key");
+		String mime = MimeTypes.lookup(name);
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		StaticAssetCache cache = mFactory.getStaticAssetCache();
+		if (cache != null && !hasHeader("range")) {
+			StaticAssetCache.Asset asset = cache.load(path, attributes, mime);
+			if (asset != null) {
+				sendAsset(asset);
+				return;
+			}
 		}
-		WebSocketFactory factory = mFactory.getWebSocketFactory(mUri);
-		if (factory == null) {
-			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: No handler");
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+		String etag = "\"" + Long.toHexString(modified) + "-" + Long.toHexString(size) + "\"";
+		String lastModified = HttpResponse.formatDate(modified);
+		// HTTP dates only have a resolution of one second
+		modified -= modified % 1000;
+
+		HttpResponse response;
+		if (isNotModified(etag, modified)) {
+			response = new HttpResponse(HttpStatusCode.NOT_MODIFIED);
+		} else {
+			String range = getFirstHeader("range");
+			if (range != null) {
+				String ifRange = getFirstHeader("if-range");
+				if (ifRange != null && !ifRange.equals(etag) && HttpResponse.parseDate(ifRange) != modified) {
+					range = null;
+				}
+			}
+			long[] span = range != null ? parseRange(range, size) : null;
+			if (span == null) {
+				response = new HttpResponse(HttpStatusCode.OK, mime, path);
+			} else if (span.length == 0) {
+				response = new HttpResponse(HttpStatusCode.RANGE_NOT_SATISFIABLE, MimeTypes.TEXT, "Requested range not satisfiable");
+				response.addHeader("Content-Range", "bytes */" + size);
+			} else {
+				response = new HttpResponse(HttpStatusCode.PARTIAL_CONTENT, mime, path);
+				response.addHeader("Content-Range", "bytes " + span[0] + "-" + (span[0] + span[1] - 1) + "/" + size);
+				response.setRange(span[0], span[1]);
+			}
 		}
-		WebSocket ws = factory.createWebSocket(this);
-		getSession().setPersonality(ws);
-		HttpResponse response = new HttpResponse(HttpStatusCode.SWITCHING_PROTOCOLS);
-		response.addHeader("Upgrade", "WebSocket");
-		response.addHeader("Connection", "Upgrade");
-		MessageDigest md = MessageDigest.getInstance("SHA1");
-		md.update((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.UTF_8));
-		response.addHeader("Sec-WebSocket-Accept", Base64.getEncoder().encodeToString(md.digest()));
+		response.addHeader("ETag", etag);
+		response.addHeader("Last-Modified", lastModified);
+		response.addHeader("Accept-Ranges", "bytes");
+		response.setRequestMethod(getMethod());
 		response.send(this);
-		ws.startConnection();
 	}
 
-	private boolean parse(byte b) throws IOException {
-		mBuffer.write(b & 0xFF);
-		switch (mState) {
-			case 0:
-				if (b == '\r') {
-					mState = 1;
-				}
-				break;
-			case 1:
-				if (b == '\n') {
-					mState = 2;
-				} else if (b != '\r') {
-					mState = 0;
-				}
-				break;
-			case 2:
-				mState = b == '\r' ? 3 : 0;
-				break;
-			case 3:
-				if (b == '\n') {
-					mState = 4;
-					parseHeaders();
-					return mContentSize == 0;
-				}
-				mState = b == '\r' ? 1 : 0;
-				break;
-			case 4:
-				if (mContentSize != -1 && mBuffer.size() == mContentSize) {
-					parseBody();
-					return true;
-				}
-				return false;
-			default:
-				throw new EOFException("Read past end of request");
+	/**
+	 * Sends the file at the specified path from the {@link StaticAssetCache}, if it is there.
+	 * Requests for a range of the file are always served from the file system.
+	 *
+	 * @return <code>true</code> if a response was sent.
+	 */
+	private boolean sendCachedAsset(Path path) {
+		StaticAssetCache cache = mFactory.getStaticAssetCache();
+		if (cache == null || hasHeader("range")) {
+			return false;
 		}
-		if (mBuffer.size() > MAXIMUM_HEADER_SIZE) {
-			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: Header too large");
+		StaticAssetCache.Asset asset = cache.get(path);
+		if (asset == null) {
+			return false;
 		}
-		return false;
+		sendAsset(asset);
+		return true;
 	}
 
-	private void parseHeaders() throws IOException {
-		BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(mBuffer.toByteArray())));
-		String line = in.readLine();
-		if (line == null) {
-			throw new SocketTimeoutException();
-		}
-
-		Matcher matcher = REQUEST_PATTERN.matcher(line);
-		if (!matcher.find() || matcher.groupCount() != 4) {
-			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST");
+	private void sendAsset(StaticAssetCache.Asset asset) {
+		boolean gzip = asset.isCompressed() && acceptsGzip(getFirstHeader("accept-encoding"));
+		String etag = gzip ? asset.mGzipETag : asset.mETag;
+		if (isNotModified(etag, asset.mModified)) {
+			HttpResponse response = new HttpResponse(HttpStatusCode.NOT_MODIFIED);
+			response.addHeader("ETag", etag);
+			response.addHeader("Last-Modified", asset.mLastModified);
+			if (asset.isCompressed()) {
+				response.addHeader("Vary", "Accept-Encoding");
+			}
+			response.setRequestMethod(getMethod());
+			response.send(this);
+		} else if (gzip) {
+			HttpResponse.sendPrecomputed(this, getMethod(), asset.mGzipHeader, asset.mGzipData);
+		} else {
+			HttpResponse.sendPrecomputed(this, getMethod(), asset.mHeader, asset.mData);
 		}
+	}
 
-		mMethod = HttpMethod.lookup(matcher.group(1));
-		if (mMethod == null) {
-			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST");
+	private boolean isNotModified(String etag, long modified) {
+		String ifNoneMatch = getFirstHeader("if-none-match");
+		if (ifNoneMatch != null) {
+			return matchesETag(ifNoneMatch, etag);
 		}
+		long ifModifiedSince = HttpResponse.parseDate(getFirstHeader("if-modified-since"));
+		return ifModifiedSince != -1 && modified <= ifModifiedSince;
+	}
 
-		mUri = matcher.group(2);
-		mVersionMajor = Integer.parseInt(matcher.group(3));
-		mVersionMinor = Integer.parseInt(matcher.group(4));
-
-		int index = mUri.indexOf('?');
-		if (index != -1) {
-			if (mUri.length() > index + 1) {
-				decodeParameters(mUri.substring(index + 1));
+	private static boolean acceptsGzip(String header) {
+		if (header != null) {
+			StringTokenizer tokenizer = new StringTokenizer(header, ",");
+			while (tokenizer.hasMoreTokens()) {
+				String one = tokenizer.nextToken().trim();
+				int semicolon = one.indexOf(';');
+				String coding = semicolon != -1 ? one.substring(0, semicolon).trim() : one;
+				if ("gzip".equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+					// Honor an explicit refusal, such as "gzip;q=0"
+					return semicolon == -1 || !one.substring(semicolon + 1).replace(" ", "").matches("q=0(\\.0*)?");
+				}
 			}
-			mUri = mUri.substring(0, index);
 		}
-		mUri = decodePercent(mUri);
+		return false;
+	}
 
-		line = in.readLine();
-		while (line != null) {
-			line = line.trim();
-			if (line.isEmpty()) {
-				break;
+	private static boolean matchesETag(String header, String etag) {
+		StringTokenizer tokenizer = new StringTokenizer(header, ",");
+		while (tokenizer.hasMoreTokens()) {
+			String one = tokenizer.nextToken().trim();
+			if (one.startsWith("W/")) {
+				one = one.substring(2);
 			}
-			index = line.indexOf(':');
-			if (index != -1) {
-				String name = line.substring(0, index).trim().toLowerCase();
-				List<String> list = mHeaders.get(name);
-				if (list == null) {
-					list = new ArrayList<>();
-					mHeaders.put(name, list);
-				}
-				if (++index < line.length()) {
-					list.add(line.substring(index).trim());
-				}
+			if ("*".equals(one) || etag.equals(one)) {
+				return true;
 			}
-			line = in.readLine();
 		}
-		mBuffer.reset();
+		return false;
+	}
+
+	/**
+	 * @param range The value of a Range header.
+	 * @param size The size of the file.
+	 * @return <code>null</code> if the header should be ignored and the whole file sent, an empty
+	 *         array if the range cannot be satisfied, or the start and length of the requested
+	 *         range. Requests for more than one range are answered with the whole file.
+	 */
+	private static long[] parseRange(String range, long size) {
+		range = range.trim();
+		if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+			return null;
+		}
+		range = range.substring(6).trim();
+		int dash = range.indexOf('-');
+		if (dash == -1) {
+			return null;
+		}
 		try {
-			mContentSize = Integer.parseInt(getFirstHeader("content-length"));
-			if (mContentSize > 0) {
-				if (mContentSize > MAXIMUM_CONTENT_SIZE) {
-					throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: Content too large");
+			String first = range.substring(0, dash).trim();
+			String last = range.substring(dash + 1).trim();
+			long start;
+			long end;
+			if (first.isEmpty()) {
+				if (last.isEmpty()) {
+					return null;
 				}
-				if (mContentSize > MAXIMUM_HEADER_SIZE) {
-					mBuffer = new ByteArrayOutputStream(mContentSize);
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0 || size == 0) {
+					return new long[0];
 				}
+				start = Math.max(size - suffix, 0);
+				end = size - 1;
 			} else {
-				mContentSize = 0;
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+				if (start < 0 || end < start) {
+					return null;
+				}
+				end = Math.min(end, size - 1);
+				if (start >= size) {
+					return new long[0];
+				}
 			}
-		} catch (Exception exception) {
-			// No support for indeterminate content size for now, as I don't need it. Assume zero in
-			// this case.
-			mContentSize = 0;
+			return new long[] { start, end - start + 1 };
+		} catch (NumberFormatException exception) {
+			return null;
 		}
 	}
 
-	private void parseBody() throws IOException {
-		mState = 5;
-		mBody = mBuffer.toByteArray();
-		mBuffer = null;
-		if (HttpMethod.POST.equals(mMethod)) {
-			if ("application/x-www-form-urlencoded".equals(getFirstHeader("content-type"))) {
-				BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(mBody)));
-				String line = in.readLine();
-				while (line != null) {
-					decodeParameters(line);
-					line = in.readLine();
-				}
-			}
-		}
+	/**
+	 * Requests that the connection be closed once the responses sent so far have been written,
+	 * ignoring any further input.
+	 */
+	final void endConnection() {
+		mDiscardInput = true;
+		requestClose(false);
 	}
 
-	private static String decodePercent(String str) {
-		try {
-			return URLDecoder.decode(str, StandardCharsets.UTF_8.name());
-		} catch (UnsupportedEncodingException ignored) {
-			// Ignore. Shouldn't be possible.
-			return str;
+	private void closeIfNotKeepAlive() {
+		if ("close".equals(getFirstHeader("connection"))) {
+			endConnection();
 		}
 	}
 
-	private void decodeParameters(String parameters) {
-		StringTokenizer tokenizer = new StringTokenizer(parameters, "&");
-		while (tokenizer.hasMoreTokens()) {
-			String token = tokenizer.nextToken();
-			int index = token.indexOf('=');
-			String name = decodePercent(index == -1 ? token : token.substring(0, index)).trim();
-			List<String> list = mParameters.get(name);
-			if (list == null) {
-				list = new ArrayList<>();
-				mParameters.put(name, list);
-			}
-			if (index != -1) {
-				if (++index < token.length()) {
-					list.add(decodePercent(token.substring(index)));
-				}
-			}
+	private void upgradeToWebSocket() throws IOException, NoSuchAlgorithmException {
+		if (!"websocket".equalsIgnoreCase(getFirstHeader("upgrade"))) {
+			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: Invalid upgrade request");
+		}
+		int version = getFirstHeaderAsInt("sec-websocket-version");
+		if (version < 0) {
+			version = getFirstHeaderAsInt("sec-websocket-draft");
+		}
+		if (version != 13) {
+			HttpResponse response = new HttpResponse(HttpStatusCode.BAD_REQUEST, MimeTypes.TEXT, "Unsupported websocket version specification");
+			response.addHeader("Sec-WebSocket-Version", "13");
+			response.send(this);
+			endConnection();
+			return;
 		}
+		String key = getFirstHeader("sec-websocket-key");
+		if (key == null) {
+			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: Invalid key");
+		}
+		WebSocketFactory factory = mFactory.findWebSocketFactory(getUri(), mRoute);
+		if (factory == null) {
+			throw new HttpResponseException(HttpStatusCode.BAD_REQUEST, "BAD REQUEST: No handler");
+		}
+		WebSocket ws = factory.createWebSocket(this);
+		getSession().setPersonality(ws);
+		HttpResponse response = new HttpResponse(HttpStatusCode.SWITCHING_PROTOCOLS);
+		response.addHeader("Upgrade", "WebSocket");
+		response.addHeader("Connection", "Upgrade");
+		MessageDigest md = MessageDigest.getInstance("SHA1");
+		md.update((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.UTF_8));
+		response.addHeader("Sec-WebSocket-Accept", Base64.getEncoder().encodeToString(md.digest()));
+		response.send(this);
+		ws.startConnection();
 	}
 
 	/** @return The URI of the current request. */
 	public final String getUri() {
-		return mUri;
+		return mParser.getUri();
 	}
 
 	/** @return The {@link HttpMethod} that was used for the current request. */
 	public final HttpMethod getMethod() {
-		return mMethod;
+		return mParser.getMethod();
 	}
 
 	/** @return The major version number of the HTTP protocol used for the current request. */
 	public final int getVersionMajor() {
-		return mVersionMajor;
+		return mParser.getVersionMajor();
 	}
 
 	/** @return The minor version number of the HTTP protocol used for the current request. */
 	public final int getVersionMinor() {
-		return mVersionMinor;
+		return mParser.getVersionMinor();
 	}
 
 	/** @return An {@link InputStream} containing the body of the current request. */
 	public final InputStream getBody() {
-		return new ByteArrayInputStream(mBody);
+		return new ByteArrayInputStream(mParser.getBody(), 0, mParser.getBodyLength());
 	}
 
 	/** @return All HTTP parameters in the current request. */
 	public final Map<String, List<String>> getParameters() {
-		return mParameters;
+		return mParser.getParameters();
 	}
 
 	/**
@@ -403,7 +425,7 @@ public class Http extends Personality {
 	 *         exists.
 	 */
 	public final List<String> getParameter(String name) {
-		return mParameters.get(name);
+		return mParser.getParameters().get(name);
 	}
 
 	/**
@@ -419,9 +441,26 @@ public class Http extends Personality {
 		return null;
 	}
 
+	/**
+	 * @return The path parameters captured from the URI of the current request by the pattern its
+	 *         handler was registered with.
+	 */
+	public final Map<String, String> getPathParameters() {
+		return mRoute.getAll();
+	}
+
+	/**
+	 * @param name The name of a path parameter to return.
+	 * @return The value of that path parameter, or <code>null</code> if the pattern the handler of
+	 *         the current request was registered with doesn't capture it.
+	 */
+	public final String getPathParameter(String name) {
+		return mRoute.get(name);
+	}
+
 	/** @return All HTTP headers in the current request. */
 	public final Map<String, List<String>> getHeaders() {
-		return mHeaders;
+		return mParser.getHeaders();
 	}
 
 	/**
@@ -430,7 +469,7 @@ public class Http extends Personality {
 	 *         exists.
 	 */
 	public final List<String> getHeader(String name) {
-		return mHeaders.get(name);
+		return mParser.getHeader(name);
 	}
 
 	/**
@@ -438,7 +477,7 @@ public class Http extends Personality {
 	 * @return <code>true</code> if the header exists in the current request.
 	 */
 	public final boolean hasHeader(String name) {
-		return mHeaders.containsKey(name);
+		return mParser.hasHeader(name);
 	}
 
 	/**
@@ -447,11 +486,7 @@ public class Http extends Personality {
 	 *         exists.
 	 */
 	public final String getFirstHeader(String name) {
-		List<String> list = getHeader(name);
-		if (list != null) {
-			return list.isEmpty() ? "" : list.get(0);
-		}
-		return null;
+		return mParser.getFirstHeader(name);
 	}
 
 	/**
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the body content of a {@link HttpResponse} as it is being sent, so that large or
+ * open-ended output doesn't have to be held in memory first. Pass an instance as the data of a
+ * {@link HttpResponse} to have the content sent with the chunked transfer coding.
+ */
+public interface HttpContentWriter {
+	/**
+	 * Called once the response header has been formatted. Writes to the stream are sent to the
+	 * remote end in chunks as they accumulate, and calling {@link OutputStream#flush()} sends
+	 * whatever has been written so far. When the remote end falls behind, writes block until it
+	 * catches up. Writes throw an {@link IOException} once the connection is closing, at which
+	 * point this method should return.
+	 *
+	 * @param out The stream to write the body content to. It is closed on return, so there is no
+	 *            need to close it here.
+	 */
+	void writeContent(OutputStream out) throws IOException;
+}
@@ -17,7 +17,8 @@ import java.io.IOException;
 public interface HttpRequestHandler {
 	/**
 	 * @param http The {@link Http} object the request came from.
-	 * @return The {@link HttpResponse} to return to the remote end.
+	 * @return The {@link HttpResponse} to return to the remote end. To send content that is
+	 *         produced incrementally, use a {@link HttpContentWriter} as its data.
 	 */
 	HttpResponse handleHttpRequest(Http http) throws IOException;
 }
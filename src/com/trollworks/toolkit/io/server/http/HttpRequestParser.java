@@ -0,0 +1,661 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.http;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * An incremental parser for HTTP/1.1 requests. Input is consumed in bulk, as it arrives, and may be
+ * split across any number of buffers. The request head is copied into a buffer that is reused from
+ * one request to the next, and each header line is recorded as a set of offsets into it, so that
+ * nothing is allocated for a header unless its value is actually asked for. The headers the server
+ * itself relies on are recognized while scanning, so looking them up doesn't involve any string
+ * comparisons.
+ * <p>
+ * Request bodies may be delimited by either a Content-Length header or the chunked transfer
+ * coding.
+ */
+@SuppressWarnings("nls")
+final class HttpRequestParser {
+	/** The maximum size of the request line and headers. */
+	static final int							MAXIMUM_HEADER_SIZE		= 8 * 1024;
+	/** The maximum size of a request body. */
+	static final int							MAXIMUM_CONTENT_SIZE	= 1024 * 1024;
+	private static final int					MAXIMUM_HEADERS			= 100;
+	private static final int					MAXIMUM_CHUNK_LINE		= 1024;
+	private static final int					RETAINED_BODY_SIZE		= 64 * 1024;
+	private static final int					HEAD					= 0;
+	private static final int					BODY					= 1;
+	private static final int					CHUNK_SIZE				= 2;
+	private static final int					CHUNK_DATA				= 3;
+	private static final int					CHUNK_END				= 4;
+	private static final int					TRAILER					= 5;
+	private static final int					DONE					= 6;
+	private static final int					NAME_START				= 0;
+	private static final int					NAME_END				= 1;
+	private static final int					VALUE_START				= 2;
+	private static final int					VALUE_END				= 3;
+	private static final int					KNOWN					= 4;
+	private static final int					SLOT_SIZE				= 5;
+	private static final String[]				KNOWN_HEADERS			= { "content-length", "transfer-encoding", "content-type", "expect", "connection", "host", "upgrade", "range", "if-range", "if-none-match", "if-modified-since", "accept-encoding", "sec-websocket-key", "sec-websocket-version", "sec-websocket-draft" };
+	private static final int					CONTENT_LENGTH			= 0;
+	private static final int					TRANSFER_ENCODING		= 1;
+	private static final int					CONTENT_TYPE			= 2;
+	private static final int					EXPECT					= 3;
+	private static final Map<String, Integer>	KNOWN_HEADER_INDEXES	= new HashMap<>();
+	private static final HttpMethod[]			METHODS					= HttpMethod.values();
+	private static final byte[]					EMPTY					= new byte[0];
+	private byte[]								mHead					= new byte[MAXIMUM_HEADER_SIZE];
+	private int									mHeadLength;
+	private int									mScanned;
+	private int									mState;
+	private int[]								mHeaders				= new int[MAXIMUM_HEADERS * SLOT_SIZE];
+	private String[]							mValues					= new String[MAXIMUM_HEADERS];
+	private int									mHeaderCount;
+	private Map<String, List<String>>			mHeaderMap;
+	private Map<String, List<String>>			mParameters				= new HashMap<>();
+	private HttpMethod							mMethod;
+	private String								mUri;
+	private int									mVersionMajor;
+	private int									mVersionMinor;
+	private byte[]								mBody					= EMPTY;
+	private int									mBodyLength;
+	private int									mRemaining;
+	private int									mLineLength;
+	private boolean								mSawChunkDigit;
+	private boolean								mInChunkExtension;
+	private boolean								mExpectContinue;
+
+	static {
+		for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+			KNOWN_HEADER_INDEXES.put(KNOWN_HEADERS[i], Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * Consumes input until the current request is complete or the input runs out. Any input
+	 * beyond the end of the request is left in the buffer.
+	 *
+	 * @param buffer The input to parse.
+	 * @return <code>true</code> if the request is complete.
+	 */
+	boolean parse(ByteBuffer buffer) throws HttpResponseException {
+		while (mState != DONE && buffer.hasRemaining()) {
+			switch (mState) {
+				case HEAD:
+					parseHead(buffer);
+					break;
+				case BODY:
+					int amount = Math.min(mRemaining, buffer.remaining());
+					buffer.get(mBody, mBodyLength, amount);
+					mBodyLength += amount;
+					mRemaining -= amount;
+					if (mRemaining == 0) {
+						finish();
+					}
+					break;
+				case CHUNK_SIZE:
+					parseChunkSize(buffer.get());
+					break;
+				case CHUNK_DATA:
+					amount = Math.min(mRemaining, buffer.remaining());
+					buffer.get(mBody, mBodyLength, amount);
+					mBodyLength += amount;
+					mRemaining -= amount;
+					if (mRemaining == 0) {
+						mState = CHUNK_END;
+					}
+					break;
+				case CHUNK_END:
+					byte b = buffer.get();
+					if (b == '\n') {
+						startChunk();
+					} else if (b != '\r') {
+						throw badRequest("Malformed chunk");
+					}
+					break;
+				case TRAILER:
+					// Trailer fields are read past, but otherwise ignored
+					b = buffer.get();
+					if (b == '\n') {
+						if (mLineLength == 0) {
+							finish();
+						}
+						mLineLength = 0;
+					} else if (b != '\r') {
+						if (++mLineLength > MAXIMUM_HEADER_SIZE) {
+							throw badRequest("Trailer too large");
+						}
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return mState == DONE;
+	}
+
+	/**
+	 * @return <code>true</code> if the client has sent the request head and is waiting to be told
+	 *         to continue before sending the body. Only returns <code>true</code> once per request.
+	 */
+	boolean isAwaitingContinue() {
+		if (mExpectContinue && mState != HEAD && mState != DONE && mBodyLength == 0) {
+			mExpectContinue = false;
+			return true;
+		}
+		return false;
+	}
+
+	/** Prepares to parse the next request. */
+	void reset() {
+		mState = HEAD;
+		mHeadLength = 0;
+		mScanned = 0;
+		Arrays.fill(mValues, 0, mHeaderCount, null);
+		mHeaderCount = 0;
+		mHeaderMap = null;
+		if (!mParameters.isEmpty()) {
+			mParameters = new HashMap<>();
+		}
+		mMethod = null;
+		mUri = null;
+		mVersionMajor = 0;
+		mVersionMinor = 0;
+		if (mBody.length > RETAINED_BODY_SIZE) {
+			mBody = EMPTY;
+		}
+		mBodyLength = 0;
+		mRemaining = 0;
+		mExpectContinue = false;
+	}
+
+	private void parseHead(ByteBuffer buffer) throws HttpResponseException {
+		if (mHeadLength == 0) {
+			// Ignore any empty lines preceding the request line
+			while (buffer.hasRemaining()) {
+				byte b = buffer.get(buffer.position());
+				if (b != '\r' && b != '\n') {
+					break;
+				}
+				buffer.get();
+			}
+		}
+		int amount = Math.min(buffer.remaining(), mHead.length - mHeadLength);
+		if (amount == 0) {
+			if (buffer.hasRemaining()) {
+				throw badRequest("Header too large");
+			}
+			return;
+		}
+		buffer.get(mHead, mHeadLength, amount);
+		mHeadLength += amount;
+		for (int i = Math.max(mScanned, 1); i < mHeadLength; i++) {
+			if (mHead[i] == '\n' && (mHead[i - 1] == '\n' || mHead[i - 1] == '\r' && i > 1 && mHead[i - 2] == '\n')) {
+				// Hand back whatever follows the head
+				buffer.position(buffer.position() - (mHeadLength - (i + 1)));
+				mHeadLength = i + 1;
+				processHead();
+				return;
+			}
+		}
+		mScanned = mHeadLength;
+		if (mHeadLength == mHead.length) {
+			throw badRequest("Header too large");
+		}
+	}
+
+	private void processHead() throws HttpResponseException {
+		int lineEnd = indexOf('\n', 0, mHeadLength);
+		int lineStop = trimLineEnding(0, lineEnd);
+
+		// The request line
+		int methodEnd = indexOf(' ', 0, lineStop);
+		mMethod = lookupMethod(0, methodEnd);
+		if (mMethod == null) {
+			throw badRequest(null);
+		}
+		int uriStart = skipSpaces(methodEnd, lineStop);
+		int uriEnd = indexOf(' ', uriStart, lineStop);
+		int versionStart = skipSpaces(uriEnd, lineStop);
+		if (uriStart == uriEnd || !parseVersion(versionStart, lineStop)) {
+			throw badRequest(null);
+		}
+		int query = indexOf('?', uriStart, uriEnd);
+		if (query + 1 < uriEnd) {
+			decodeParameters(new String(mHead, query + 1, uriEnd - (query + 1), StandardCharsets.UTF_8));
+		}
+		mUri = new String(mHead, uriStart, query - uriStart, StandardCharsets.UTF_8);
+		if (mUri.indexOf('%') != -1 || mUri.indexOf('+') != -1) {
+			mUri = decodePercent(mUri);
+		}
+
+		// The headers
+		int start = lineEnd + 1;
+		while (start < mHeadLength) {
+			lineEnd = indexOf('\n', start, mHeadLength);
+			lineStop = trimLineEnding(start, lineEnd);
+			if (lineStop == start) {
+				break;
+			}
+			int colon = indexOf(':', start, lineStop);
+			if (colon != lineStop) {
+				if (mHeaderCount == MAXIMUM_HEADERS) {
+					throw badRequest("Too many headers");
+				}
+				int slot = mHeaderCount++ * SLOT_SIZE;
+				int nameEnd = trimEnd(start, colon);
+				int valueStart = colon + 1;
+				while (valueStart < lineStop && isSpace(mHead[valueStart])) {
+					valueStart++;
+				}
+				mHeaders[slot + NAME_START] = start;
+				mHeaders[slot + NAME_END] = nameEnd;
+				mHeaders[slot + VALUE_START] = valueStart;
+				mHeaders[slot + VALUE_END] = trimEnd(valueStart, lineStop);
+				mHeaders[slot + KNOWN] = lookupKnownHeader(start, nameEnd);
+			}
+			start = lineEnd + 1;
+		}
+
+		// Determine how the body is delimited
+		int slot = find(TRANSFER_ENCODING, null);
+		if (slot != -1) {
+			if (!endsWithToken(slot, "chunked")) {
+				throw badRequest("Unsupported transfer coding");
+			}
+			mExpectContinue = isExpectingContinue();
+			startChunk();
+		} else {
+			slot = find(CONTENT_LENGTH, null);
+			mRemaining = slot != -1 ? parseContentLength(slot) : 0;
+			if (mRemaining > 0) {
+				mExpectContinue = isExpectingContinue();
+				if (mBody.length < mRemaining) {
+					mBody = new byte[mRemaining];
+				}
+				mState = BODY;
+			} else {
+				finish();
+			}
+		}
+	}
+
+	private void parseChunkSize(byte b) throws HttpResponseException {
+		if (b == '\n') {
+			if (!mSawChunkDigit) {
+				throw badRequest("Malformed chunk");
+			}
+			if (mRemaining == 0) {
+				mLineLength = 0;
+				mState = TRAILER;
+			} else {
+				if (mBody.length < mBodyLength + mRemaining) {
+					mBody = Arrays.copyOf(mBody, Math.min(Math.max(mBody.length * 2, mBodyLength + mRemaining), MAXIMUM_CONTENT_SIZE));
+				}
+				mState = CHUNK_DATA;
+			}
+			return;
+		}
+		if (++mLineLength > MAXIMUM_CHUNK_LINE) {
+			throw badRequest("Malformed chunk");
+		}
+		if (mInChunkExtension || b == '\r') {
+			return;
+		}
+		int digit = Character.digit(b, 16);
+		if (digit != -1) {
+			mSawChunkDigit = true;
+			mRemaining = mRemaining * 16 + digit;
+			if (mBodyLength + mRemaining > MAXIMUM_CONTENT_SIZE) {
+				throw new HttpResponseException(HttpStatusCode.ENTITY_TOO_LARGE, "BAD REQUEST: Content too large");
+			}
+		} else if (b == ';' || isSpace(b)) {
+			mInChunkExtension = true;
+		} else {
+			throw badRequest("Malformed chunk");
+		}
+	}
+
+	private void startChunk() {
+		mState = CHUNK_SIZE;
+		mRemaining = 0;
+		mLineLength = 0;
+		mSawChunkDigit = false;
+		mInChunkExtension = false;
+	}
+
+	private void finish() {
+		mState = DONE;
+		if (mBodyLength > 0 && mMethod == HttpMethod.POST) {
+			int slot = find(CONTENT_TYPE, null);
+			if (slot != -1 && getValue(slot).startsWith("application/x-www-form-urlencoded")) {
+				StringTokenizer tokenizer = new StringTokenizer(new String(mBody, 0, mBodyLength, StandardCharsets.UTF_8), "\r\n");
+				while (tokenizer.hasMoreTokens()) {
+					decodeParameters(tokenizer.nextToken());
+				}
+			}
+		}
+	}
+
+	private boolean isExpectingContinue() {
+		int slot = find(EXPECT, null);
+		return slot != -1 && regionMatches(mHeaders[slot + VALUE_START], mHeaders[slot + VALUE_END], "100-continue");
+	}
+
+	private int parseContentLength(int slot) throws HttpResponseException {
+		int start = mHeaders[slot + VALUE_START];
+		int end = mHeaders[slot + VALUE_END];
+		if (start == end) {
+			throw badRequest("Invalid content length");
+		}
+		long length = 0;
+		for (int i = start; i < end; i++) {
+			int digit = mHead[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw badRequest("Invalid content length");
+			}
+			length = length * 10 + digit;
+			if (length > MAXIMUM_CONTENT_SIZE) {
+				throw new HttpResponseException(HttpStatusCode.ENTITY_TOO_LARGE, "BAD REQUEST: Content too large");
+			}
+		}
+		return (int) length;
+	}
+
+	private boolean parseVersion(int start, int end) {
+		if (end - start < 8 || !regionEquals(start, start + 5, "HTTP/")) {
+			return false;
+		}
+		int dot = indexOf('.', start + 5, end);
+		if (dot == start + 5 || dot >= end - 1) {
+			return false;
+		}
+		mVersionMajor = parseDigits(start + 5, dot);
+		mVersionMinor = parseDigits(dot + 1, end);
+		return mVersionMajor >= 0 && mVersionMinor >= 0;
+	}
+
+	private int parseDigits(int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = mHead[i] - '0';
+			if (digit < 0 || digit > 9 || value > 999) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private HttpMethod lookupMethod(int start, int end) {
+		for (HttpMethod method : METHODS) {
+			if (regionEquals(start, end, method.name())) {
+				return method;
+			}
+		}
+		return null;
+	}
+
+	private int lookupKnownHeader(int start, int end) {
+		for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+			if (regionMatches(start, end, KNOWN_HEADERS[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean endsWithToken(int slot, String token) {
+		int start = mHeaders[slot + VALUE_START];
+		int end = mHeaders[slot + VALUE_END];
+		int tokenStart = end;
+		while (tokenStart > start && mHead[tokenStart - 1] != ',') {
+			tokenStart--;
+		}
+		while (tokenStart < end && isSpace(mHead[tokenStart])) {
+			tokenStart++;
+		}
+		return regionMatches(tokenStart, end, token);
+	}
+
+	/** Compares a region of the head to some text, which must match exactly. */
+	private boolean regionEquals(int start, int end, String text) {
+		int length = text.length();
+		if (end - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (mHead[start + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Compares a region of the head to some text, ignoring the case of ASCII letters. */
+	private boolean regionMatches(int start, int end, String text) {
+		int length = text.length();
+		if (end - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			int b = mHead[start + i];
+			int c = text.charAt(i);
+			if (b != c) {
+				int lower = b | 0x20;
+				if (lower != (c | 0x20) || lower < 'a' || lower > 'z') {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private int indexOf(char ch, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (mHead[i] == ch) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private int skipSpaces(int start, int end) {
+		while (start < end && isSpace(mHead[start])) {
+			start++;
+		}
+		return start;
+	}
+
+	private int trimEnd(int start, int end) {
+		while (end > start && isSpace(mHead[end - 1])) {
+			end--;
+		}
+		return end;
+	}
+
+	private int trimLineEnding(int start, int end) {
+		return end > start && mHead[end - 1] == '\r' ? end - 1 : end;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static HttpResponseException badRequest(String detail) {
+		return new HttpResponseException(HttpStatusCode.BAD_REQUEST, detail != null ? "BAD REQUEST: " + detail : "BAD REQUEST");
+	}
+
+	private static String decodePercent(String str) {
+		try {
+			return URLDecoder.decode(str, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException ignored) {
+			// Ignore. Shouldn't be possible.
+			return str;
+		}
+	}
+
+	private void decodeParameters(String parameters) {
+		StringTokenizer tokenizer = new StringTokenizer(parameters, "&");
+		while (tokenizer.hasMoreTokens()) {
+			String token = tokenizer.nextToken();
+			int index = token.indexOf('=');
+			String name = decodePercent(index == -1 ? token : token.substring(0, index)).trim();
+			List<String> list = mParameters.get(name);
+			if (list == null) {
+				list = new ArrayList<>();
+				mParameters.put(name, list);
+			}
+			if (index != -1) {
+				if (++index < token.length()) {
+					list.add(decodePercent(token.substring(index)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param known The index of a well-known header, or -1.
+	 * @param name The name of the header, used when it isn't a well-known header.
+	 * @return The offset of the first slot in the header table for the header, or -1.
+	 */
+	private int find(int known, String name) {
+		for (int slot = 0; slot < mHeaderCount * SLOT_SIZE; slot += SLOT_SIZE) {
+			if (known != -1 ? mHeaders[slot + KNOWN] == known : regionMatches(mHeaders[slot + NAME_START], mHeaders[slot + NAME_END], name)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private int find(String name) {
+		Integer known = KNOWN_HEADER_INDEXES.get(name);
+		return find(known != null ? known.intValue() : -1, name);
+	}
+
+	private String getValue(int slot) {
+		int index = slot / SLOT_SIZE;
+		String value = mValues[index];
+		if (value == null) {
+			int start = mHeaders[slot + VALUE_START];
+			value = new String(mHead, start, mHeaders[slot + VALUE_END] - start, StandardCharsets.UTF_8);
+			mValues[index] = value;
+		}
+		return value;
+	}
+
+	/** @return The method of the current request. */
+	HttpMethod getMethod() {
+		return mMethod;
+	}
+
+	/** @return The decoded path of the current request, without any query. */
+	String getUri() {
+		return mUri;
+	}
+
+	/** @return The major version number of the HTTP protocol used for the current request. */
+	int getVersionMajor() {
+		return mVersionMajor;
+	}
+
+	/** @return The minor version number of the HTTP protocol used for the current request. */
+	int getVersionMinor() {
+		return mVersionMinor;
+	}
+
+	/** @return The buffer holding the body of the current request. */
+	byte[] getBody() {
+		return mBody;
+	}
+
+	/** @return The length of the body of the current request. */
+	int getBodyLength() {
+		return mBodyLength;
+	}
+
+	/** @return The parameters of the current request, from both the query and a form body. */
+	Map<String, List<String>> getParameters() {
+		return mParameters;
+	}
+
+	/**
+	 * @param name The name of a header, which is matched without regard to case.
+	 * @return <code>true</code> if the header exists in the current request.
+	 */
+	boolean hasHeader(String name) {
+		return find(name) != -1;
+	}
+
+	/**
+	 * @param name The name of a header, which is matched without regard to case.
+	 * @return The first value for that header, or <code>null</code> if no header with that name
+	 *         exists.
+	 */
+	String getFirstHeader(String name) {
+		int slot = find(name);
+		return slot != -1 ? getValue(slot) : null;
+	}
+
+	/**
+	 * @param name The name of a header, which is matched without regard to case.
+	 * @return The values for that header, or <code>null</code> if no header with that name exists.
+	 */
+	List<String> getHeader(String name) {
+		Integer known = KNOWN_HEADER_INDEXES.get(name);
+		int knownIndex = known != null ? known.intValue() : -1;
+		List<String> list = null;
+		for (int slot = 0; slot < mHeaderCount * SLOT_SIZE; slot += SLOT_SIZE) {
+			if (knownIndex != -1 ? mHeaders[slot + KNOWN] == knownIndex : regionMatches(mHeaders[slot + NAME_START], mHeaders[slot + NAME_END], name)) {
+				if (list == null) {
+					list = new ArrayList<>();
+				}
+				list.add(getValue(slot));
+			}
+		}
+		return list;
+	}
+
+	/** @return All headers in the current request, keyed by their lower-cased names. */
+	Map<String, List<String>> getHeaders() {
+		if (mHeaderMap == null) {
+			mHeaderMap = new HashMap<>();
+			for (int slot = 0; slot < mHeaderCount * SLOT_SIZE; slot += SLOT_SIZE) {
+				int known = mHeaders[slot + KNOWN];
+				String name;
+				if (known != -1) {
+					name = KNOWN_HEADERS[known];
+				} else {
+					int start = mHeaders[slot + NAME_START];
+					name = new String(mHead, start, mHeaders[slot + NAME_END] - start, StandardCharsets.UTF_8).toLowerCase();
+				}
+				List<String> list = mHeaderMap.get(name);
+				if (list == null) {
+					list = new ArrayList<>();
+					mHeaderMap.put(name, list);
+				}
+				list.add(getValue(slot));
+			}
+		}
+		return mHeaderMap;
+	}
+}
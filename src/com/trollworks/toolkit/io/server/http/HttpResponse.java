@@ -12,16 +12,16 @@
 package com.trollworks.toolkit.io.server.http;
 
 import com.trollworks.toolkit.io.Log;
+import com.trollworks.toolkit.io.server.BufferPool;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
@@ -34,11 +34,16 @@ import java.util.TimeZone;
 public class HttpResponse {
 	private static final SimpleDateFormat	GMT_DATE_FORMAT	= new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
 	private static final String				LINE_ENDING		= "\r\n";
+	private static final int				SMALL_FILE_SIZE	= 16 * 1024;
+	private static long						CURRENT_SECOND	= Long.MIN_VALUE;
+	private static String					CURRENT_DATE;
 	private HttpStatusCode					mStatus;
 	private String							mMimeType;
 	private Object							mData;
 	private Map<String, String>				mHeader			= new HashMap<>();
 	private HttpMethod						mRequestMethod;
+	private long							mRangeStart;
+	private long							mRangeLength	= -1;
 
 	static {
 		GMT_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -77,7 +82,9 @@ public class HttpResponse {
 	 *
 	 * @param status The {@link HttpStatusCode} to use.
 	 * @param mimeType The mime type to use.
-	 * @param data The data for the body content. May be <code>null</code>.
+	 * @param data The data for the body content. May be <code>null</code>. A {@link Path} is sent
+	 *            from the file system and a {@link HttpContentWriter} is asked to produce the
+	 *            content while it is being sent. Anything else is sent as its bytes or string value.
 	 */
 	public HttpResponse(HttpStatusCode status, String mimeType, Object data) {
 		mStatus = status;
@@ -126,8 +133,23 @@ public class HttpResponse {
 		mRequestMethod = requestMethod;
 	}
 
+	/**
+	 * When the data for the body content is a {@link Path}, restricts the body to a portion of the
+	 * file.
+	 *
+	 * @param start The offset of the first byte to send.
+	 * @param length The number of bytes to send.
+	 */
+	public final void setRange(long start, long length) {
+		mRangeStart = start;
+		mRangeLength = length;
+	}
+
 	/**
 	 * Formats this response appropriately for the HTTP protocol and sends it to the remote end.
+	 * Files larger than a few kilobytes are sent straight from the file system, without being read
+	 * into memory first. Content from a {@link HttpContentWriter} is produced on the calling thread,
+	 * so this does not return until all of it has been queued.
 	 *
 	 * @param http The {@link Http} connection to send this response through.
 	 */
@@ -135,72 +157,228 @@ public class HttpResponse {
 		if (mStatus == null) {
 			Log.error(http.getSession(), "sendResponse(): Status may not be null.");
 		}
+		FileChannel file = null;
 		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream(16 * 1024);
-			PrintWriter pw = new PrintWriter(baos);
-			pw.print("HTTP/1.1 ");
-			pw.print(mStatus.getDescription());
-			pw.print(LINE_ENDING);
+			StringBuilder header = new StringBuilder(512);
+			header.append("HTTP/1.1 ");
+			header.append(mStatus.getDescription());
+			header.append(LINE_ENDING);
 
 			if (mMimeType != null) {
-				writeHeader(pw, "Content-Type", mMimeType);
+				writeHeader(header, "Content-Type", mMimeType);
 			}
 
 			if (mHeader == null || mHeader.get("Date") == null) {
-				writeHeader(pw, "Date", GMT_DATE_FORMAT.format(new Date()));
+				writeHeader(header, "Date", currentDate());
 			}
 
 			if (mHeader != null) {
 				for (String key : mHeader.keySet()) {
-					writeHeader(pw, key, mHeader.get(key));
+					writeHeader(header, key, mHeader.get(key));
 				}
 			}
 
-			if (mData != null) {
-				writeHeader(pw, "Connection", "keep-alive");
+			long contentLength = 0;
+			boolean stream = mData instanceof HttpContentWriter;
+			boolean chunked = false;
+			if (stream) {
+				chunked = http.getVersionMajor() > 1 || http.getVersionMajor() == 1 && http.getVersionMinor() > 0;
+				if (chunked) {
+					writeHeader(header, "Connection", "keep-alive");
+					writeHeader(header, "Transfer-Encoding", "chunked");
+				} else {
+					// Without the chunked coding, the end of the content is marked by the connection
+					// closing
+					writeHeader(header, "Connection", "close");
+				}
+			} else if (mData != null) {
+				writeHeader(header, "Connection", "keep-alive");
 				if (mData instanceof Path) {
-					writeHeader(pw, "Content-Length", Long.toString(Files.size((Path) mData)));
+					file = FileChannel.open((Path) mData, StandardOpenOption.READ);
+					contentLength = mRangeLength >= 0 ? mRangeLength : file.size();
 				} else {
 					if (mData instanceof ByteArrayOutputStream) {
 						mData = ((ByteArrayOutputStream) mData).toByteArray();
 					} else if (!(mData instanceof byte[])) {
 						mData = mData.toString().getBytes(StandardCharsets.UTF_8);
 					}
-					writeHeader(pw, "Content-Length", Integer.toString(((byte[]) mData).length));
+					contentLength = ((byte[]) mData).length;
 				}
+				writeHeader(header, "Content-Length", Long.toString(contentLength));
 			}
 
-			pw.print(LINE_ENDING);
-			pw.flush();
+			header.append(LINE_ENDING);
 
-			if (mRequestMethod != HttpMethod.HEAD && mData != null) {
-				if (mData instanceof Path) {
-					try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream((Path) mData, StandardOpenOption.READ))) {
-						byte[] buffer = new byte[16 * 1024];
-						long pending = Files.size((Path) mData);
-						while (pending > 0) {
-							int read = in.read(buffer, 0, pending > buffer.length ? buffer.length : (int) pending);
-							if (read <= 0) {
-								break;
+			byte[] encodedHeader = null;
+			int headerLength = header.length();
+			for (int i = 0; i < headerLength; i++) {
+				if (header.charAt(i) >= 0x80) {
+					encodedHeader = header.toString().getBytes(StandardCharsets.UTF_8);
+					headerLength = encodedHeader.length;
+					break;
+				}
+			}
+			boolean hasBody = mRequestMethod != HttpMethod.HEAD && mData != null && !stream;
+			boolean transferFile = hasBody && file != null && contentLength > SMALL_FILE_SIZE;
+			long total = headerLength + (hasBody && !transferFile ? contentLength : 0);
+			BufferPool pool = http.getBufferPool();
+			ByteBuffer buffer = pool.acquire((int) total);
+			try {
+				if (encodedHeader != null) {
+					buffer.put(encodedHeader);
+				} else {
+					for (int i = 0; i < headerLength; i++) {
+						buffer.put((byte) header.charAt(i));
+					}
+				}
+				if (hasBody && !transferFile) {
+					if (file != null) {
+						buffer.limit((int) total);
+						long position = mRangeStart;
+						while (buffer.hasRemaining()) {
+							int amount = file.read(buffer, position);
+							if (amount < 0) {
+								// The file shrank after its length went into the header, so the response
+								// can't be completed on this connection
+								pool.release(buffer);
+								http.endConnection();
+								return;
 							}
-							baos.write(buffer, 0, read);
-							pending -= read;
+							position += amount;
 						}
+					} else {
+						buffer.put((byte[]) mData);
 					}
-				} else {
-					baos.write((byte[]) mData);
 				}
+			} catch (IOException exception) {
+				pool.release(buffer);
+				throw exception;
+			}
+			buffer.flip();
+			if (stream && mRequestMethod != HttpMethod.HEAD) {
+				streamContent(http, buffer, chunked);
+				return;
+			}
+			http.sendPooled(buffer);
+			if (stream && !chunked) {
+				// The header told the client the connection would close
+				http.endConnection();
+			} else if (transferFile) {
+				http.sendFile(file, mRangeStart, contentLength);
+				file = null;
 			}
-			http.send(ByteBuffer.wrap(baos.toByteArray()));
 		} catch (IOException exception) {
 			// Ignore
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException exception) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	private void streamContent(Http http, ByteBuffer header, boolean chunked) {
+		ChunkedOutputStream out = new ChunkedOutputStream(http, header, chunked);
+		try {
+			((HttpContentWriter) mData).writeContent(out);
+			out.close();
+			if (!chunked) {
+				http.endConnection();
+			}
+		} catch (Exception exception) {
+			boolean committed = out.isCommitted();
+			out.discard();
+			if (!http.isCloseRequested()) {
+				if (!(exception instanceof IOException)) {
+					Log.warn(http.getSession(), exception);
+				}
+				if (!committed) {
+					new HttpResponse(HttpStatusCode.INTERNAL_ERROR, MimeTypes.TEXT, "INTERNAL ERROR: " + exception.getMessage()).send(http);
+				}
+			}
+			// Content that has already gone out can't be taken back, so the only way to let the
+			// remote end know it is incomplete is to drop the connection
+			http.endConnection();
+		}
+	}
+
+	/**
+	 * @param millis The time to format.
+	 * @return The time, formatted as a HTTP date.
+	 */
+	public static final String formatDate(long millis) {
+		synchronized (GMT_DATE_FORMAT) {
+			return GMT_DATE_FORMAT.format(new Date(millis));
+		}
+	}
+
+	/**
+	 * Sends a successful response whose header lines, other than the status and date, have already
+	 * been formatted.
+	 *
+	 * @param http The {@link Http} connection to send the response through.
+	 * @param method The method of the request being responded to.
+	 * @param header The encoded header lines, each terminated with a CRLF.
+	 * @param body The body content.
+	 */
+	static final void sendPrecomputed(Http http, HttpMethod method, byte[] header, byte[] body) {
+		String statusAndDate = "HTTP/1.1 " + HttpStatusCode.OK.getDescription() + LINE_ENDING + "Date: " + currentDate() + LINE_ENDING;
+		int length = statusAndDate.length() + header.length + LINE_ENDING.length();
+		boolean copyBody = method != HttpMethod.HEAD && body.length <= SMALL_FILE_SIZE;
+		ByteBuffer buffer = http.getBufferPool().acquire(copyBody ? length + body.length : length);
+		for (int i = 0; i < statusAndDate.length(); i++) {
+			buffer.put((byte) statusAndDate.charAt(i));
+		}
+		buffer.put(header);
+		buffer.put((byte) '\r');
+		buffer.put((byte) '\n');
+		if (copyBody) {
+			buffer.put(body);
+		}
+		buffer.flip();
+		http.sendPooled(buffer);
+		if (method != HttpMethod.HEAD && !copyBody) {
+			// The cached data is never modified, so it can be written straight from the cache
+			http.send(ByteBuffer.wrap(body).asReadOnlyBuffer());
+		}
+	}
+
+	private static final String currentDate() {
+		long now = System.currentTimeMillis();
+		synchronized (GMT_DATE_FORMAT) {
+			// Responses sent within the same second share the same date
+			if (now / 1000 != CURRENT_SECOND) {
+				CURRENT_SECOND = now / 1000;
+				CURRENT_DATE = GMT_DATE_FORMAT.format(new Date(now));
+			}
+			return CURRENT_DATE;
+		}
+	}
+
+	/**
+	 * @param date A HTTP date.
+	 * @return The time the date represents, or <code>-1</code> if it cannot be parsed.
+	 */
+	public static final long parseDate(String date) {
+		if (date != null) {
+			try {
+				synchronized (GMT_DATE_FORMAT) {
+					return GMT_DATE_FORMAT.parse(date.trim()).getTime();
+				}
+			} catch (ParseException exception) {
+				// Fall through
+			}
 		}
+		return -1;
 	}
 
-	private static final void writeHeader(PrintWriter out, String name, String value) {
-		out.print(name);
-		out.print(": ");
-		out.print(value);
-		out.print(LINE_ENDING);
+	private static final void writeHeader(StringBuilder out, String name, String value) {
+		out.append(name);
+		out.append(": ");
+		out.append(value);
+		out.append(LINE_ENDING);
 	}
 }
@@ -19,14 +19,13 @@ import com.trollworks.toolkit.io.server.websocket.WebSocketFactory;
 import java.io.IOException;
 import java.nio.channels.SocketChannel;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
 
 /** Provides a {@link SessionFactory} for HTTP sessions. */
 public class HttpSessionFactory implements SessionFactory {
 	private Path							mRootPath;
-	private Map<String, HttpRequestHandler>	mHttpHandlers		= new HashMap<>();
-	private Map<String, WebSocketFactory>	mWebSocketFactories	= new HashMap<>();
+	private volatile StaticAssetCache		mStaticAssetCache;
+	private RouteTable<HttpRequestHandler>	mHttpHandlers		= new RouteTable<>();
+	private RouteTable<WebSocketFactory>	mWebSocketFactories	= new RouteTable<>();
 
 	/** @param rootPath The path to the root web directory. */
 	public HttpSessionFactory(Path rootPath) {
@@ -39,12 +38,31 @@ public class HttpSessionFactory implements SessionFactory {
 	}
 
 	/**
-	 * @param uri The URI to register a {@link HttpRequestHandler} for.
+	 * @return The {@link StaticAssetCache} used to serve files from the root web directory, or
+	 *         <code>null</code> if files are always read from the file system.
+	 */
+	public final StaticAssetCache getStaticAssetCache() {
+		return mStaticAssetCache;
+	}
+
+	/**
+	 * @param cache The {@link StaticAssetCache} to use to serve files from the root web directory.
+	 *            Its root should match {@link #getRootPath()}. Pass in <code>null</code> to always
+	 *            read files from the file system.
+	 */
+	public final void setStaticAssetCache(StaticAssetCache cache) {
+		mStaticAssetCache = cache;
+	}
+
+	/**
+	 * @param uri The URI to register a {@link HttpRequestHandler} for. May be a pattern that
+	 *            captures path parameters, as described by {@link RouteTable}. The captured values
+	 *            are available from {@link Http#getPathParameter(String)}.
 	 * @param handler The {@link HttpRequestHandler} to use for the specified URI.
 	 * @return Any existing {@link HttpRequestHandler} for the specified URI, or <code>null</code>
 	 *         if there was none.
 	 */
-	public final synchronized HttpRequestHandler registerHttpHandler(String uri, HttpRequestHandler handler) {
+	public final HttpRequestHandler registerHttpHandler(String uri, HttpRequestHandler handler) {
 		return mHttpHandlers.put(uri, handler);
 	}
 
@@ -53,17 +71,28 @@ public class HttpSessionFactory implements SessionFactory {
 	 * @return The {@link HttpRequestHandler} for the specified URI, or <code>null</code> if there
 	 *         is none.
 	 */
-	public final synchronized HttpRequestHandler getHttpHandler(String uri) {
+	public final HttpRequestHandler getHttpHandler(String uri) {
 		return mHttpHandlers.get(uri);
 	}
 
 	/**
-	 * @param uri The URI to register a {@link WebSocketFactory} for.
+	 * @param uri The URI to get a {@link HttpRequestHandler} for.
+	 * @param match Where to record the path parameters captured from the URI.
+	 * @return The {@link HttpRequestHandler} for the specified URI, or <code>null</code> if there
+	 *         is none.
+	 */
+	final HttpRequestHandler findHttpHandler(String uri, RouteTable.Match match) {
+		return mHttpHandlers.find(uri, match);
+	}
+
+	/**
+	 * @param uri The URI to register a {@link WebSocketFactory} for. May be a pattern that captures
+	 *            path parameters, as described by {@link RouteTable}.
 	 * @param handler The {@link WebSocketFactory} to use for the specified URI.
 	 * @return Any existing {@link WebSocketFactory} for the specified URI, or <code>null</code> if
 	 *         there was none.
 	 */
-	public final synchronized WebSocketFactory registerWebSocketFactory(String uri, WebSocketFactory handler) {
+	public final WebSocketFactory registerWebSocketFactory(String uri, WebSocketFactory handler) {
 		return mWebSocketFactories.put(uri, handler);
 	}
 
@@ -72,10 +101,20 @@ public class HttpSessionFactory implements SessionFactory {
 	 * @return The {@link WebSocketFactory} for the specified URI, or <code>null</code> if there is
 	 *         none.
 	 */
-	public final synchronized WebSocketFactory getWebSocketFactory(String uri) {
+	public final WebSocketFactory getWebSocketFactory(String uri) {
 		return mWebSocketFactories.get(uri);
 	}
 
+	/**
+	 * @param uri The URI to get a {@link WebSocketFactory} for.
+	 * @param match Where to record the path parameters captured from the URI.
+	 * @return The {@link WebSocketFactory} for the specified URI, or <code>null</code> if there is
+	 *         none.
+	 */
+	final WebSocketFactory findWebSocketFactory(String uri, RouteTable.Match match) {
+		return mWebSocketFactories.find(uri, match);
+	}
+
 	@Override
 	public Session createSession(NioServer server, SocketChannel channel) throws IOException {
 		return new Session(server, channel, null, new Http(this));
@@ -14,6 +14,7 @@ package com.trollworks.toolkit.io.server.http;
 @SuppressWarnings("nls")
 /** Stores a HTTP status code. */
 public enum HttpStatusCode {
+	CONTINUE(100, "Continue"),
 	SWITCHING_PROTOCOLS(101, "Switching Protocols"),
 	OK(200, "OK"),
 	CREATED(201, "Created"),
@@ -87,4 +87,13 @@ public class MimeTypes {
 				return BINARY;
 		}
 	}
+
+	/**
+	 * @param mimeType The mime type to check.
+	 * @return <code>true</code> if data of the specified type is likely to benefit from
+	 *         compression.
+	 */
+	public static final boolean isCompressible(String mimeType) {
+		return mimeType.startsWith("text/") || JAVASCRIPT.equals(mimeType) || mimeType.endsWith("json") || mimeType.endsWith("xml");
+	}
 }
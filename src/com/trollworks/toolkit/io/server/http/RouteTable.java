@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps URI paths to values, such as {@link HttpRequestHandler}s, using patterns. A pattern is a
+ * sequence of segments separated by '/'. A segment of the form <code>{name}</code> matches any
+ * single, non-empty segment and captures it as a path parameter, while a final segment of the
+ * form <code>{name*}</code> matches and captures the remainder of the path, including any further
+ * '/'s. Any other segment must match exactly.
+ * <p>
+ * The patterns are compiled into a trie with one level per segment. Static segments are found
+ * through a hash computed from the characters of the path in place, and captured parameters are
+ * recorded as offsets into the path, so a lookup allocates nothing and takes time proportional to
+ * the length of the path. Static segments take precedence over parameters, which take precedence
+ * over a trailing wildcard. Where more than one applies, the next is only tried if the more
+ * specific one fails to match further along, so patterns that overlap that way cost a second walk
+ * of the remainder of the path.
+ * <p>
+ * The trie is rebuilt whenever a pattern is added or removed, and lookups read it without locking,
+ * so the table is best suited to being set up once and then consulted many times.
+ *
+ * @param <T> The type of value the paths are mapped to.
+ */
+@SuppressWarnings("nls")
+public final class RouteTable<T> {
+	private static final String[]	NO_NAMES	= new String[0];
+	private Map<String, Route<T>>	mRoutes		= new HashMap<>();
+	private volatile Node<T>		mRoot		= new Node<>(null);
+
+	/**
+	 * @param pattern The pattern to register a value for.
+	 * @param value The value to use for paths matching the pattern. Pass in <code>null</code> to
+	 *            remove the pattern.
+	 * @return Any existing value for a pattern of the same shape, or <code>null</code> if there was
+	 *         none. Patterns that differ only in the names of their parameters have the same shape.
+	 */
+	public synchronized T put(String pattern, T value) {
+		Route<T> route = new Route<>(pattern, value);
+		Route<T> previous = value != null ? mRoutes.put(route.mKey, route) : mRoutes.remove(route.mKey);
+		Node<T> root = new Node<>(null);
+		for (Route<T> one : mRoutes.values()) {
+			root.add(one);
+		}
+		mRoot = root;
+		return previous != null ? previous.mValue : null;
+	}
+
+	/**
+	 * @param path The path to look up.
+	 * @return The value registered for the most specific pattern matching the path, or
+	 *         <code>null</code> if there is none.
+	 */
+	public T get(String path) {
+		return find(path, null);
+	}
+
+	/**
+	 * @param path The path to look up.
+	 * @param match The {@link Match} to record the captured path parameters in. May be
+	 *            <code>null</code>.
+	 * @return The value registered for the most specific pattern matching the path, or
+	 *         <code>null</code> if there is none.
+	 */
+	T find(String path, Match match) {
+		if (match != null) {
+			match.prepare(path);
+		}
+		Route<T> route = match(mRoot, path, 0, match, 0);
+		if (route == null) {
+			return null;
+		}
+		if (match != null) {
+			match.mNames = route.mNames;
+		}
+		return route.mValue;
+	}
+
+	/** @return The number of patterns in this table. */
+	public synchronized int size() {
+		return mRoutes.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		List<String> patterns = new ArrayList<>();
+		for (Route<T> route : mRoutes.values()) {
+			patterns.add(route.mPattern);
+		}
+		return "RouteTable " + patterns;
+	}
+
+	/**
+	 * @param node The node for the segments consumed so far.
+	 * @param path The path being matched.
+	 * @param start The start of the next segment. Past the end of the path if every segment has
+	 *            been consumed.
+	 * @param match The {@link Match} to record captures in. May be <code>null</code>.
+	 * @param captured The number of parameters captured so far.
+	 * @return The matching {@link Route}, or <code>null</code>.
+	 */
+	private static <T> Route<T> match(Node<T> node, String path, int start, Match match, int captured) {
+		int length = path.length();
+		if (start > length) {
+			return node.mRoute;
+		}
+		// Find the end of the segment and hash it in the same pass
+		int end = start;
+		int hash = 0;
+		while (end < length) {
+			char ch = path.charAt(end);
+			if (ch == '/') {
+				break;
+			}
+			hash = 31 * hash + ch;
+			end++;
+		}
+		Node<T> child = node.findChild(path, start, end, hash);
+		if (child != null) {
+			Route<T> route = match(child, path, end + 1, match, captured);
+			if (route != null) {
+				return route;
+			}
+		}
+		if (node.mParameter != null && end > start) {
+			Route<T> route = match(node.mParameter, path, end + 1, match, captured + 1);
+			if (route != null) {
+				// Captures are recorded on the way back out, so a failed branch never has to undo any
+				if (match != null) {
+					match.capture(captured, start, end);
+				}
+				return route;
+			}
+		}
+		if (node.mCatchAll != null) {
+			if (match != null) {
+				match.capture(captured, start, length);
+			}
+			return node.mCatchAll;
+		}
+		return null;
+	}
+
+	/** The path parameters captured by a lookup. Reused from one lookup to the next. */
+	static final class Match {
+		private String				mPath;
+		private String[]			mNames		= NO_NAMES;
+		private int[]				mOffsets	= new int[8];
+		private Map<String, String>	mParameters;
+
+		void prepare(String path) {
+			mPath = path;
+			mNames = NO_NAMES;
+			mParameters = null;
+		}
+
+		void capture(int index, int start, int end) {
+			if (index * 2 + 1 >= mOffsets.length) {
+				int[] offsets = new int[Math.max(mOffsets.length * 2, index * 2 + 2)];
+				System.arraycopy(mOffsets, 0, offsets, 0, mOffsets.length);
+				mOffsets = offsets;
+			}
+			mOffsets[index * 2] = start;
+			mOffsets[index * 2 + 1] = end;
+		}
+
+		/**
+		 * @param name The name of the path parameter.
+		 * @return The value of the path parameter, or <code>null</code> if it wasn't captured.
+		 */
+		String get(String name) {
+			for (int i = 0; i < mNames.length; i++) {
+				if (mNames[i].equals(name)) {
+					return mPath.substring(mOffsets[i * 2], mOffsets[i * 2 + 1]);
+				}
+			}
+			return null;
+		}
+
+		/** @return The captured path parameters. */
+		Map<String, String> getAll() {
+			if (mParameters == null) {
+				mParameters = new HashMap<>();
+				for (int i = 0; i < mNames.length; i++) {
+					mParameters.put(mNames[i], mPath.substring(mOffsets[i * 2], mOffsets[i * 2 + 1]));
+				}
+			}
+			return mParameters;
+		}
+	}
+
+	private static final class Route<T> {
+		final String	mPattern;
+		final String[]	mSegments;
+		final String[]	mNames;
+		final String	mKey;
+		final T			mValue;
+
+		Route(String pattern, T value) {
+			mPattern = pattern;
+			mValue = value;
+			mSegments = pattern.split("/", -1);
+			List<String> names = new ArrayList<>();
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < mSegments.length; i++) {
+				String segment = mSegments[i];
+				if (i > 0) {
+					key.append('/');
+				}
+				if (isParameter(segment)) {
+					String name = segment.substring(1, segment.length() - 1);
+					if (name.endsWith("*")) {
+						if (i != mSegments.length - 1) {
+							throw new IllegalArgumentException("A wildcard may only be used as the last segment: " + pattern);
+						}
+						name = name.substring(0, name.length() - 1);
+						key.append("{*}");
+					} else {
+						key.append("{}");
+					}
+					if (name.isEmpty() || names.contains(name)) {
+						throw new IllegalArgumentException("Missing or duplicate parameter name: " + pattern);
+					}
+					names.add(name);
+				} else {
+					key.append(segment);
+				}
+			}
+			mNames = names.isEmpty() ? NO_NAMES : names.toArray(new String[names.size()]);
+			mKey = key.toString();
+		}
+
+		static boolean isParameter(String segment) {
+			return segment.length() > 1 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+		}
+	}
+
+	private static final class Node<T> {
+		final String	mSegment;
+		final int		mHash;
+		Node<T>[]		mChildren;
+		int				mChildCount;
+		Node<T>			mParameter;
+		Route<T>		mRoute;
+		Route<T>		mCatchAll;
+
+		Node(String segment) {
+			mSegment = segment;
+			mHash = segment != null ? segment.hashCode() : 0;
+		}
+
+		void add(Route<T> route) {
+			Node<T> node = this;
+			for (String segment : route.mSegments) {
+				if (Route.isParameter(segment)) {
+					if (segment.endsWith("*}")) {
+						node.mCatchAll = route;
+						return;
+					}
+					if (node.mParameter == null) {
+						node.mParameter = new Node<>(null);
+					}
+					node = node.mParameter;
+				} else {
+					Node<T> child = node.findChild(segment, 0, segment.length(), segment.hashCode());
+					if (child == null) {
+						child = new Node<>(segment);
+						node.addChild(child);
+					}
+					node = child;
+				}
+			}
+			node.mRoute = route;
+		}
+
+		/** @return The static child matching the specified range of the path, whose hash is given. */
+		Node<T> findChild(String path, int start, int end, int hash) {
+			if (mChildren == null) {
+				return null;
+			}
+			int length = end - start;
+			int mask = mChildren.length - 1;
+			for (int i = spread(hash) & mask;; i = i + 1 & mask) {
+				Node<T> child = mChildren[i];
+				if (child == null) {
+					return null;
+				}
+				if (child.mHash == hash && child.mSegment.length() == length && child.mSegment.regionMatches(0, path, start, length)) {
+					return child;
+				}
+			}
+		}
+
+		private void addChild(Node<T> child) {
+			if (mChildren == null || (mChildCount + 1) * 2 > mChildren.length) {
+				Node<T>[] old = mChildren;
+				mChildren = newTable(old == null ? 4 : old.length * 2);
+				mChildCount = 0;
+				if (old != null) {
+					for (Node<T> one : old) {
+						if (one != null) {
+							addChild(one);
+						}
+					}
+				}
+			}
+			int mask = mChildren.length - 1;
+			int i = spread(child.mHash) & mask;
+			while (mChildren[i] != null) {
+				i = i + 1 & mask;
+			}
+			mChildren[i] = child;
+			mChildCount++;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static <T> Node<T>[] newTable(int size) {
+			return new Node[size];
+		}
+
+		private static int spread(int hash) {
+			return hash ^ hash >>> 16;
+		}
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.http;
+
+import com.trollworks.toolkit.io.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Holds the content of frequently requested static files in memory, so that they can be served
+ * without touching the file system. Each cached file keeps its bytes, its response headers and,
+ * for compressible types, a gzip variant that is sent to clients that accept it.
+ * <p>
+ * Like {@link com.trollworks.toolkit.collections.LRUCache}, the least recently used files are
+ * discarded first, but the limit is on the number of bytes held rather than the number of files.
+ * A {@link WatchService} on the root directory removes files from the cache as soon as they are
+ * changed, replaced or deleted. All methods may be called from any thread.
+ */
+@SuppressWarnings("nls")
+public final class StaticAssetCache implements Closeable {
+	/** The default limit on the number of bytes held by the cache. */
+	public static final long			DEFAULT_MAXIMUM_BYTES		= 32 * 1024 * 1024;
+	/** The default limit on the size of a file that will be cached. */
+	public static final int				DEFAULT_MAXIMUM_ASSET_SIZE	= 1024 * 1024;
+	private static final int			MINIMUM_COMPRESSIBLE_SIZE	= 256;
+	private static final int			ENTRY_OVERHEAD				= 256;
+	private Path						mRoot;
+	private long						mMaximumBytes;
+	private int							mMaximumAssetSize;
+	private LinkedHashMap<Path, Asset>	mAssets						= new LinkedHashMap<>(16, 0.75f, true);
+	private long						mRetainedBytes;
+	private long						mGeneration;
+	private WatchService				mWatchService;
+	private Map<WatchKey, Path>			mDirectories				= new HashMap<>();
+	private Thread						mWatcher;
+	private LongAdder					mHits						= new LongAdder();
+	private LongAdder					mMisses						= new LongAdder();
+
+	/**
+	 * Creates a new {@link StaticAssetCache} with the default limits.
+	 *
+	 * @param root The root web directory.
+	 */
+	public StaticAssetCache(Path root) throws IOException {
+		this(root, DEFAULT_MAXIMUM_BYTES, DEFAULT_MAXIMUM_ASSET_SIZE);
+	}
+
+	/**
+	 * Creates a new {@link StaticAssetCache}.
+	 *
+	 * @param root The root web directory.
+	 * @param maximumBytes The maximum number of bytes to hold, including the compressed variants.
+	 * @param maximumAssetSize The size of the largest file that will be cached. Larger files are
+	 *            always served from the file system.
+	 */
+	public StaticAssetCache(Path root, long maximumBytes, int maximumAssetSize) throws IOException {
+		mRoot = root.toAbsolutePath().normalize();
+		mMaximumBytes = maximumBytes;
+		mMaximumAssetSize = maximumAssetSize;
+		mWatchService = mRoot.getFileSystem().newWatchService();
+		watchTree(mRoot);
+		mWatcher = new Thread(this::watch, "StaticAssetCache Watcher");
+		mWatcher.setDaemon(true);
+		mWatcher.start();
+	}
+
+	/** @return The root web directory. */
+	public Path getRoot() {
+		return mRoot;
+	}
+
+	/** @return The size of the largest file that will be cached. */
+	public int getMaximumAssetSize() {
+		return mMaximumAssetSize;
+	}
+
+	/**
+	 * @param path The normalized, absolute path of a file.
+	 * @return The cached content of the file, or <code>null</code> if it is not in the cache.
+	 */
+	Asset get(Path path) {
+		Asset asset;
+		synchronized (this) {
+			asset = mAssets.get(path);
+		}
+		if (asset != null) {
+			mHits.increment();
+		}
+		return asset;
+	}
+
+	/**
+	 * Loads a file into the cache.
+	 *
+	 * @param path The normalized, absolute path of a file.
+	 * @param attributes The attributes of the file, as read just before this call.
+	 * @param mimeType The mime type to serve the file with.
+	 * @return The content of the file, or <code>null</code> if the file is too large to be cached
+	 *         or changed while being read.
+	 */
+	Asset load(Path path, BasicFileAttributes attributes, String mimeType) throws IOException {
+		if (!attributes.isRegularFile() || attributes.size() > mMaximumAssetSize || !path.startsWith(mRoot)) {
+			return null;
+		}
+		mMisses.increment();
+		long generation;
+		synchronized (this) {
+			generation = mGeneration;
+		}
+		byte[] data = Files.readAllBytes(path);
+		long modified = attributes.lastModifiedTime().toMillis();
+		if (data.length != attributes.size() || Files.getLastModifiedTime(path).toMillis() != modified) {
+			return null;
+		}
+		Asset asset = new Asset(data, mimeType, modified);
+		synchronized (this) {
+			// Anything that changed while the file was being read may have been missed
+			if (generation == mGeneration && asset.mWeight <= mMaximumBytes) {
+				Asset previous = mAssets.put(path, asset);
+				if (previous != null) {
+					mRetainedBytes -= previous.mWeight;
+				}
+				mRetainedBytes += asset.mWeight;
+				Iterator<Asset> iterator = mAssets.values().iterator();
+				while (mRetainedBytes > mMaximumBytes && iterator.hasNext()) {
+					mRetainedBytes -= iterator.next().mWeight;
+					iterator.remove();
+				}
+			}
+		}
+		return asset;
+	}
+
+	/**
+	 * Removes a file, or everything within a directory, from the cache.
+	 *
+	 * @param path The normalized, absolute path of a file or directory.
+	 */
+	public synchronized void invalidate(Path path) {
+		mGeneration++;
+		Iterator<Map.Entry<Path, Asset>> iterator = mAssets.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path, Asset> entry = iterator.next();
+			if (entry.getKey().startsWith(path)) {
+				mRetainedBytes -= entry.getValue().mWeight;
+				iterator.remove();
+			}
+		}
+	}
+
+	/** Removes everything from the cache. */
+	public synchronized void clear() {
+		mGeneration++;
+		mAssets.clear();
+		mRetainedBytes = 0;
+	}
+
+	/** @return The number of files in the cache. */
+	public synchronized int getCount() {
+		return mAssets.size();
+	}
+
+	/** @return The number of bytes held by the cache. */
+	public synchronized long getRetainedBytes() {
+		return mRetainedBytes;
+	}
+
+	/** @return The number of requests satisfied from the cache. */
+	public long getHits() {
+		return mHits.sum();
+	}
+
+	/** @return The number of files loaded into the cache. */
+	public long getMisses() {
+		return mMisses.sum();
+	}
+
+	/** Stops watching the root directory and empties the cache. */
+	@Override
+	public void close() throws IOException {
+		mWatchService.close();
+		mWatcher.interrupt();
+		clear();
+	}
+
+	@Override
+	public String toString() {
+		return "StaticAssetCache [count=" + getCount() + ", hits=" + getHits() + ", misses=" + getMisses() + ", retained=" + getRetainedBytes() + "]";
+	}
+
+	private void watchTree(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				synchronized (mDirectories) {
+					mDirectories.put(key, dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void watch() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = mWatchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException exception) {
+				break;
+			}
+			Path dir;
+			synchronized (mDirectories) {
+				dir = mDirectories.get(key);
+			}
+			if (dir != null) {
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						clear();
+						continue;
+					}
+					Path path = dir.resolve((Path) event.context());
+					invalidate(path);
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+						try {
+							watchTree(path);
+						} catch (IOException exception) {
+							Log.error(exception);
+						}
+					}
+				}
+			}
+			if (!key.reset()) {
+				synchronized (mDirectories) {
+					mDirectories.remove(key);
+				}
+				if (dir != null) {
+					invalidate(dir);
+				}
+			}
+		}
+	}
+
+	/** The cached content of a single file. */
+	static final class Asset {
+		final byte[]	mData;
+		final byte[]	mHeader;
+		final byte[]	mGzipData;
+		final byte[]	mGzipHeader;
+		final String	mETag;
+		final String	mGzipETag;
+		final String	mLastModified;
+		final long		mModified;
+		final int		mWeight;
+
+		Asset(byte[] data, String mimeType, long modified) throws IOException {
+			mData = data;
+			mModified = modified - modified % 1000;
+			mLastModified = HttpResponse.formatDate(modified);
+			String tag = Long.toHexString(modified) + "-" + Long.toHexString(data.length);
+			mETag = "\"" + tag + "\"";
+			byte[] gzipData = null;
+			if (data.length >= MINIMUM_COMPRESSIBLE_SIZE && MimeTypes.isCompressible(mimeType)) {
+				gzipData = compress(data);
+				// Not worth it if the savings are small
+				if (gzipData.length > data.length - data.length / 10) {
+					gzipData = null;
+				}
+			}
+			mGzipData = gzipData;
+			mGzipETag = gzipData != null ? "\"" + tag + "-gz\"" : null;
+			mHeader = buildHeader(mimeType, mETag, null, data.length);
+			mGzipHeader = gzipData != null ? buildHeader(mimeType, mGzipETag, "gzip", gzipData.length) : null;
+			mWeight = ENTRY_OVERHEAD + data.length + mHeader.length + (gzipData != null ? gzipData.length + mGzipHeader.length : 0);
+		}
+
+		/** @return Whether this {@link Asset} has a gzip variant. */
+		boolean isCompressed() {
+			return mGzipData != null;
+		}
+
+		private byte[] buildHeader(String mimeType, String etag, String encoding, int length) {
+			StringBuilder buffer = new StringBuilder(256);
+			appendHeader(buffer, "Content-Type", mimeType);
+			appendHeader(buffer, "ETag", etag);
+			appendHeader(buffer, "Last-Modified", mLastModified);
+			appendHeader(buffer, "Accept-Ranges", "bytes");
+			if (mGzipData != null) {
+				appendHeader(buffer, "Vary", "Accept-Encoding");
+			}
+			if (encoding != null) {
+				appendHeader(buffer, "Content-Encoding", encoding);
+			}
+			appendHeader(buffer, "Connection", "keep-alive");
+			appendHeader(buffer, "Content-Length", Integer.toString(length));
+			return buffer.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+		private static void appendHeader(StringBuilder buffer, String name, String value) {
+			buffer.append(name);
+			buffer.append(": ");
+			buffer.append(value);
+			buffer.append("\r\n");
+		}
+
+		private static byte[] compress(byte[] data) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+				{
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			}) {
+				gzip.write(data);
+			}
+			return out.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.http.test;
+
+import com.trollworks.toolkit.io.server.NioServer;
+import com.trollworks.toolkit.io.server.http.HttpSessionFactory;
+import com.trollworks.toolkit.io.server.test.LoadTest;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures how quickly a static file is served over a single keep-alive loopback connection, along
+ * with the number of garbage collections it causes.
+ * <p>
+ * Usage: <code>FileTransferBenchmark [fileSize] [seconds]</code>
+ */
+@SuppressWarnings("nls")
+public final class FileTransferBenchmark {
+	private FileTransferBenchmark() {
+	}
+
+	/** @param args The size of the file in bytes and the duration in seconds. */
+	public static void main(String[] args) throws Exception {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024 * 1024;
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 4;
+		Path root = Files.createTempDirectory("bench").toRealPath();
+		Path file = root.resolve("file.bin");
+		byte[] data = new byte[size];
+		new Random(1).nextBytes(data);
+		Files.write(file, data);
+		int port = LoadTest.findFreePort();
+		NioServer server = new NioServer(null);
+		server.listen(InetAddress.getLoopbackAddress(), port, new HttpSessionFactory(root));
+		server.start();
+		byte[] request = "GET /file.bin HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] buffer = new byte[256 * 1024];
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+			OutputStream out = socket.getOutputStream();
+			long warmUpEnd = System.nanoTime() + (long) (seconds * 0.2e9);
+			long start = 0;
+			long bytes = 0;
+			int count = 0;
+			long collections = 0;
+			while (true) {
+				out.write(request);
+				long remaining = readContentLength(in);
+				while (remaining > 0) {
+					int amount = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+					if (amount < 0) {
+						throw new EOFException();
+					}
+					remaining -= amount;
+				}
+				long now = System.nanoTime();
+				if (start == 0) {
+					if (now >= warmUpEnd) {
+						start = now;
+						collections = getCollectionCount();
+					}
+				} else {
+					bytes += size;
+					count++;
+					if (now - start >= seconds * 1e9) {
+						break;
+					}
+				}
+			}
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			System.out.printf("size=%d: %.1f requests/s, %.1f MB/s, %d GCs%n", Integer.valueOf(size), Double.valueOf(count / elapsed), Double.valueOf(bytes / elapsed / (1024 * 1024)), Long.valueOf(getCollectionCount() - collections));
+		} finally {
+			server.shutdown();
+			Files.delete(file);
+			Files.delete(root);
+		}
+	}
+
+	private static long readContentLength(InputStream in) throws IOException {
+		long length = -1;
+		StringBuilder line = new StringBuilder();
+		while (true) {
+			int ch = in.read();
+			if (ch < 0) {
+				throw new EOFException();
+			}
+			if (ch == '\n') {
+				String header = line.toString().trim();
+				if (header.isEmpty()) {
+					return length;
+				}
+				if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+					length = Long.parseLong(header.substring(15).trim());
+				}
+				line.setLength(0);
+			} else {
+				line.append((char) ch);
+			}
+		}
+	}
+
+	private static long getCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += bean.getCollectionCount();
+		}
+		return count;
+	}
+}
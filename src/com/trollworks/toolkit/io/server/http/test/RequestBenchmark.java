@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.http.test;
+
+import com.trollworks.toolkit.io.server.NioServer;
+import com.trollworks.toolkit.io.server.http.HttpResponse;
+import com.trollworks.toolkit.io.server.http.HttpSessionFactory;
+import com.trollworks.toolkit.io.server.http.HttpStatusCode;
+import com.trollworks.toolkit.io.server.http.MimeTypes;
+import com.trollworks.toolkit.io.server.test.LoadTest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate at which small requests to a {@link HttpRequestHandler} are answered over
+ * many keep-alive loopback connections. It also reports the bytes allocated per request by every
+ * thread other than the client's. Each request carries the set of headers a typical browser sends.
+ * <p>
+ * Usage: <code>RequestBenchmark [connections] [seconds] [responseSize] [get|post|chunked] [depth]</code>
+ * <p>
+ * The post and chunked modes send a small form body, delimited by a Content-Length header or by
+ * the chunked transfer coding respectively. A depth greater than 1 pipelines that many requests on
+ * each connection before waiting for their responses.
+ */
+@SuppressWarnings("nls")
+public final class RequestBenchmark {
+	private static final long	WARM_UP_NANOS	= TimeUnit.NANOSECONDS.convert(3, TimeUnit.SECONDS);
+	private static final String	HEADERS			= "Host: example.com:8080\r\nUser-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/119.0\r\nAccept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\nAccept-Language: en-US,en;q=0.5\r\nAccept-Encoding: gzip, deflate, br\r\nReferer: http://example.com/index.html\r\nCookie: session=abcdef0123456789; theme=dark\r\nConnection: keep-alive\r\nCache-Control: no-cache\r\n";
+	private static final String	FORM			= "name=widget&count=12&tag=a%20b";
+
+	private RequestBenchmark() {
+	}
+
+	/**
+	 * @param args The connection count, duration in seconds, response body size, request mode and
+	 *            pipeline depth.
+	 */
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		byte[] body = new byte[args.length > 2 ? Integer.parseInt(args[2]) : 100];
+		String mode = args.length > 3 ? args[3] : "get";
+		int depth = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+		Arrays.fill(body, (byte) 'z');
+		Path root = Files.createTempDirectory("bench").toRealPath();
+		HttpSessionFactory factory = new HttpSessionFactory(root);
+		factory.registerHttpHandler("/api/items", http -> new HttpResponse(HttpStatusCode.OK, MimeTypes.TEXT, body));
+		int port = LoadTest.findFreePort();
+		NioServer server = new NioServer(null);
+		server.listen(InetAddress.getLoopbackAddress(), port, factory);
+		server.start();
+		byte[] request = createRequest(mode).getBytes(StandardCharsets.US_ASCII);
+		byte[] batch = new byte[request.length * depth];
+		for (int i = 0; i < depth; i++) {
+			System.arraycopy(request, 0, batch, i * request.length, request.length);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		try (Selector selector = Selector.open()) {
+			for (int i = 0; i < connections; i++) {
+				SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, new ResponseReader(body.length, depth));
+				channel.write(ByteBuffer.wrap(batch));
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+			long requests = 0;
+			long start = System.nanoTime() + WARM_UP_NANOS;
+			long end = start + TimeUnit.NANOSECONDS.convert(seconds, TimeUnit.SECONDS);
+			boolean counting = false;
+			long collections = 0;
+			long allocated = 0;
+			while (true) {
+				long now = System.nanoTime();
+				if (!counting && now >= start) {
+					counting = true;
+					requests = 0;
+					collections = getCollectionCount();
+					allocated = getServerAllocation(threads);
+				}
+				if (now >= end) {
+					break;
+				}
+				selector.select(100);
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					SocketChannel channel = (SocketChannel) key.channel();
+					buffer.clear();
+					if (channel.read(buffer) < 0) {
+						key.cancel();
+						continue;
+					}
+					buffer.flip();
+					ResponseReader reader = (ResponseReader) key.attachment();
+					int completed = reader.consume(buffer);
+					requests += completed;
+					reader.mOutstanding -= completed;
+					if (reader.mOutstanding == 0) {
+						reader.mOutstanding = depth;
+						channel.write(ByteBuffer.wrap(batch));
+					}
+				}
+			}
+			System.out.printf("%s connections=%d depth=%d body=%d: %,d requests/s, %d GCs, %,d bytes allocated/request%n", mode, Integer.valueOf(connections), Integer.valueOf(depth), Integer.valueOf(body.length), Long.valueOf(requests / seconds), Long.valueOf(getCollectionCount() - collections), Long.valueOf((getServerAllocation(threads) - allocated) / Math.max(requests, 1)));
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+		} finally {
+			server.shutdown();
+			Files.delete(root);
+		}
+	}
+
+	private static String createRequest(String mode) {
+		switch (mode) {
+			case "get":
+				return "GET /api/items?page=2&sort=name HTTP/1.1\r\n" + HEADERS + "\r\n";
+			case "post":
+				return "POST /api/items HTTP/1.1\r\n" + HEADERS + "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: " + FORM.length() + "\r\n\r\n" + FORM;
+			case "chunked":
+				return "POST /api/items HTTP/1.1\r\n" + HEADERS + "Content-Type: application/x-www-form-urlencoded\r\nTransfer-Encoding: chunked\r\n\r\na\r\n" + FORM.substring(0, 10) + "\r\n" + Integer.toHexString(FORM.length() - 10) + "\r\n" + FORM.substring(10) + "\r\n0\r\n\r\n";
+			default:
+				throw new IllegalArgumentException("Unknown mode: " + mode);
+		}
+	}
+
+	private static long getCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += bean.getCollectionCount();
+		}
+		return count;
+	}
+
+	private static long getServerAllocation(com.sun.management.ThreadMXBean threads) {
+		long self = Thread.currentThread().getId();
+		long total = 0;
+		for (long id : threads.getAllThreadIds()) {
+			if (id != self) {
+				long amount = threads.getThreadAllocatedBytes(id);
+				if (amount > 0) {
+					total += amount;
+				}
+			}
+		}
+		return total;
+	}
+
+	/** Finds the ends of responses with a known body size. */
+	private static final class ResponseReader {
+		private int	mBodySize;
+		private int	mMatched;
+		private int	mBodyRemaining;
+		int			mOutstanding;
+
+		ResponseReader(int bodySize, int outstanding) {
+			mBodySize = bodySize;
+			mOutstanding = outstanding;
+		}
+
+		/** @return The number of responses completed by the data. */
+		int consume(ByteBuffer buffer) {
+			int completed = 0;
+			while (buffer.hasRemaining()) {
+				if (mBodyRemaining > 0) {
+					int amount = Math.min(mBodyRemaining, buffer.remaining());
+					buffer.position(buffer.position() + amount);
+					mBodyRemaining -= amount;
+					if (mBodyRemaining == 0) {
+						completed++;
+					}
+					continue;
+				}
+				byte b = buffer.get();
+				if (b == (mMatched % 2 == 0 ? '\r' : '\n')) {
+					if (++mMatched == 4) {
+						mMatched = 0;
+						mBodyRemaining = mBodySize;
+						if (mBodySize == 0) {
+							completed++;
+						}
+					}
+				} else {
+					mMatched = b == '\r' ? 1 : 0;
+				}
+			}
+			return completed;
+		}
+	}
+}
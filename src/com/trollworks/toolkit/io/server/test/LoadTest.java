@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.server.test;
+
+import com.trollworks.toolkit.io.server.NioServer;
+import com.trollworks.toolkit.io.server.Personality;
+import com.trollworks.toolkit.io.server.Session;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a {@link NioServer} over loopback with many concurrent connections, each bouncing a small
+ * message off an echo {@link Personality}, and reports the number of round trips per second.
+ * <p>
+ * Usage: <code>LoadTest [selectors] [connections] [seconds] [messageSize]</code>
+ * <p>
+ * A selector count of 1 services the connections on the accepting thread, as the single argument
+ * constructor does. The clients all run on a single thread of their own, so on a machine with few
+ * cores they compete with the server for the processor.
+ */
+@SuppressWarnings("nls")
+public final class LoadTest {
+	private static final long	WARM_UP_NANOS	= TimeUnit.NANOSECONDS.convert(2, TimeUnit.SECONDS);
+
+	private LoadTest() {
+	}
+
+	/** @param args The selector count, connection count, duration in seconds and message size. */
+	public static void main(String[] args) throws Exception {
+		int selectors = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int size = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		int port = findFreePort();
+		NioServer server = new NioServer(null, selectors);
+		server.listen(InetAddress.getLoopbackAddress(), port, (srv, channel) -> new Session(srv, channel, null, new Echo()));
+		server.start();
+		byte[] message = new byte[size];
+		Arrays.fill(message, (byte) 'x');
+		try (Selector selector = Selector.open()) {
+			for (int i = 0; i < connections; i++) {
+				SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, new int[1]);
+				channel.write(ByteBuffer.wrap(message));
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			long trips = 0;
+			long start = System.nanoTime() + WARM_UP_NANOS;
+			long end = start + TimeUnit.NANOSECONDS.convert(seconds, TimeUnit.SECONDS);
+			boolean counting = false;
+			while (true) {
+				long now = System.nanoTime();
+				if (!counting && now >= start) {
+					counting = true;
+					trips = 0;
+				}
+				if (now >= end) {
+					break;
+				}
+				selector.select(100);
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					SocketChannel channel = (SocketChannel) key.channel();
+					int[] received = (int[]) key.attachment();
+					buffer.clear();
+					int amount = channel.read(buffer);
+					if (amount < 0) {
+						key.cancel();
+						continue;
+					}
+					received[0] += amount;
+					while (received[0] >= size) {
+						received[0] -= size;
+						trips++;
+						channel.write(ByteBuffer.wrap(message));
+					}
+				}
+			}
+			System.out.printf("selectors=%d connections=%d size=%d: %,d round trips/s, %d sessions%n", Integer.valueOf(selectors), Integer.valueOf(connections), Integer.valueOf(size), Long.valueOf(trips / seconds), Integer.valueOf(server.getSessions().size()));
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+		}
+		server.shutdown();
+	}
+
+	/** @return A loopback port that nothing is currently listening on. */
+	public static int findFreePort() throws IOException {
+		try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return probe.getLocalPort();
+		}
+	}
+
+	private static final class Echo extends Personality {
+		Echo() {
+		}
+
+		@Override
+		public void processInput(ByteBuffer buffer) {
+			ByteBuffer out = getBufferPool().acquire(buffer.remaining());
+			out.put(buffer);
+			out.flip();
+			sendPooled(out);
+		}
+
+		@Override
+		public void closing() throws IOException {
+			// Nothing to do
+		}
+	}
+}
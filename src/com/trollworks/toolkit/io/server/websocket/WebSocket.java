@@ -254,27 +254,27 @@ public class WebSocket extends Personality {
 	}
 
 	private final void send(Opcode opcode, byte[] data) {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(10 + Math.min(data.length, MAX_PAYLOAD_LENGTH));
+		int fragments = Math.max((data.length + MAX_PAYLOAD_LENGTH - 1) / MAX_PAYLOAD_LENGTH, 1);
+		int lastLength = data.length - (fragments - 1) * MAX_PAYLOAD_LENGTH;
+		int size = data.length + (fragments - 1) * frameHeaderSize(MAX_PAYLOAD_LENGTH) + frameHeaderSize(lastLength);
+		ByteBuffer buffer = getBufferPool().acquire(size);
 		int position = 0;
 		int remaining = data.length;
 		while (true) {
 			boolean finalFragment = remaining <= MAX_PAYLOAD_LENGTH;
 			int length = finalFragment ? remaining : MAX_PAYLOAD_LENGTH;
-			baos.write((byte) (((finalFragment ? 0x80 : 0) | opcode.getOpcode()) & 0xFF));
+			buffer.put((byte) ((finalFragment ? 0x80 : 0) | opcode.getOpcode()));
 			if (length < 126) {
-				baos.write(length & 0xFF);
+				buffer.put((byte) length);
 			} else if (length < 65536) {
-				baos.write(126);
-				baos.write(length >>> 8 & 0xFF);
-				baos.write(length & 0xFF);
+				buffer.put((byte) 126);
+				buffer.putShort((short) length);
 			} else {
-				baos.write(127);
-				for (int i = 56; i >= 0; i -= 8) {
-					baos.write((int) ((long) length >>> i & 0xFF));
-				}
+				buffer.put((byte) 127);
+				buffer.putLong(length);
 			}
 			if (length > 0) {
-				baos.write(data, position, length);
+				buffer.put(data, position, length);
 				opcode = Opcode.CONTINUATION;
 				position += length;
 				remaining -= length;
@@ -283,7 +283,12 @@ public class WebSocket extends Personality {
 				break;
 			}
 		}
-		send(ByteBuffer.wrap(baos.toByteArray()));
+		buffer.flip();
+		sendPooled(buffer);
+	}
+
+	private static int frameHeaderSize(int length) {
+		return length < 126 ? 2 : length < 65536 ? 4 : 10;
 	}
 
 	static enum Opcode {
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+/**
+ * Objects that track their own changes may implement this interface to have their serialized form
+ * cached between saves. While the object remains unchanged, saving it again writes the cached form
+ * verbatim, and none of the other Tag* callbacks are made for it or anything within it.
+ */
+public interface TagCacheable {
+	/**
+	 * @return The cache for this object. {@link XmlFragmentCache#markDirty()} must be called on it
+	 *         whenever anything that would be written for this object changes, including changes
+	 *         to the objects within it. The cache must not be shared with other objects, including
+	 *         clones.
+	 */
+	XmlFragmentCache xmlGetFragmentCache();
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import com.trollworks.toolkit.annotation.XmlStreamed;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Objects that wish to consume the elements of a collection field marked with {@link XmlStreamed}
+ * one at a time, rather than have the collection hold them all, should implement this interface.
+ */
+public interface TagStreamedElement {
+	/**
+	 * Called as soon as each element of a collection field marked with {@link XmlStreamed} has been
+	 * loaded. The element is not added to the collection, so it may be discarded once processed.
+	 *
+	 * @param context The {@link XmlParserContext} for this object.
+	 * @param tag The tag the element was loaded from.
+	 * @param element The element.
+	 */
+	void xmlElementLoaded(XmlParserContext context, String tag, Object element) throws XMLStreamException;
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Provides each thread with its own StAX factory. StAX factories are expensive to create, but are
+ * not guaranteed to be safe for concurrent use, so each thread keeps the one it created until the
+ * configuration changes.
+ *
+ * @param <F> The type of factory.
+ */
+final class ThreadLocalFactory<F> {
+	private final ThreadLocal<Configured<F>>	mFactory		= new ThreadLocal<>();
+	private final AtomicInteger					mConfiguration	= new AtomicInteger();
+	private final Supplier<F>					mDefaultSupplier;
+	private final Consumer<F>					mConfigurer;
+	private volatile Supplier<F>				mSupplier;
+
+	/**
+	 * @param defaultSupplier Creates the factory when no other supplier has been set.
+	 * @param configurer Applies the current settings to a newly created factory. May be
+	 *            <code>null</code>.
+	 */
+	ThreadLocalFactory(Supplier<F> defaultSupplier, Consumer<F> configurer) {
+		mDefaultSupplier = defaultSupplier;
+		mConfigurer = configurer;
+		mSupplier = defaultSupplier;
+	}
+
+	/** @return The calling thread's factory, created afresh if the configuration has changed. */
+	F get() {
+		int configuration = mConfiguration.get();
+		Configured<F> cached = mFactory.get();
+		if (cached == null || cached.mConfiguration != configuration) {
+			F factory = mSupplier.get();
+			if (mConfigurer != null) {
+				mConfigurer.accept(factory);
+			}
+			cached = new Configured<>(factory, configuration);
+			mFactory.set(cached);
+		}
+		return cached.mFactory;
+	}
+
+	/**
+	 * @param supplier Creates the factories handed out after this call. Pass in <code>null</code>
+	 *            to use the default supplier.
+	 */
+	void setSupplier(Supplier<F> supplier) {
+		mSupplier = supplier != null ? supplier : mDefaultSupplier;
+		configurationChanged();
+	}
+
+	/** Causes each thread to create a new factory the next time it asks for one. */
+	void configurationChanged() {
+		mConfiguration.incrementAndGet();
+	}
+
+	private static final class Configured<F> {
+		F	mFactory;
+		int	mConfiguration;
+
+		Configured(F factory, int configuration) {
+			mFactory = factory;
+			mConfiguration = configuration;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * The {@link Writer} underlying an {@link XMLWriter}. Characters are encoded as either UTF-8 or
+ * US-ASCII directly into a reusable byte buffer, which is handed to the stream only when full or
+ * flushed. As with an {@link java.io.OutputStreamWriter}, characters that cannot be encoded are
+ * replaced with '?'.
+ */
+final class XMLByteSink extends Writer {
+	private static final int	REPLACEMENT	= '?';
+	private OutputStream		mStream;
+	private boolean				mUTF8;
+	private byte[]				mBuffer		= new byte[8192];
+	private int					mCount;
+	private char				mHighSurrogate;
+
+	/**
+	 * @param stream The stream to write to.
+	 * @param utf8 Whether to encode as UTF-8, rather than US-ASCII.
+	 */
+	XMLByteSink(OutputStream stream, boolean utf8) {
+		mStream = stream;
+		mUTF8 = utf8;
+	}
+
+	@Override
+	public void write(int ch) throws IOException {
+		ensureOpen();
+		encode((char) ch);
+	}
+
+	@Override
+	public void write(char[] buffer, int offset, int length) throws IOException {
+		ensureOpen();
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char ch = buffer[i];
+			if (ch < 0x80 && mHighSurrogate == 0) {
+				if (mCount == mBuffer.length) {
+					drain();
+				}
+				mBuffer[mCount++] = (byte) ch;
+			} else {
+				encode(ch);
+			}
+		}
+	}
+
+	@Override
+	public void write(String str, int offset, int length) throws IOException {
+		ensureOpen();
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char ch = str.charAt(i);
+			if (ch < 0x80 && mHighSurrogate == 0) {
+				if (mCount == mBuffer.length) {
+					drain();
+				}
+				mBuffer[mCount++] = (byte) ch;
+			} else {
+				encode(ch);
+			}
+		}
+	}
+
+	/**
+	 * Writes the decimal digits of a value, without first converting it to a {@link String}.
+	 *
+	 * @param value The value to write.
+	 */
+	void writeNumber(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			write(Long.toString(value));
+			return;
+		}
+		ensureOpen();
+		flushSurrogate();
+		if (mBuffer.length - mCount < 20) {
+			drain();
+		}
+		if (value < 0) {
+			mBuffer[mCount++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+			digits++;
+		}
+		int pos = mCount + digits;
+		mCount = pos;
+		do {
+			mBuffer[--pos] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+	}
+
+	private void encode(char ch) throws IOException {
+		if (mBuffer.length - mCount < 4) {
+			drain();
+		}
+		if (mHighSurrogate != 0) {
+			char high = mHighSurrogate;
+			mHighSurrogate = 0;
+			if (Character.isLowSurrogate(ch)) {
+				if (mUTF8) {
+					int cp = Character.toCodePoint(high, ch);
+					mBuffer[mCount++] = (byte) (0xF0 | cp >> 18);
+					mBuffer[mCount++] = (byte) (0x80 | cp >> 12 & 0x3F);
+					mBuffer[mCount++] = (byte) (0x80 | cp >> 6 & 0x3F);
+					mBuffer[mCount++] = (byte) (0x80 | cp & 0x3F);
+				} else {
+					mBuffer[mCount++] = REPLACEMENT;
+				}
+				return;
+			}
+			mBuffer[mCount++] = REPLACEMENT;
+			if (mBuffer.length - mCount < 4) {
+				drain();
+			}
+		}
+		if (ch < 0x80) {
+			mBuffer[mCount++] = (byte) ch;
+		} else if (Character.isHighSurrogate(ch)) {
+			mHighSurrogate = ch;
+		} else if (!mUTF8 || Character.isLowSurrogate(ch)) {
+			mBuffer[mCount++] = REPLACEMENT;
+		} else if (ch < 0x800) {
+			mBuffer[mCount++] = (byte) (0xC0 | ch >> 6);
+			mBuffer[mCount++] = (byte) (0x80 | ch & 0x3F);
+		} else {
+			mBuffer[mCount++] = (byte) (0xE0 | ch >> 12);
+			mBuffer[mCount++] = (byte) (0x80 | ch >> 6 & 0x3F);
+			mBuffer[mCount++] = (byte) (0x80 | ch & 0x3F);
+		}
+	}
+
+	private void flushSurrogate() throws IOException {
+		if (mHighSurrogate != 0) {
+			mHighSurrogate = 0;
+			if (mCount == mBuffer.length) {
+				drain();
+			}
+			mBuffer[mCount++] = REPLACEMENT;
+		}
+	}
+
+	private void drain() throws IOException {
+		if (mCount > 0) {
+			mStream.write(mBuffer, 0, mCount);
+			mCount = 0;
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (mStream == null) {
+			throw new IOException("Stream closed"); //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		drain();
+		mStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mStream != null) {
+			try {
+				flushSurrogate();
+				drain();
+				mStream.flush();
+			} finally {
+				try {
+					mStream.close();
+				} finally {
+					mStream = null;
+				}
+			}
+		}
+	}
+}
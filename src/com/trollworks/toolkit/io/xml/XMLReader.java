@@ -21,6 +21,7 @@ import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 
@@ -30,8 +31,16 @@ public class XMLReader implements AutoCloseable {
 	public static boolean			SHOW_SKIPPED_TAGS	= Numbers.extractBoolean(System.getProperty("SHOW_SKIPPED_TAGS", "false"));	//$NON-NLS-1$ //$NON-NLS-2$
 	private static final String		UNEXPECTED_EOF		= "Unexpected EOF";															//$NON-NLS-1$
 	private static final String		COLON				= ":";																		//$NON-NLS-1$
+	private static final double[]	POWERS_OF_TEN		= { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
 	private HashMap<String, String>	mEntityMap			= new HashMap<>();
-	private HashMap<String, String>	mAttributeMap		= new HashMap<>();
+	private XMLSymbolTable			mSymbols			= new XMLSymbolTable();
+	private String[]				mAttributeNames		= new String[8];
+	private String[]				mAttributeValues	= new String[8];
+	private int[]					mAttributeBounds	= new int[16];
+	private char[]					mAttributeText		= new char[256];
+	private int						mAttributeCount;
+	private int						mAttributeTextPos;
+	private HashMap<String, String>	mAttributeMap;
 	private ArrayList<String>		mStack				= new ArrayList<>();
 	private char[]					mBuffer				= new char[32768];
 	private char[]					mTextBuffer			= new char[128];
@@ -113,16 +122,12 @@ public class XMLReader implements AutoCloseable {
 		mReader.close();
 	}
 
-	/** @return A marker for determining if you've come to the end of a specific tag. */
-	public String getMarker() {
-		switch (mType) {
-			case START_TAG:
-				return getDepth() - 1 + COLON + getName();
-			case END_TAG:
-				return getDepth() + COLON + getName();
-			default:
-				return getDepth() + COLON + mStack.get(mStack.size() - 1);
-		}
+	/**
+	 * @return A marker for determining if you've come to the end of a specific tag. Markers are the
+	 *         depth of the tag they were obtained from.
+	 */
+	public int getMarker() {
+		return mType == XMLNodeType.START_TAG ? getDepth() - 1 : getDepth();
 	}
 
 	/**
@@ -130,7 +135,7 @@ public class XMLReader implements AutoCloseable {
 	 * example of use:
 	 *
 	 * <pre>
-	 *    String marker = reader.getMarker();
+	 *    int marker = reader.getMarker();
 	 * 
 	 *    do {
 	 *        XMLNodeType type = reader.next();
@@ -143,14 +148,14 @@ public class XMLReader implements AutoCloseable {
 	 * @return Whether the current position is still within the marked range. If it is not, then
 	 *         {@link #next()} will be called.
 	 */
-	public boolean withinMarker(String marker) throws IOException {
+	public boolean withinMarker(int marker) throws IOException {
 		if (mType == XMLNodeType.END_TAG) {
-			if (marker.equals(getMarker())) {
+			if (marker == getDepth()) {
 				next();
 				return false;
 			}
 		} else if (mType == XMLNodeType.END_DOCUMENT) {
-			fail("expected: " + XMLNodeType.END_TAG.name() + "/" + marker.substring(marker.indexOf(':') + 1)); //$NON-NLS-1$ //$NON-NLS-2$
+			fail("expected: " + XMLNodeType.END_TAG.name() + " at depth " + marker); //$NON-NLS-1$
 		}
 		return true;
 	}
@@ -174,20 +179,108 @@ public class XMLReader implements AutoCloseable {
 	}
 
 	/**
-	 * Skips over the specified tag, which must be the current tag.
+	 * Skips over the specified tag, which must be the current tag. The content of the tag is
+	 * scanned only for the start and end of nested tags, comments and character data sections, so
+	 * the names, attributes and text within it are neither checked nor retained. The current
+	 * position will be moved to right after the closing tag.
 	 *
 	 * @param name The name of the tag to skip.
 	 */
 	public void skipTag(String name) throws IOException {
-		String marker;
 		if (SHOW_SKIPPED_TAGS) {
 			Log.warn("Skipping tag: " + name); //$NON-NLS-1$
 		}
 		require(XMLNodeType.START_TAG, name);
-		marker = getMarker();
-		do {
-			next();
-		} while (withinMarker(marker));
+		if (mIsEmptyElementTag) {
+			mIsEmptyElementTag = false;
+			mStack.remove(mStack.size() - 1);
+		} else {
+			int depth = 1;
+
+			while (true) {
+				if (mEOF) {
+					fail(UNEXPECTED_EOF);
+				}
+				if (mPeek0 != '<') {
+					read();
+				} else if (mPeek1 == '/') {
+					if (--depth == 0) {
+						parseEndTag();
+						break;
+					}
+					skipPast('>', 0, 0);
+				} else if (mPeek1 == '!' || mPeek1 == '?') {
+					skipMarkup();
+				} else {
+					if (skipStartTag()) {
+						depth++;
+					}
+				}
+			}
+		}
+		mType = XMLNodeType.END_TAG;
+		next();
+	}
+
+	/**
+	 * Skips a start tag without retaining its name or attributes.
+	 *
+	 * @return Whether the tag has content, i.e. is not an empty element tag.
+	 */
+	private final boolean skipStartTag() throws IOException {
+		int last = 0;
+		int ch;
+
+		read(); // <
+		while ((ch = read()) != '>') {
+			if (ch == -1) {
+				fail(UNEXPECTED_EOF);
+			}
+			if (ch == '"' || ch == '\'') {
+				skipPast(ch, 0, 0);
+			}
+			if (ch > ' ') {
+				last = ch;
+			}
+		}
+		return last != '/';
+	}
+
+	/** Skips a comment, character data section, processing instruction or declaration. */
+	private final void skipMarkup() throws IOException {
+		int ch;
+
+		read(); // <
+		ch = read();
+		if (ch == '?') {
+			skipPast('>', 0, '?');
+		} else if (mPeek0 == '-' && mPeek1 == '-') {
+			read();
+			read();
+			skipPast('>', '-', '-');
+		} else if (mPeek0 == '[') {
+			skipPast('>', ']', ']');
+		} else {
+			parseDoctype();
+		}
+	}
+
+	/**
+	 * Reads up to and including the terminator, which must be preceded by the specified characters
+	 * to count. Pass 0 for either of these to not require it.
+	 */
+	private final void skipPast(int terminator, int before2, int before1) throws IOException {
+		int prev2 = -1;
+		int prev1 = -1;
+		int ch;
+
+		while ((ch = read()) != terminator || before2 != 0 && prev2 != before2 || before1 != 0 && prev1 != before1) {
+			if (ch == -1) {
+				fail(UNEXPECTED_EOF);
+			}
+			prev2 = prev1;
+			prev1 = ch;
+		}
 	}
 
 	/**
@@ -198,7 +291,7 @@ public class XMLReader implements AutoCloseable {
 	 */
 	public String readText() throws IOException {
 		StringBuilder builder = new StringBuilder();
-		String marker = getMarker();
+		int marker = getMarker();
 
 		if (mType == XMLNodeType.START_TAG) {
 			next();
@@ -320,6 +413,7 @@ public class XMLReader implements AutoCloseable {
 
 	private final String readName() throws IOException {
 		int pos = mTextPos;
+		String name;
 		int ch = mPeek0;
 
 		if ((ch < 'a' || ch > 'z') && (ch < 'A' || ch > 'Z') && ch != '_' && ch != ':') {
@@ -331,7 +425,9 @@ public class XMLReader implements AutoCloseable {
 			ch = mPeek0;
 		} while (ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '_' || ch == '-' || ch == ':' || ch == '.');
 
-		return pop(pos);
+		name = mSymbols.intern(mTextBuffer, pos, mTextPos - pos);
+		mTextPos = pos;
+		return name;
 	}
 
 	private final void parseLegacy(boolean push) throws IOException {
@@ -495,13 +591,126 @@ public class XMLReader implements AutoCloseable {
 
 			pos = mTextPos;
 			pushText(ch);
-			mAttributeMap.put(attrName, pop(pos));
+			addAttribute(attrName, pos);
 			if (ch != ' ') {
 				read(); // skip end quote
 			}
 		}
 	}
 
+	private final void addAttribute(String name, int pos) {
+		int length = mTextPos - pos;
+		int index = mAttributeCount++;
+
+		if (index == mAttributeNames.length) {
+			mAttributeNames = Arrays.copyOf(mAttributeNames, index * 2);
+			mAttributeValues = Arrays.copyOf(mAttributeValues, index * 2);
+			mAttributeBounds = Arrays.copyOf(mAttributeBounds, index * 4);
+		}
+		if (mAttributeTextPos + length > mAttributeText.length) {
+			mAttributeText = Arrays.copyOf(mAttributeText, Math.max(mAttributeText.length * 2, mAttributeTextPos + length));
+		}
+		System.arraycopy(mTextBuffer, pos, mAttributeText, mAttributeTextPos, length);
+		mAttributeNames[index] = name;
+		mAttributeValues[index] = null;
+		mAttributeBounds[index * 2] = mAttributeTextPos;
+		mAttributeTextPos += length;
+		mAttributeBounds[index * 2 + 1] = mAttributeTextPos;
+		mTextPos = pos;
+	}
+
+	private final int indexOfAttribute(String name) {
+		// Search backwards, so that the last of any duplicated attributes wins.
+		for (int i = mAttributeCount; --i >= 0;) {
+			if (mAttributeNames[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private final String getAttribute(int index) {
+		String value = mAttributeValues[index];
+
+		if (value == null) {
+			int start = mAttributeBounds[index * 2];
+
+			value = new String(mAttributeText, start, mAttributeBounds[index * 2 + 1] - start);
+			mAttributeValues[index] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return The value of the attribute if it consists solely of an optional sign and up to the
+	 *         specified number of digits, or {@link Long#MIN_VALUE} if it doesn't.
+	 */
+	private final long parsePlainInteger(int index, int maxDigits) {
+		int pos = mAttributeBounds[index * 2];
+		int end = mAttributeBounds[index * 2 + 1];
+		boolean negative = false;
+		long value = 0;
+
+		if (pos < end && (mAttributeText[pos] == '-' || mAttributeText[pos] == '+')) {
+			negative = mAttributeText[pos++] == '-';
+		}
+		if (pos == end || end - pos > maxDigits) {
+			return Long.MIN_VALUE;
+		}
+		while (pos < end) {
+			char ch = mAttributeText[pos++];
+
+			if (ch < '0' || ch > '9') {
+				return Long.MIN_VALUE;
+			}
+			value = value * 10 + ch - '0';
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return The value of the attribute if it is a simple decimal number that can be converted
+	 *         exactly without going through {@link Double#parseDouble(String)}, or
+	 *         {@link Double#NaN} if it isn't.
+	 */
+	private final double parsePlainDouble(int index) {
+		int pos = mAttributeBounds[index * 2];
+		int end = mAttributeBounds[index * 2 + 1];
+		boolean negative = false;
+		int digits = 0;
+		int fraction = -1;
+		long mantissa = 0;
+		double value;
+
+		if (pos < end && (mAttributeText[pos] == '-' || mAttributeText[pos] == '+')) {
+			negative = mAttributeText[pos++] == '-';
+		}
+		while (pos < end) {
+			char ch = mAttributeText[pos++];
+
+			if (ch >= '0' && ch <= '9') {
+				mantissa = mantissa * 10 + ch - '0';
+				if (++digits > 15) {
+					return Double.NaN;
+				}
+				if (fraction != -1) {
+					fraction++;
+				}
+			} else if (ch == '.' && fraction == -1) {
+				fraction = 0;
+			} else {
+				return Double.NaN;
+			}
+		}
+		if (digits == 0) {
+			return Double.NaN;
+		}
+		// Both the mantissa and the power of ten are exactly representable, so a single division
+		// yields the correctly rounded result.
+		value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+		return negative ? -value : value;
+	}
+
 	private final boolean pushEntity() throws IOException {
 		boolean whitespace = true;
 		int pos;
@@ -638,7 +847,9 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the attribute.
 	 */
 	public String getAttribute(String name) {
-		return mAttributeMap.get(name);
+		int index = indexOfAttribute(name);
+
+		return index != -1 ? getAttribute(index) : null;
 	}
 
 	/**
@@ -647,8 +858,9 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the attribute.
 	 */
 	public String getAttribute(String name, String defValue) {
-		String value = mAttributeMap.get(name);
-		return value != null ? value : defValue;
+		int index = indexOfAttribute(name);
+
+		return index != -1 ? getAttribute(index) : defValue;
 	}
 
 	/**
@@ -656,7 +868,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return Whether the attribute is present.
 	 */
 	public boolean hasAttribute(String name) {
-		return mAttributeMap.get(name) != null;
+		return indexOfAttribute(name) != -1;
 	}
 
 	/**
@@ -664,7 +876,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return Whether the attribute is present and set to a 'true' value.
 	 */
 	public boolean isAttributeSet(String name) {
-		return Numbers.extractBoolean(mAttributeMap.get(name));
+		return Numbers.extractBoolean(getAttribute(name));
 	}
 
 	/**
@@ -674,7 +886,13 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public int getAttributeAsInteger(String name, int defValue) {
-		return Numbers.extractInteger(mAttributeMap.get(name), defValue, false);
+		int index = indexOfAttribute(name);
+
+		if (index == -1) {
+			return defValue;
+		}
+		long value = parsePlainInteger(index, 9);
+		return value != Long.MIN_VALUE ? (int) value : Numbers.extractInteger(getAttribute(index), defValue, false);
 	}
 
 	/**
@@ -683,7 +901,13 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public long getAttributeAsLong(String name, long defValue) {
-		return Numbers.extractLong(mAttributeMap.get(name), defValue, false);
+		int index = indexOfAttribute(name);
+
+		if (index == -1) {
+			return defValue;
+		}
+		long value = parsePlainInteger(index, 18);
+		return value != Long.MIN_VALUE ? value : Numbers.extractLong(getAttribute(index), defValue, false);
 	}
 
 	/**
@@ -693,11 +917,23 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public double getAttributeAsDouble(String name, double defValue) {
-		return Numbers.extractDouble(mAttributeMap.get(name), defValue, false);
+		int index = indexOfAttribute(name);
+
+		if (index == -1) {
+			return defValue;
+		}
+		double value = parsePlainDouble(index);
+		return !Double.isNaN(value) ? value : Numbers.extractDouble(getAttribute(index), defValue, false);
 	}
 
 	/** @return The map of attributes. */
 	public HashMap<String, String> getAttributes() {
+		if (mAttributeMap == null) {
+			mAttributeMap = new HashMap<>();
+			for (int i = 0; i < mAttributeCount; i++) {
+				mAttributeMap.put(mAttributeNames[i], getAttribute(i));
+			}
+		}
 		return mAttributeMap;
 	}
 
@@ -722,7 +958,9 @@ public class XMLReader implements AutoCloseable {
 			mTextPos = 0;
 			mIsWhitespace = true;
 			do {
-				mAttributeMap.clear();
+				mAttributeCount = 0;
+				mAttributeTextPos = 0;
+				mAttributeMap = null;
 				mName = null;
 				mText = null;
 				mType = peekType();
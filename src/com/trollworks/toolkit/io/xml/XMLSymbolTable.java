@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+/**
+ * Interns the tag and attribute names seen by an {@link XMLReader}, so that each distinct name is
+ * turned into a {@link String} only once, no matter how many times it appears in a document.
+ * Lookups hash and compare the characters in place, without first creating a {@link String}.
+ */
+final class XMLSymbolTable {
+	private String[]	mSymbols	= new String[64];
+	private int[]		mHashes		= new int[64];
+	private int			mCount;
+
+	/**
+	 * @param buffer The buffer holding the name.
+	 * @param start The starting index of the name within the buffer.
+	 * @param length The number of characters in the name.
+	 * @return The interned name.
+	 */
+	String intern(char[] buffer, int start, int length) {
+		int hash = 0;
+		int end = start + length;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		int mask = mSymbols.length - 1;
+		int slot = hash & mask;
+		String symbol;
+		while ((symbol = mSymbols[slot]) != null) {
+			if (mHashes[slot] == hash && matches(symbol, buffer, start, length)) {
+				return symbol;
+			}
+			slot = slot + 1 & mask;
+		}
+		symbol = new String(buffer, start, length);
+		mSymbols[slot] = symbol;
+		mHashes[slot] = hash;
+		if (++mCount * 2 > mSymbols.length) {
+			grow();
+		}
+		return symbol;
+	}
+
+	private static boolean matches(String symbol, char[] buffer, int start, int length) {
+		if (symbol.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (symbol.charAt(i) != buffer[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		String[] symbols = new String[mSymbols.length * 2];
+		int[] hashes = new int[symbols.length];
+		int mask = symbols.length - 1;
+		for (int i = 0; i < mSymbols.length; i++) {
+			String symbol = mSymbols[i];
+			if (symbol != null) {
+				int slot = mHashes[i] & mask;
+				while (symbols[slot] != null) {
+					slot = slot + 1 & mask;
+				}
+				symbols[slot] = symbol;
+				hashes[slot] = mHashes[i];
+			}
+		}
+		mSymbols = symbols;
+		mHashes = hashes;
+	}
+}
@@ -15,48 +15,97 @@ import com.trollworks.toolkit.utility.text.Numbers;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 
 /** A {@link PrintWriter} that has been extended to provide common XML writing helper methods. */
 public class XMLWriter extends PrintWriter {
-	private static final String	END_TAG				= "/>";			//$NON-NLS-1$
-	private static final String	ENTITY_CODE_PREFIX	= "&#";			//$NON-NLS-1$
-	private static final String	AMPERSAND_ENTITY	= "&amp;";		//$NON-NLS-1$
-	private static final String	LESS_THAN_ENTITY	= "&lt;";		//$NON-NLS-1$
-	private static final String	GREATER_THAN_ENTITY	= "&gt;";		//$NON-NLS-1$
-	private static final String	END_COMMENT			= " -->";		//$NON-NLS-1$
+	private static final String		END_TAG				= "/>";			//$NON-NLS-1$
+	private static final String		ENTITY_CODE_PREFIX	= "&#";			//$NON-NLS-1$
+	private static final String		AMPERSAND_ENTITY	= "&amp;";		//$NON-NLS-1$
+	private static final String		LESS_THAN_ENTITY	= "&lt;";		//$NON-NLS-1$
+	private static final String		GREATER_THAN_ENTITY	= "&gt;";		//$NON-NLS-1$
+	private static final String		END_COMMENT			= " -->";		//$NON-NLS-1$
 	/** The encoding used. */
-	public static final String	ENCODING			= "US-ASCII";	//$NON-NLS-1$
+	public static final String		ENCODING			= "US-ASCII";	//$NON-NLS-1$
+	/** The encoding used when writing UTF-8. */
+	public static final String		UTF8_ENCODING		= "UTF-8";		//$NON-NLS-1$
 	/** The 'year' attribute. */
-	public static final String	YEAR				= "year";		//$NON-NLS-1$
+	public static final String		YEAR				= "year";		//$NON-NLS-1$
 	/** The 'month' attribute. */
-	public static final String	MONTH				= "month";		//$NON-NLS-1$
+	public static final String		MONTH				= "month";		//$NON-NLS-1$
 	/** The 'day' attribute. */
-	public static final String	DAY					= "day";		//$NON-NLS-1$
+	public static final String		DAY					= "day";		//$NON-NLS-1$
 	/** The 'hour' attribute. */
-	public static final String	HOUR				= "hour";		//$NON-NLS-1$
+	public static final String		HOUR				= "hour";		//$NON-NLS-1$
 	/** The 'minute' attribute. */
-	public static final String	MINUTE				= "minute";		//$NON-NLS-1$
+	public static final String		MINUTE				= "minute";		//$NON-NLS-1$
 	/** The 'second' attribute. */
-	public static final String	SECOND				= "second";		//$NON-NLS-1$
-	private int					mIndent;
+	public static final String		SECOND				= "second";		//$NON-NLS-1$
+	private static final char[]		TABS				= new char[16];
+	private static final String[]	DATA_ESCAPES		= new String[128];
+	private static final String[]	ATTRIBUTE_ESCAPES	= new String[128];
+	private XMLByteSink				mSink;
+	private boolean					mUTF8;
+	private int						mIndent;
+
+	static {
+		Arrays.fill(TABS, '\t');
+		for (int i = 0; i < 128; i++) {
+			if (i < ' ' || i > '~') {
+				String entity = ENTITY_CODE_PREFIX + i + ';';
+				DATA_ESCAPES[i] = entity;
+				ATTRIBUTE_ESCAPES[i] = entity;
+			}
+		}
+		// Tabs are written as-is and line endings are replaced with the platform line separator.
+		DATA_ESCAPES['\t'] = null;
+		DATA_ESCAPES['\r'] = ""; //$NON-NLS-1$
+		DATA_ESCAPES['\n'] = ""; //$NON-NLS-1$
+		DATA_ESCAPES['<'] = LESS_THAN_ENTITY;
+		DATA_ESCAPES['>'] = GREATER_THAN_ENTITY;
+		DATA_ESCAPES['&'] = AMPERSAND_ENTITY;
+		ATTRIBUTE_ESCAPES['<'] = LESS_THAN_ENTITY;
+		ATTRIBUTE_ESCAPES['>'] = GREATER_THAN_ENTITY;
+		ATTRIBUTE_ESCAPES['&'] = AMPERSAND_ENTITY;
+		ATTRIBUTE_ESCAPES['"'] = "&quot;"; //$NON-NLS-1$
+		ATTRIBUTE_ESCAPES['\''] = "&apos;"; //$NON-NLS-1$
+	}
 
 	/**
-	 * Creates a new XML writer.
+	 * Creates a new XML writer that writes US-ASCII, encoding all other characters within data and
+	 * attribute values as numeric character references.
 	 *
 	 * @param stream The stream to write to.
 	 */
 	public XMLWriter(OutputStream stream) throws IOException {
-		super(new OutputStreamWriter(stream, ENCODING));
+		this(stream, false);
+	}
+
+	/**
+	 * Creates a new XML writer.
+	 *
+	 * @param stream The stream to write to.
+	 * @param utf8 Whether to write UTF-8, rather than US-ASCII. When writing UTF-8, characters
+	 *            outside of the ASCII range are written as-is rather than as numeric character
+	 *            references. Output containing only ASCII characters is identical in either case.
+	 */
+	public XMLWriter(OutputStream stream, boolean utf8) throws IOException {
+		this(new XMLByteSink(stream, utf8), utf8);
+	}
+
+	private XMLWriter(XMLByteSink sink, boolean utf8) {
+		super(sink);
+		mSink = sink;
+		mUTF8 = utf8;
 	}
 
 	/** Writes a standard XML header. */
 	public void writeHeader() {
 		print("<?xml version=\"1.0\" encoding=\""); //$NON-NLS-1$
-		print(ENCODING);
+		print(mUTF8 ? UTF8_ENCODING : ENCODING);
 		println("\" ?>"); //$NON-NLS-1$
 	}
 
@@ -95,29 +144,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeEncodedData(String data) {
 		if (data != null) {
-			int length = data.length();
-
-			for (int i = 0; i < length; i++) {
-				char ch = data.charAt(i);
-
-				if (ch == '<') {
-					print(LESS_THAN_ENTITY);
-				} else if (ch == '>') {
-					print(GREATER_THAN_ENTITY);
-				} else if (ch == '&') {
-					print(AMPERSAND_ENTITY);
-				} else if (ch == '\r' || ch == '\n') {
-					println();
-				} else if (ch == '\t') {
-					print('\t');
-				} else if (ch >= ' ' && ch <= '~') {
-					print(ch);
-				} else {
-					print(ENTITY_CODE_PREFIX);
-					print((int) ch);
-					print(';');
-				}
-			}
+			writeEncoded(data, DATA_ESCAPES);
 		}
 	}
 
@@ -128,27 +155,67 @@ public class XMLWriter extends PrintWriter {
 	 * @param attribute The attribute value to transform.
 	 */
 	public void writeEncodedAttribute(String attribute) {
-		int length = attribute.length();
-
-		for (int i = 0; i < length; i++) {
-			char ch = attribute.charAt(i);
+		writeEncoded(attribute, ATTRIBUTE_ESCAPES);
+	}
+
+	/**
+	 * Writes out text, replacing characters using the specified escape table. Runs of characters
+	 * that need no replacement are handed to the underlying buffer in a single call.
+	 */
+	private void writeEncoded(String text, String[] escapes) {
+		synchronized (lock) {
+			try {
+				int length = text.length();
+				int start = 0;
+
+				for (int i = 0; i < length; i++) {
+					char ch = text.charAt(i);
+					String escape;
+
+					if (ch < 128) {
+						escape = escapes[ch];
+						if (escape == null) {
+							continue;
+						}
+					} else if (mUTF8) {
+						continue;
+					} else {
+						escape = null;
+					}
+					if (i > start) {
+						mSink.write(text, start, i - start);
+					}
+					start = i + 1;
+					if (escape == null) {
+						mSink.write(ENTITY_CODE_PREFIX);
+						mSink.writeNumber(ch);
+						mSink.write(';');
+					} else if (escape.isEmpty()) {
+						println();
+					} else {
+						mSink.write(escape);
+					}
+				}
+				if (start < length) {
+					mSink.write(text, start, length - start);
+				}
+			} catch (IOException exception) {
+				setError();
+			}
+		}
+	}
 
-			if (ch == '<') {
-				print(LESS_THAN_ENTITY);
-			} else if (ch == '>') {
-				print(GREATER_THAN_ENTITY);
-			} else if (ch == '&') {
-				print(AMPERSAND_ENTITY);
-			} else if (ch == '"') {
-				print("&quot;"); //$NON-NLS-1$
-			} else if (ch == '\'') {
-				print("&apos;"); //$NON-NLS-1$
-			} else if (ch >= ' ' && ch <= '~') {
-				print(ch);
-			} else {
-				print(ENTITY_CODE_PREFIX);
-				print((int) ch);
-				print(';');
+	/**
+	 * Writes out the decimal digits of a value, without first converting it to a {@link String}.
+	 *
+	 * @param value The value to write.
+	 */
+	private void writeNumber(long value) {
+		synchronized (lock) {
+			try {
+				mSink.writeNumber(value);
+			} catch (IOException exception) {
+				setError();
 			}
 		}
 	}
@@ -170,7 +237,7 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The value of the attribute.
 	 */
 	public void writeAttribute(String name, int value) {
-		writeAttribute(name, Integer.toString(value));
+		writeAttribute(name, (long) value);
 	}
 
 	/**
@@ -180,7 +247,11 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The value of the attribute.
 	 */
 	public void writeAttribute(String name, long value) {
-		writeAttribute(name, Long.toString(value));
+		print(' ');
+		print(name);
+		print("=\""); //$NON-NLS-1$
+		writeNumber(value);
+		print('"');
 	}
 
 	/**
@@ -225,7 +296,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotZero(String name, int value) {
 		if (value != 0) {
-			writeAttribute(name, Integer.toString(value));
+			writeAttribute(name, (long) value);
 		}
 	}
 
@@ -237,7 +308,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotZero(String name, long value) {
 		if (value != 0) {
-			writeAttribute(name, Long.toString(value));
+			writeAttribute(name, value);
 		}
 	}
 
@@ -333,7 +404,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Integer.toString(value));
+		writeNumber(value);
 		endTagEOL(name, false);
 	}
 
@@ -349,7 +420,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Long.toString(value));
+		writeNumber(value);
 		endTagEOL(name, false);
 	}
 
@@ -437,7 +508,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Integer.toString(value));
+		writeNumber(value);
 		endTagEOL(name, false);
 	}
 
@@ -453,7 +524,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Long.toString(value));
+		writeNumber(value);
 		endTagEOL(name, false);
 	}
 
@@ -474,7 +545,7 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The data to place between the tags.
 	 */
 	public void simpleTag(String name, int value) {
-		simpleTag(name, Integer.toString(value));
+		simpleTag(name, (long) value);
 	}
 
 	/**
@@ -485,7 +556,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void simpleTagNotZero(String name, int value) {
 		if (value != 0) {
-			simpleTag(name, Integer.toString(value));
+			simpleTag(name, (long) value);
 		}
 	}
 
@@ -496,7 +567,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The data to place between the tags.
 	 */
 	public void simpleTag(String name, long value) {
-		simpleTag(name, Long.toString(value));
+		startSimpleTag(name);
+		writeNumber(value);
+		endTagEOL(name, false);
 	}
 
 	/**
@@ -507,7 +580,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void simpleTagNotZero(String name, long value) {
 		if (value != 0) {
-			simpleTag(name, Long.toString(value));
+			simpleTag(name, value);
 		}
 	}
 
@@ -641,8 +714,8 @@ public class XMLWriter extends PrintWriter {
 
 	/** Writes the current indentation. */
 	public void writeIndentation() {
-		for (int i = 0; i < mIndent; i++) {
-			print('\t');
+		for (int remaining = mIndent; remaining > 0; remaining -= TABS.length) {
+			write(TABS, 0, Math.min(remaining, TABS.length));
 		}
 	}
 
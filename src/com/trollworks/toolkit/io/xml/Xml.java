@@ -12,11 +12,8 @@
 package com.trollworks.toolkit.io.xml;
 
 import com.trollworks.toolkit.annotation.Localize;
-import com.trollworks.toolkit.annotation.XmlAttr;
-import com.trollworks.toolkit.annotation.XmlNoSort;
 import com.trollworks.toolkit.annotation.XmlTag;
-import com.trollworks.toolkit.annotation.XmlTagMinimumVersion;
-import com.trollworks.toolkit.annotation.XmlTagVersion;
+import com.trollworks.toolkit.io.SafeFileUpdater;
 import com.trollworks.toolkit.io.xml.helper.XmlBooleanHelper;
 import com.trollworks.toolkit.io.xml.helper.XmlByteHelper;
 import com.trollworks.toolkit.io.xml.helper.XmlCharacterHelper;
@@ -39,27 +36,31 @@ import com.trollworks.toolkit.io.xml.helper.XmlShortHelper;
 import com.trollworks.toolkit.io.xml.helper.XmlStringHelper;
 import com.trollworks.toolkit.io.xml.helper.XmlUUIDHelper;
 import com.trollworks.toolkit.utility.Localization;
-import com.trollworks.toolkit.utility.introspection.FieldAnnotation;
-import com.trollworks.toolkit.utility.introspection.Introspection;
 import com.trollworks.toolkit.workarounds.PathToUri;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URLConnection;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -95,8 +96,9 @@ public class Xml {
 		Localization.initialize();
 	}
 
-	private static final List<XmlObjectHelper>			HELPERS		= new ArrayList<>();
-	private static final Map<Class<?>, XmlObjectHelper>	HELPER_MAP	= new HashMap<>();
+	private static final Object								HELPER_LOCK	= new Object();
+	private static volatile XmlObjectHelper[]				HELPERS		= new XmlObjectHelper[0];
+	private static volatile Map<Class<?>, XmlObjectHelper>	HELPER_MAP	= new ConcurrentHashMap<>();
 
 	static {
 		registerHelper(XmlPrimitiveBooleanHelper.SINGLETON);
@@ -126,34 +128,43 @@ public class Xml {
 	public static final String ATTR_VERSION = "version"; //$NON-NLS-1$
 
 	public static final void registerHelper(XmlObjectHelper helper) {
-		synchronized (HELPERS) {
-			HELPERS.add(helper);
-			HELPER_MAP.clear();
+		synchronized (HELPER_LOCK) {
+			List<XmlObjectHelper> helpers = new ArrayList<>(Arrays.asList(HELPERS));
+			helpers.add(helper);
+			setHelpers(helpers);
 		}
 	}
 
 	public static final void unregisterHelper(XmlObjectHelper helper) {
-		synchronized (HELPERS) {
-			HELPERS.remove(helper);
-			HELPER_MAP.clear();
+		synchronized (HELPER_LOCK) {
+			List<XmlObjectHelper> helpers = new ArrayList<>(Arrays.asList(HELPERS));
+			helpers.remove(helper);
+			setHelpers(helpers);
 		}
 	}
 
-	private static final XmlObjectHelper getHelper(Class<?> clazz) {
-		synchronized (HELPERS) {
-			XmlObjectHelper helper = HELPER_MAP.get(clazz);
-			if (helper == null) {
-				helper = XmlGenericHelper.SINGLETON;
-				for (XmlObjectHelper one : HELPERS) {
-					if (one.canHandleClass(clazz)) {
-						helper = one;
-						break;
-					}
+	private static void setHelpers(List<XmlObjectHelper> helpers) {
+		HELPERS = helpers.toArray(new XmlObjectHelper[helpers.size()]);
+		HELPER_MAP = new ConcurrentHashMap<>();
+		XmlBinding.reset();
+	}
+
+	static final XmlObjectHelper getHelper(Class<?> clazz) {
+		// Readers never lock; the registration methods replace the helper list and its lookup
+		// cache together, so a lookup in progress can only ever populate a stale cache.
+		Map<Class<?>, XmlObjectHelper> map = HELPER_MAP;
+		XmlObjectHelper helper = map.get(clazz);
+		if (helper == null) {
+			helper = XmlGenericHelper.SINGLETON;
+			for (XmlObjectHelper one : HELPERS) {
+				if (one.canHandleClass(clazz)) {
+					helper = one;
+					break;
 				}
-				HELPER_MAP.put(clazz, helper);
 			}
-			return helper;
+			map.put(clazz, helper);
 		}
+		return helper;
 	}
 
 	/**
@@ -222,7 +233,7 @@ public class Xml {
 	 * @return The object that was passed in.
 	 */
 	public static final <T> T load(URI uri, T obj, XmlParserContext context) throws XMLStreamException {
-		XmlTag xmlTag = obj.getClass().getAnnotation(XmlTag.class);
+		XmlTag xmlTag = XmlBinding.get(obj.getClass()).mTag;
 		if (xmlTag == null) {
 			throw new XMLStreamException(ROOT_NOT_TAGGED);
 		}
@@ -240,80 +251,166 @@ public class Xml {
 		}
 	}
 
+	/**
+	 * Loads the contents of several xml files, each into a new object, concurrently on a thread
+	 * pool sized to the number of available processors. Each file is loaded with its own
+	 * {@link XmlParserContext}.
+	 *
+	 * @param paths The {@link Path}s to load from.
+	 * @param factory Creates the object to load each file into.
+	 * @return The results, in the same order as the paths. A failure to load one file does not
+	 *         prevent the others from loading.
+	 */
+	public static final <T> List<XmlLoadResult<T>> loadAll(List<Path> paths, Supplier<T> factory) {
+		return loadAll(paths, path -> load(path, factory.get()));
+	}
+
+	/**
+	 * Loads several xml files concurrently on a thread pool sized to the number of available
+	 * processors.
+	 *
+	 * @param paths The {@link Path}s to load from.
+	 * @param loader The {@link XmlLoader} to call for each path.
+	 * @return The results, in the same order as the paths. A failure to load one file does not
+	 *         prevent the others from loading.
+	 */
+	public static final <T> List<XmlLoadResult<T>> loadAll(List<Path> paths, XmlLoader<T> loader) {
+		int threads = Math.min(paths.size(), Runtime.getRuntime().availableProcessors());
+		if (threads < 2) {
+			return loadAll(paths, loader, Runnable::run);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			return loadAll(paths, loader, executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Loads several xml files concurrently.
+	 *
+	 * @param paths The {@link Path}s to load from.
+	 * @param loader The {@link XmlLoader} to call for each path.
+	 * @param executor The {@link Executor} to run the loads on. Its size bounds the number of
+	 *            files that will be loaded at once.
+	 * @return The results, in the same order as the paths. A failure to load one file does not
+	 *         prevent the others from loading. If the calling thread is interrupted while waiting,
+	 *         loads that have not yet finished are cancelled and reported as failures.
+	 */
+	public static final <T> List<XmlLoadResult<T>> loadAll(List<Path> paths, XmlLoader<T> loader, Executor executor) {
+		int count = paths.size();
+		List<FutureTask<T>> tasks = new ArrayList<>(count);
+		for (Path path : paths) {
+			FutureTask<T> task = new FutureTask<>(() -> loader.load(path));
+			tasks.add(task);
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException exception) {
+				task.cancel(false);
+			}
+		}
+		List<XmlLoadResult<T>> results = new ArrayList<>(count);
+		boolean interrupted = false;
+		int i = 0;
+		while (i < count) {
+			T result = null;
+			XMLStreamException failure = null;
+			try {
+				result = tasks.get(i).get();
+			} catch (InterruptedException exception) {
+				interrupted = true;
+				for (FutureTask<T> task : tasks) {
+					task.cancel(true);
+				}
+				continue;
+			} catch (ExecutionException exception) {
+				Throwable cause = exception.getCause();
+				failure = cause instanceof XMLStreamException ? (XMLStreamException) cause : new XMLStreamException(cause);
+			} catch (CancellationException exception) {
+				failure = new XMLStreamException(exception);
+			}
+			results.add(new XmlLoadResult<>(paths.get(i++), result, failure));
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return results;
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private static void load(XmlParser xml, Object obj, XmlParserContext context) throws XMLStreamException {
 		try {
 			if (context == null) {
 				context = new XmlParserContext(xml);
 			}
-			String marker = xml.getMarker();
+			int marker = xml.getMarker();
 			if (obj instanceof TagWillLoad) {
 				((TagWillLoad) obj).xmlWillLoad(context);
 			}
-			Class<?> tagClass = obj.getClass();
+			XmlBinding binding = XmlBinding.get(obj.getClass());
 			int version = xml.getIntegerAttribute(ATTR_VERSION, 0);
-			if (version > getVersionOfTag(tagClass)) {
+			if (version > binding.mVersion) {
 				throw new XMLStreamException(String.format(TOO_NEW, xml.getCurrentTag()), xml.getLocation());
 			}
-			if (version < getMinimumLoadableVersionOfTag(tagClass)) {
+			if (version < binding.mMinimumVersion) {
 				throw new XMLStreamException(String.format(TOO_OLD, xml.getCurrentTag()), xml.getLocation());
 			}
 			if (version != 0) {
 				context.pushVersion(version);
 			}
-			Set<String> unmatchedAttributes = new HashSet<>();
-			for (int i = xml.getAttributeCount(); --i > 0;) {
-				unmatchedAttributes.add(xml.getAttributeName(i));
-			}
-			unmatchedAttributes.remove(ATTR_VERSION);
-			for (FieldAnnotation<XmlAttr> fa : Introspection.getDeepFieldAnnotations(tagClass, XmlAttr.class)) {
-				Field field = fa.getField();
-				Introspection.makeFieldAccessible(field);
-				String name = fa.getAnnotation().value();
-				unmatchedAttributes.remove(name);
-				getHelper(field.getType()).loadAttributeValue(context, obj, field, name);
+			for (XmlBinding.Attribute attr : binding.mAttributes) {
+				attr.mHelper.loadAttributeValue(context, obj, attr.mField, attr.mName);
 			}
 			if (obj instanceof TagAttributesLoaded) {
+				Set<String> unmatchedAttributes = new HashSet<>();
+				for (int i = xml.getAttributeCount(); --i > 0;) {
+					unmatchedAttributes.add(xml.getAttributeName(i));
+				}
+				unmatchedAttributes.remove(ATTR_VERSION);
+				for (XmlBinding.Attribute attr : binding.mAttributes) {
+					unmatchedAttributes.remove(attr.mName);
+				}
 				((TagAttributesLoaded) obj).xmlAttributesLoaded(context, unmatchedAttributes);
 			}
-			Map<String, Field> subTags = new HashMap<>();
-			for (FieldAnnotation<XmlTag> fa : Introspection.getDeepFieldAnnotations(tagClass, XmlTag.class)) {
-				subTags.put(fa.getAnnotation().value(), fa.getField());
-			}
 			String tag;
 			while ((tag = xml.nextTag(marker)) != null) {
-				Field field = subTags.get(tag);
-				if (field != null) {
-					Introspection.makeFieldAccessible(field);
-					Class<?> type = field.getType();
-					if (String.class == type) {
-						field.set(obj, xml.getText());
-					} else if (Collection.class.isAssignableFrom(type)) {
-						Type genericType = field.getGenericType();
-						if (genericType instanceof ParameterizedType) {
-							genericType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
-						} else {
-							throw new XMLStreamException(String.format(UNABLE_TO_CREATE_OBJECT_FOR_COLLECTION, tag), xml.getLocation());
-						}
-						Object fieldObj = null;
-						Class<?> cls = Class.forName(genericType.getTypeName());
-						if (cls == String.class) {
-							fieldObj = xml.getText();
-						} else {
-							fieldObj = cls.newInstance();
+				XmlBinding.SubTag subTag = binding.getSubTag(tag);
+				if (subTag != null) {
+					Field field = subTag.mField;
+					switch (subTag.mKind) {
+						case XmlBinding.TEXT:
+							field.set(obj, xml.getText());
+							break;
+						case XmlBinding.COLLECTION:
+							Class<?> cls = subTag.mElementType;
+							if (cls == null) {
+								throw new XMLStreamException(String.format(UNABLE_TO_CREATE_OBJECT_FOR_COLLECTION, tag), xml.getLocation());
+							}
+							Object fieldObj;
+							if (cls == String.class) {
+								fieldObj = xml.getText();
+							} else {
+								fieldObj = cls.newInstance();
+								load(xml, fieldObj, context);
+							}
+							if (subTag.mStreamed && obj instanceof TagStreamedElement) {
+								((TagStreamedElement) obj).xmlElementLoaded(context, tag, fieldObj);
+							} else {
+								((Collection) field.get(obj)).add(fieldObj);
+							}
+							break;
+						default:
+							fieldObj = null;
+							if (obj instanceof TagObjectCreator) {
+								fieldObj = ((TagObjectCreator) obj).xmlCreateObject(context, tag);
+							}
+							if (fieldObj == null) {
+								fieldObj = field.getType().newInstance();
+							}
 							load(xml, fieldObj, context);
-						}
-						((Collection) field.get(obj)).add(fieldObj);
-					} else {
-						Object fieldObj = null;
-						if (obj instanceof TagObjectCreator) {
-							fieldObj = ((TagObjectCreator) obj).xmlCreateObject(context, tag);
-						}
-						if (fieldObj == null) {
-							fieldObj = type.newInstance();
-						}
-						load(xml, fieldObj, context);
-						field.set(obj, fieldObj);
+							field.set(obj, fieldObj);
+							break;
 					}
 				} else if (obj instanceof TagUnmatched) {
 					((TagUnmatched) obj).xmlUnmatchedTag(context, tag);
@@ -335,17 +432,25 @@ public class Xml {
 	}
 
 	/**
-	 * Saves the contents of an object into an xml file.
+	 * Saves the contents of an object into an xml file. The file is replaced only once the new
+	 * contents have been written in full.
 	 *
 	 * @param file The file to save to.
 	 * @param obj The object to save the xml data from.
 	 */
 	public static final void save(File file, Object obj) throws XMLStreamException {
-		try (FileOutputStream out = new FileOutputStream(file)) {
-			save(out, obj);
+		SafeFileUpdater transaction = new SafeFileUpdater();
+		transaction.begin();
+		try {
+			try (FileOutputStream out = new FileOutputStream(transaction.getTransactionFile(file.getAbsoluteFile()))) {
+				save(out, obj);
+			}
+			transaction.commit();
 		} catch (XMLStreamException exception) {
+			transaction.abort();
 			throw exception;
 		} catch (Exception exception) {
+			transaction.abort();
 			throw new XMLStreamException(exception);
 		}
 	}
@@ -398,7 +503,7 @@ public class Xml {
 	 */
 	public static final void add(XmlGenerator xml, Object obj) throws XMLStreamException {
 		Class<?> objClass = obj.getClass();
-		XmlTag tag = objClass.getAnnotation(XmlTag.class);
+		XmlTag tag = XmlBinding.get(objClass).mTag;
 		if (tag != null) {
 			add(xml, tag.value(), obj);
 		} else {
@@ -414,33 +519,42 @@ public class Xml {
 	 * @param obj The object to add.
 	 */
 	public static final void add(XmlGenerator xml, String tag, Object obj) throws XMLStreamException {
+		if (obj != null) {
+			if (tag == null || tag.isEmpty()) {
+				throw new XMLStreamException(String.format(NOT_TAGGED, obj.getClass().getName()));
+			}
+			if (obj instanceof TagCacheable) {
+				xml.emitCached(((TagCacheable) obj).xmlGetFragmentCache(), tag, () -> emit(xml, tag, obj));
+			} else {
+				emit(xml, tag, obj);
+			}
+		}
+	}
+
+	private static final void emit(XmlGenerator xml, String tag, Object obj) throws XMLStreamException {
 		try {
-			if (obj != null) {
-				Class<?> objClass = obj.getClass();
-				if (tag == null || tag.isEmpty()) {
-					throw new XMLStreamException(String.format(NOT_TAGGED, objClass.getName()));
-				}
-				if (obj instanceof TagWillSave) {
-					((TagWillSave) obj).xmlWillSave(xml);
-				}
-				XmlObjectHelper helper = getHelper(objClass);
-				if (helper != XmlGenericHelper.SINGLETON) {
-					helper.emitAsTag(xml, tag, obj);
-				} else if (obj instanceof TagExtraSubTags || hasSubTags(obj, objClass)) {
-					xml.startTag(tag);
-					emitAttributes(xml, obj, objClass);
-					emitSubTags(xml, obj, objClass);
-					if (obj instanceof TagExtraSubTags) {
-						((TagExtraSubTags) obj).xmlEmitExtraSubTags(xml);
-					}
-					xml.endTag();
-				} else {
-					xml.startEmptyTag(tag);
-					emitAttributes(xml, obj, objClass);
-				}
-				if (obj instanceof TagSaved) {
-					((TagSaved) obj).xmlSaved(xml);
+			Class<?> objClass = obj.getClass();
+			if (obj instanceof TagWillSave) {
+				((TagWillSave) obj).xmlWillSave(xml);
+			}
+			XmlBinding binding = XmlBinding.get(objClass);
+			XmlObjectHelper helper = binding.mHelper;
+			if (helper != XmlGenericHelper.SINGLETON) {
+				helper.emitAsTag(xml, tag, obj);
+			} else if (obj instanceof TagExtraSubTags || hasSubTags(obj, binding)) {
+				xml.startTag(tag);
+				emitAttributes(xml, obj, binding);
+				emitSubTags(xml, obj, binding);
+				if (obj instanceof TagExtraSubTags) {
+					((TagExtraSubTags) obj).xmlEmitExtraSubTags(xml);
 				}
+				xml.endTag();
+			} else {
+				xml.startEmptyTag(tag);
+				emitAttributes(xml, obj, binding);
+			}
+			if (obj instanceof TagSaved) {
+				((TagSaved) obj).xmlSaved(xml);
 			}
 		} catch (XMLStreamException exception) {
 			throw exception;
@@ -449,14 +563,12 @@ public class Xml {
 		}
 	}
 
-	private static boolean hasSubTags(Object obj, Class<?> objClass) throws XMLStreamException {
-		for (FieldAnnotation<XmlTag> fa : Introspection.getDeepFieldAnnotations(objClass, XmlTag.class)) {
+	private static boolean hasSubTags(Object obj, XmlBinding binding) throws XMLStreamException {
+		for (XmlBinding.SubTag subTag : binding.mSubTags) {
 			try {
-				Field field = fa.getField();
-				Introspection.makeFieldAccessible(field);
-				Object content = field.get(obj);
+				Object content = subTag.mField.get(obj);
 				if (content != null && (!(content instanceof String) || !((String) content).isEmpty())) {
-					if (Collection.class.isAssignableFrom(field.getType())) {
+					if (subTag.mKind == XmlBinding.COLLECTION) {
 						if (!((Collection<?>) content).isEmpty()) {
 							return true;
 						}
@@ -471,42 +583,35 @@ public class Xml {
 		return false;
 	}
 
-	private static void emitAttributes(XmlGenerator xml, Object obj, Class<?> objClass) throws XMLStreamException, ReflectiveOperationException {
-		xml.addAttributeNot(ATTR_VERSION, getVersionOfTag(objClass), 0);
-		for (FieldAnnotation<XmlAttr> fa : Introspection.getDeepFieldAnnotations(objClass, XmlAttr.class)) {
-			Field field = fa.getField();
-			Introspection.makeFieldAccessible(field);
-			getHelper(field.getType()).emitAsAttribute(xml, obj, field, fa.getAnnotation().value());
+	private static void emitAttributes(XmlGenerator xml, Object obj, XmlBinding binding) throws XMLStreamException, ReflectiveOperationException {
+		xml.addAttributeNot(ATTR_VERSION, binding.mVersion, 0);
+		for (XmlBinding.Attribute attr : binding.mAttributes) {
+			attr.mHelper.emitAsAttribute(xml, obj, attr.mField, attr.mName);
 		}
 		if (obj instanceof TagExtraAttributes) {
 			((TagExtraAttributes) obj).xmlEmitExtraAttributes(xml);
 		}
 	}
 
-	private static final void emitSubTags(XmlGenerator xml, Object obj, Class<?> objClass) throws XMLStreamException {
-		for (FieldAnnotation<XmlTag> fa : Introspection.getDeepFieldAnnotations(objClass, XmlTag.class)) {
+	private static final void emitSubTags(XmlGenerator xml, Object obj, XmlBinding binding) throws XMLStreamException {
+		for (XmlBinding.SubTag subTag : binding.mSubTags) {
 			try {
-				Field field = fa.getField();
-				Introspection.makeFieldAccessible(field);
-				Object content = field.get(obj);
+				Object content = subTag.mField.get(obj);
 				if (content != null && (!(content instanceof String) || !((String) content).isEmpty())) {
-					XmlTag subTag = fa.getAnnotation();
-					Class<?> type = field.getType();
-					if (Collection.class.isAssignableFrom(type)) {
+					if (subTag.mKind == XmlBinding.COLLECTION) {
 						Collection<?> collection = (Collection<?>) content;
 						if (!collection.isEmpty()) {
-							if (!field.isAnnotationPresent(XmlNoSort.class)) {
+							if (subTag.mSort) {
 								Object[] data = collection.toArray();
 								Arrays.sort(data);
 								collection = Arrays.asList(data);
 							}
-							String tag = subTag.value();
 							for (Object one : collection) {
-								add(xml, tag, one);
+								add(xml, subTag.mName, one);
 							}
 						}
 					} else {
-						add(xml, subTag.value(), content);
+						add(xml, subTag.mName, content);
 					}
 				}
 			} catch (XMLStreamException exception) {
@@ -516,14 +621,4 @@ public class Xml {
 			}
 		}
 	}
-
-	private static int getVersionOfTag(Class<?> objClass) {
-		XmlTagVersion tagVersion = objClass.getAnnotation(XmlTagVersion.class);
-		return tagVersion != null ? tagVersion.value() : 0;
-	}
-
-	private static int getMinimumLoadableVersionOfTag(Class<?> objClass) {
-		XmlTagMinimumVersion tagVersion = objClass.getAnnotation(XmlTagMinimumVersion.class);
-		return tagVersion != null ? tagVersion.value() : 0;
-	}
 }
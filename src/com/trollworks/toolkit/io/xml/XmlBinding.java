@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import com.trollworks.toolkit.annotation.XmlAttr;
+import com.trollworks.toolkit.annotation.XmlNoSort;
+import com.trollworks.toolkit.annotation.XmlStreamed;
+import com.trollworks.toolkit.annotation.XmlTag;
+import com.trollworks.toolkit.annotation.XmlTagMinimumVersion;
+import com.trollworks.toolkit.annotation.XmlTagVersion;
+import com.trollworks.toolkit.io.xml.helper.XmlObjectHelper;
+import com.trollworks.toolkit.utility.introspection.FieldAnnotation;
+import com.trollworks.toolkit.utility.introspection.Introspection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The plan used by {@link Xml} to load and save objects of a particular class. The annotations,
+ * field types, collection element types and {@link XmlObjectHelper}s of a class are examined once,
+ * the first time the class is seen, and the result is reused for every object of that class
+ * thereafter.
+ */
+final class XmlBinding {
+	/** A sub-tag holding a {@link String}. */
+	static final int								TEXT		= 0;
+	/** A sub-tag holding a {@link Collection}, with one tag per element. */
+	static final int								COLLECTION	= 1;
+	/** A sub-tag holding some other object. */
+	static final int								OBJECT		= 2;
+	private static volatile ClassValue<XmlBinding>	BINDINGS	= create();
+	XmlTag											mTag;
+	int												mVersion;
+	int												mMinimumVersion;
+	XmlObjectHelper									mHelper;
+	Attribute[]										mAttributes;
+	SubTag[]										mSubTags;
+	private Map<String, SubTag>						mSubTagMap;
+
+	private static ClassValue<XmlBinding> create() {
+		return new ClassValue<XmlBinding>() {
+			@Override
+			protected XmlBinding computeValue(Class<?> type) {
+				return new XmlBinding(type);
+			}
+		};
+	}
+
+	/**
+	 * @param type The class to retrieve the plan for.
+	 * @return The plan.
+	 */
+	static XmlBinding get(Class<?> type) {
+		return BINDINGS.get(type);
+	}
+
+	/** Discards all plans, so that changes to the registered helpers are picked up. */
+	static void reset() {
+		BINDINGS = create();
+	}
+
+	private XmlBinding(Class<?> type) {
+		mTag = type.getAnnotation(XmlTag.class);
+		XmlTagVersion tagVersion = type.getAnnotation(XmlTagVersion.class);
+		mVersion = tagVersion != null ? tagVersion.value() : 0;
+		XmlTagMinimumVersion minimumVersion = type.getAnnotation(XmlTagMinimumVersion.class);
+		mMinimumVersion = minimumVersion != null ? minimumVersion.value() : 0;
+		mHelper = Xml.getHelper(type);
+		List<FieldAnnotation<XmlAttr>> attrs = Introspection.getDeepFieldAnnotations(type, XmlAttr.class);
+		mAttributes = new Attribute[attrs.size()];
+		int i = 0;
+		for (FieldAnnotation<XmlAttr> fa : attrs) {
+			mAttributes[i++] = new Attribute(fa.getField(), fa.getAnnotation().value());
+		}
+		List<FieldAnnotation<XmlTag>> tags = Introspection.getDeepFieldAnnotations(type, XmlTag.class);
+		mSubTags = new SubTag[tags.size()];
+		mSubTagMap = new HashMap<>();
+		i = 0;
+		for (FieldAnnotation<XmlTag> fa : tags) {
+			SubTag subTag = new SubTag(fa.getField(), fa.getAnnotation().value());
+			mSubTags[i++] = subTag;
+			mSubTagMap.put(subTag.mName, subTag);
+		}
+	}
+
+	/**
+	 * @param name The tag name.
+	 * @return The sub-tag with the specified name, or <code>null</code>.
+	 */
+	SubTag getSubTag(String name) {
+		return mSubTagMap.get(name);
+	}
+
+	/** A field marked with {@link XmlAttr}. */
+	static final class Attribute {
+		Field			mField;
+		String			mName;
+		XmlObjectHelper	mHelper;
+
+		Attribute(Field field, String name) {
+			Introspection.makeFieldAccessible(field);
+			mField = field;
+			mName = name;
+			mHelper = Xml.getHelper(field.getType());
+		}
+	}
+
+	/** A field marked with {@link XmlTag}. */
+	static final class SubTag {
+		Field		mField;
+		String		mName;
+		int			mKind;
+		Class<?>	mElementType;
+		boolean		mSort;
+		boolean		mStreamed;
+
+		SubTag(Field field, String name) {
+			Introspection.makeFieldAccessible(field);
+			mField = field;
+			mName = name;
+			Class<?> type = field.getType();
+			if (String.class == type) {
+				mKind = TEXT;
+			} else if (Collection.class.isAssignableFrom(type)) {
+				mKind = COLLECTION;
+				mSort = !field.isAnnotationPresent(XmlNoSort.class);
+				mStreamed = field.isAnnotationPresent(XmlStreamed.class);
+				Type genericType = field.getGenericType();
+				if (genericType instanceof ParameterizedType) {
+					genericType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+					if (genericType instanceof Class) {
+						mElementType = (Class<?>) genericType;
+					}
+				}
+			} else {
+				mKind = OBJECT;
+			}
+		}
+	}
+}
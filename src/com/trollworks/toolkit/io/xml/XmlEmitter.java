@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Emits a single tag, and everything within it, as part of a call to
+ * {@link XmlGenerator#emitCached(XmlFragmentCache, String, XmlEmitter)}.
+ */
+@FunctionalInterface
+public interface XmlEmitter {
+	/** Called to emit the tag. */
+	void emit() throws XMLStreamException;
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+/**
+ * Holds the serialized form of a single tag, as last written by an {@link XmlGenerator}, so that
+ * it can be written again verbatim while its source remains unchanged. A fragment is only reused
+ * when written with the same tag name, at the same depth and with the same indentation as when it
+ * was recorded.
+ */
+public final class XmlFragmentCache {
+	private int		mVersion;
+	private byte[]	mFragment;
+	private String	mTag;
+	private int		mDepth;
+	private String	mIndent;
+
+	/** Discards the cached fragment, forcing the tag to be regenerated the next time it is saved. */
+	public synchronized void markDirty() {
+		mVersion++;
+		mFragment = null;
+	}
+
+	/** @return Whether the tag must be regenerated the next time it is saved. */
+	public synchronized boolean isDirty() {
+		return mFragment == null;
+	}
+
+	/** @return A value to pass back to {@link #setFragment(byte[], String, int, String, int)}. */
+	synchronized int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * @param tag The name of the tag.
+	 * @param depth The depth the tag is to be written at.
+	 * @param indent The indentation in use.
+	 * @return The cached fragment, or <code>null</code> if there isn't a usable one.
+	 */
+	synchronized byte[] getFragment(String tag, int depth, String indent) {
+		if (mFragment != null && mDepth == depth && mTag.equals(tag) && mIndent.equals(indent)) {
+			return mFragment;
+		}
+		return null;
+	}
+
+	/**
+	 * Records a fragment, unless {@link #markDirty()} has been called since generation of it began.
+	 *
+	 * @param fragment The fragment.
+	 * @param tag The name of the tag.
+	 * @param depth The depth the tag was written at.
+	 * @param indent The indentation in use.
+	 * @param version The value returned by {@link #getVersion()} before generation began.
+	 */
+	synchronized void setFragment(byte[] fragment, String tag, int depth, String indent, int version) {
+		if (mVersion == version) {
+			mFragment = fragment;
+			mTag = tag;
+			mDepth = depth;
+			mIndent = indent;
+		}
+	}
+}
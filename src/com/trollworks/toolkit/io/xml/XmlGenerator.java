@@ -14,8 +14,11 @@ package com.trollworks.toolkit.io.xml;
 import com.trollworks.toolkit.utility.text.Numbers;
 
 import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -23,10 +26,15 @@ import javax.xml.stream.XMLStreamWriter;
 
 /** Provides simple XML generation. */
 public class XmlGenerator implements AutoCloseable {
-	private String			mIndent	= "\t";	//$NON-NLS-1$
-	private XMLStreamWriter	mWriter;
-	private int				mDepth;
-	private boolean			mHadText;
+	/** The default size of the buffer placed in front of the {@link OutputStream}. */
+	public static final int										DEFAULT_BUFFER_SIZE	= 8192;
+	private static final ThreadLocalFactory<XMLOutputFactory>	FACTORY				= new ThreadLocalFactory<>(XMLOutputFactory::newFactory, null);
+	private static volatile int									BUFFER_SIZE			= DEFAULT_BUFFER_SIZE;
+	private String												mIndent				= "\t";	//$NON-NLS-1$
+	private Recorder											mOut;
+	private XMLStreamWriter										mWriter;
+	private int													mDepth;
+	private boolean												mHadText;
 
 	/**
 	 * Creates a new {@link XmlGenerator}.
@@ -34,7 +42,25 @@ public class XmlGenerator implements AutoCloseable {
 	 * @param stream The {@link OutputStream} to write to.
 	 */
 	public XmlGenerator(OutputStream stream) throws XMLStreamException {
-		mWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(new BufferedOutputStream(stream), StandardCharsets.UTF_8.name());
+		mOut = new Recorder(new BufferedOutputStream(stream, BUFFER_SIZE));
+		mWriter = FACTORY.get().createXMLStreamWriter(mOut, StandardCharsets.UTF_8.name());
+	}
+
+	/**
+	 * @param supplier Creates the {@link XMLOutputFactory} used by generators created after this
+	 *            call, allowing an alternate StAX implementation to be used. Pass in
+	 *            <code>null</code> to use the default implementation.
+	 */
+	public static void setFactorySupplier(Supplier<XMLOutputFactory> supplier) {
+		FACTORY.setSupplier(supplier);
+	}
+
+	/**
+	 * @param size The size of the buffer placed in front of the {@link OutputStream} by generators
+	 *            created after this call. Defaults to {@link #DEFAULT_BUFFER_SIZE}.
+	 */
+	public static void setBufferSize(int size) {
+		BUFFER_SIZE = Math.max(size, 1);
 	}
 
 	/** @param indent The characters to use for indentation. */
@@ -238,15 +264,124 @@ public class XmlGenerator implements AutoCloseable {
 		mWriter.writeComment(' ' + comment + ' ');
 	}
 
+	/**
+	 * Emits a tag, reusing the fragment held by the cache if it is still valid. Otherwise, the
+	 * emitter is called and the result is recorded in the cache for next time.
+	 *
+	 * @param cache The {@link XmlFragmentCache} for the tag.
+	 * @param tag The name of the tag.
+	 * @param emitter Emits the tag, and everything within it.
+	 */
+	public void emitCached(XmlFragmentCache cache, String tag, XmlEmitter emitter) throws XMLStreamException {
+		// Writing no characters forces out the end of any start tag still awaiting attributes,
+		// ensuring that only the tag's own output lands in its fragment.
+		mWriter.writeCharacters(""); //$NON-NLS-1$
+		mWriter.flush();
+		// Text written to the enclosing tag must not affect the fragment's content, nor may that
+		// text's state outlive the fragment, which always ends with the tag's own end.
+		mHadText = false;
+		byte[] fragment = cache.getFragment(tag, mDepth, mIndent);
+		try {
+			if (fragment != null) {
+				mOut.writeFragment(fragment);
+			} else {
+				int depth = mDepth;
+				int version = cache.getVersion();
+				int start = mOut.startRecording();
+				try {
+					emitter.emit();
+					mWriter.writeCharacters(""); //$NON-NLS-1$
+					mWriter.flush();
+				} finally {
+					fragment = mOut.stopRecording(start);
+				}
+				cache.setFragment(fragment, tag, depth, mIndent, version);
+			}
+		} catch (IOException exception) {
+			throw new XMLStreamException(exception);
+		}
+		mHadText = false;
+	}
+
 	/** Closes this {@link XmlGenerator}. No further writing can be attempted with it. */
 	@Override
 	public void close() throws XMLStreamException {
 		if (mWriter != null) {
 			try {
 				mWriter.close();
+				mOut.flushThrough();
+			} catch (IOException exception) {
+				throw new XMLStreamException(exception);
 			} finally {
 				mWriter = null;
 			}
 		}
 	}
+
+	/**
+	 * Sits between the {@link XMLStreamWriter} and the real output, keeping a copy of what passes
+	 * through while any fragment is being recorded. Flushes from the {@link XMLStreamWriter} are
+	 * not passed on, since they occur at every fragment boundary.
+	 */
+	private static final class Recorder extends OutputStream {
+		private OutputStream	mStream;
+		private byte[]			mRecorded	= new byte[8192];
+		private int				mRecordedCount;
+		private int				mRecording;
+
+		Recorder(OutputStream stream) {
+			mStream = stream;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			mStream.write(b);
+			if (mRecording > 0) {
+				ensureRoom(1);
+				mRecorded[mRecordedCount++] = (byte) b;
+			}
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			mStream.write(buffer, offset, length);
+			if (mRecording > 0) {
+				ensureRoom(length);
+				System.arraycopy(buffer, offset, mRecorded, mRecordedCount, length);
+				mRecordedCount += length;
+			}
+		}
+
+		private void ensureRoom(int length) {
+			if (mRecordedCount + length > mRecorded.length) {
+				mRecorded = Arrays.copyOf(mRecorded, Math.max(mRecorded.length * 2, mRecordedCount + length));
+			}
+		}
+
+		void writeFragment(byte[] fragment) throws IOException {
+			write(fragment, 0, fragment.length);
+		}
+
+		int startRecording() {
+			mRecording++;
+			return mRecordedCount;
+		}
+
+		byte[] stopRecording(int start) {
+			byte[] fragment = Arrays.copyOfRange(mRecorded, start, mRecordedCount);
+			if (--mRecording == 0) {
+				mRecordedCount = 0;
+			}
+			return fragment;
+		}
+
+		@Override
+		public void flush() {
+			// Intentionally empty. See flushThrough().
+		}
+
+		void flushThrough() throws IOException {
+			mStream.flush();
+		}
+	}
 }
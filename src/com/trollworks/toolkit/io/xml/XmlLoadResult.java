@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLStreamException;
+
+/** The outcome of loading one document as part of a batch. */
+public final class XmlLoadResult<T> {
+	private Path				mPath;
+	private T					mResult;
+	private XMLStreamException	mException;
+
+	XmlLoadResult(Path path, T result, XMLStreamException exception) {
+		mPath = path;
+		mResult = result;
+		mException = exception;
+	}
+
+	/** @return The {@link Path} that was loaded. */
+	public Path getPath() {
+		return mPath;
+	}
+
+	/** @return The loaded object, or <code>null</code> if loading failed. */
+	public T getResult() {
+		return mResult;
+	}
+
+	/** @return The reason loading failed, or <code>null</code> if it succeeded. */
+	public XMLStreamException getException() {
+		return mException;
+	}
+
+	/** @return <code>true</code> if the document was loaded successfully. */
+	public boolean isSuccessful() {
+		return mException == null;
+	}
+
+	@Override
+	public String toString() {
+		return mPath + (mException != null ? ": " + mException.getMessage() : ""); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
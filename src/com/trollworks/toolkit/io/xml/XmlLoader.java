@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLStreamException;
+
+/** Loads a single document as part of a call to {@link Xml#loadAll(java.util.List, XmlLoader)}. */
+@FunctionalInterface
+public interface XmlLoader<T> {
+	/**
+	 * Called to load a document. May be called concurrently from multiple threads, each with a
+	 * different path.
+	 *
+	 * @param path The {@link Path} to load from.
+	 * @return The loaded object.
+	 */
+	T load(Path path) throws XMLStreamException;
+}
@@ -15,6 +15,7 @@ import com.trollworks.toolkit.utility.text.Numbers;
 
 import java.io.BufferedInputStream;
 import java.io.InputStream;
+import java.util.function.Supplier;
 
 import javax.xml.stream.Location;
 import javax.xml.stream.XMLInputFactory;
@@ -24,10 +25,16 @@ import javax.xml.stream.XMLStreamReader;
 
 /** Provides simple XML parsing. */
 public class XmlParser implements AutoCloseable {
-	private static final String	SEPARATOR	= "\u0000";	//$NON-NLS-1$
-	private XMLStreamReader		mReader;
-	private int					mDepth;
-	private String				mMarker;
+	/** The marker value that never matches the end of a tag. */
+	public static final int										NO_MARKER			= -1;
+	/** The default size of the buffer placed in front of the {@link InputStream}. */
+	public static final int										DEFAULT_BUFFER_SIZE	= 8192;
+	private static volatile boolean								COALESCING			= true;
+	private static volatile int									BUFFER_SIZE			= DEFAULT_BUFFER_SIZE;
+	private static final ThreadLocalFactory<XMLInputFactory>	FACTORY				= new ThreadLocalFactory<>(XMLInputFactory::newFactory, factory -> factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.valueOf(COALESCING)));
+	private XMLStreamReader										mReader;
+	private int													mDepth;
+	private int													mMarker				= NO_MARKER;
 
 	/**
 	 * Creates a new {@link XmlParser}.
@@ -35,9 +42,33 @@ public class XmlParser implements AutoCloseable {
 	 * @param stream The {@link InputStream} to read from.
 	 */
 	public XmlParser(InputStream stream) throws XMLStreamException {
-		XMLInputFactory factory = XMLInputFactory.newInstance();
-		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-		mReader = factory.createXMLStreamReader(new BufferedInputStream(stream));
+		mReader = FACTORY.get().createXMLStreamReader(new BufferedInputStream(stream, BUFFER_SIZE));
+	}
+
+	/**
+	 * @param supplier Creates the {@link XMLInputFactory} used by parsers created after this call,
+	 *            allowing an alternate StAX implementation to be used. Pass in <code>null</code> to
+	 *            use the default implementation.
+	 */
+	public static void setFactorySupplier(Supplier<XMLInputFactory> supplier) {
+		FACTORY.setSupplier(supplier);
+	}
+
+	/**
+	 * @param coalescing Whether parsers created after this call should merge adjacent text and
+	 *            CDATA sections into a single run of text. Defaults to <code>true</code>.
+	 */
+	public static void setCoalescing(boolean coalescing) {
+		COALESCING = coalescing;
+		FACTORY.configurationChanged();
+	}
+
+	/**
+	 * @param size The size of the buffer placed in front of the {@link InputStream} by parsers
+	 *            created after this call. Defaults to {@link #DEFAULT_BUFFER_SIZE}.
+	 */
+	public static void setBufferSize(int size) {
+		BUFFER_SIZE = Math.max(size, 1);
 	}
 
 	/** @return The current line:column position. */
@@ -45,8 +76,11 @@ public class XmlParser implements AutoCloseable {
 		return mReader.getLocation();
 	}
 
-	/** @return A marker for determining if you've come to the end of a specific tag. */
-	public String getMarker() {
+	/**
+	 * @return A marker for determining if you've come to the end of a specific tag. Markers are the
+	 *         depth of the tag they were obtained from.
+	 */
+	public int getMarker() {
 		return mMarker;
 	}
 
@@ -61,37 +95,36 @@ public class XmlParser implements AutoCloseable {
 	 * @return The next tag's name, or <code>null</code>.
 	 */
 	public String nextTag() throws XMLStreamException {
-		return nextTag(null);
+		return nextTag(NO_MARKER);
 	}
 
 	/**
 	 * Advances to the next position.
 	 *
-	 * @param marker If this is not <code>null</code>, when an end tag matches this marker return
+	 * @param marker If this is not {@link #NO_MARKER}, when an end tag matches this marker return
 	 *            <code>null</code>.
 	 * @return The next tag's name, or <code>null</code>.
 	 */
-	public String nextTag(String marker) throws XMLStreamException {
+	public String nextTag(int marker) throws XMLStreamException {
 		while (mReader.hasNext()) {
 			switch (mReader.next()) {
 				case XMLStreamConstants.START_ELEMENT:
-					String name = mReader.getLocalName();
-					mMarker = mDepth++ + SEPARATOR + name;
-					return name;
+					mMarker = mDepth++;
+					return mReader.getLocalName();
 				case XMLStreamConstants.END_ELEMENT:
-					mMarker = --mDepth + SEPARATOR + mReader.getLocalName();
-					if (marker != null && marker.equals(mMarker)) {
+					mMarker = --mDepth;
+					if (mMarker == marker) {
 						return null;
 					}
 					break;
 				case XMLStreamConstants.START_DOCUMENT:
-					mMarker = null;
-					if (marker != null) {
+					mMarker = NO_MARKER;
+					if (marker != NO_MARKER) {
 						return null;
 					}
 					break;
 				case XMLStreamConstants.END_DOCUMENT:
-					mMarker = null;
+					mMarker = NO_MARKER;
 					return null;
 				default:
 					break;
@@ -105,10 +138,30 @@ public class XmlParser implements AutoCloseable {
 		skip(getMarker());
 	}
 
-	/** @param marker Up to the end of the tag this marker came from will be skipped. */
-	public void skip(String marker) throws XMLStreamException {
-		while (nextTag(marker) != null) {
-			// Intentionally empty
+	/**
+	 * Only the depth is tracked while skipping, so no names are retrieved for the elements passed
+	 * over.
+	 *
+	 * @param marker Up to the end of the tag this marker came from will be skipped.
+	 */
+	public void skip(int marker) throws XMLStreamException {
+		while (mReader.hasNext()) {
+			switch (mReader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					mDepth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (--mDepth == marker) {
+						mMarker = marker;
+						return;
+					}
+					break;
+				case XMLStreamConstants.END_DOCUMENT:
+					mMarker = NO_MARKER;
+					return;
+				default:
+					break;
+			}
 		}
 	}
 
@@ -270,7 +323,7 @@ public class XmlParser implements AutoCloseable {
 	/** @return The text of the current element. */
 	public String getText() throws XMLStreamException {
 		String text = mReader.getElementText();
-		mMarker = --mDepth + SEPARATOR + mReader.getLocalName();
+		mMarker = --mDepth;
 		return text;
 	}
 
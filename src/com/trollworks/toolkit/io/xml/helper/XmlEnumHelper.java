@@ -21,7 +21,13 @@ import java.lang.reflect.Field;
 import javax.xml.stream.XMLStreamException;
 
 public class XmlEnumHelper implements XmlObjectHelper {
-	public static final XmlEnumHelper SINGLETON = new XmlEnumHelper();
+	public static final XmlEnumHelper				SINGLETON	= new XmlEnumHelper();
+	private static final ClassValue<EnumXmlNames>	XML_NAMES	= new ClassValue<EnumXmlNames>() {
+																	@Override
+																	protected EnumXmlNames computeValue(Class<?> type) {
+																		return new EnumXmlNames((Enum<?>[]) type.getEnumConstants());
+																	}
+																};
 
 	private XmlEnumHelper() {
 	}
@@ -48,26 +54,15 @@ public class XmlEnumHelper implements XmlObjectHelper {
 	@Override
 	public void loadAttributeValue(XmlParserContext context, Object obj, Field field, String name) throws XMLStreamException, ReflectiveOperationException {
 		String tag = context.getParser().getAttribute(name);
-		Enum<?>[] enumConstants = (Enum<?>[]) field.getType().getEnumConstants();
-		for (Enum<?> one : enumConstants) {
-			String xmlName = getEnumXmlName(one);
-			if (xmlName.equals(tag)) {
-				field.set(obj, one);
-				return;
-			}
-		}
-		XmlDefault def = field.getAnnotation(XmlDefault.class);
-		if (def != null) {
-			tag = def.value();
-			for (Enum<?> one : enumConstants) {
-				String xmlName = getEnumXmlName(one);
-				if (xmlName.equals(tag)) {
-					field.set(obj, one);
-					return;
-				}
+		EnumXmlNames names = XML_NAMES.get(field.getType());
+		Enum<?> value = names.lookup(tag);
+		if (value == null) {
+			XmlDefault def = field.getAnnotation(XmlDefault.class);
+			if (def != null) {
+				value = names.lookup(def.value());
 			}
 		}
-		field.set(obj, null);
+		field.set(obj, value);
 	}
 
 	@Override
@@ -78,6 +73,10 @@ public class XmlEnumHelper implements XmlObjectHelper {
 	}
 
 	private static final String getEnumXmlName(Enum<?> value) {
+		return XML_NAMES.get(value.getDeclaringClass()).mNames[value.ordinal()];
+	}
+
+	static final String computeEnumXmlName(Enum<?> value) {
 		String name = value.name();
 		XmlTag xmlTag;
 		try {
@@ -90,4 +89,27 @@ public class XmlEnumHelper implements XmlObjectHelper {
 		}
 		return name.toLowerCase();
 	}
+
+	/** The xml names of an enum's constants, indexed by ordinal. */
+	private static final class EnumXmlNames {
+		final Enum<?>[]	mConstants;
+		final String[]	mNames;
+
+		EnumXmlNames(Enum<?>[] constants) {
+			mConstants = constants;
+			mNames = new String[constants.length];
+			for (Enum<?> one : constants) {
+				mNames[one.ordinal()] = computeEnumXmlName(one);
+			}
+		}
+
+		Enum<?> lookup(String name) {
+			for (int i = 0; i < mNames.length; i++) {
+				if (mNames[i].equals(name)) {
+					return mConstants[i];
+				}
+			}
+			return null;
+		}
+	}
 }
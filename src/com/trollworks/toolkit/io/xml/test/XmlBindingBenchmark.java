@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml.test;
+
+import com.trollworks.toolkit.annotation.XmlAttr;
+import com.trollworks.toolkit.annotation.XmlNoSort;
+import com.trollworks.toolkit.annotation.XmlTag;
+import com.trollworks.toolkit.annotation.XmlTagVersion;
+import com.trollworks.toolkit.io.xml.Xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures {@link Xml#load(File, Object)} and {@link Xml#save(java.io.OutputStream, Object)} on an
+ * annotated model with thousands of versioned children, each holding further child objects, after
+ * checking that a saved model loads and saves again unchanged.
+ * <p>
+ * Usage: <code>XmlBindingBenchmark [children] [rounds]</code>
+ */
+@SuppressWarnings("nls")
+public final class XmlBindingBenchmark {
+	private static final int ITERATIONS = 5;
+
+	private XmlBindingBenchmark() {
+	}
+
+	/** @param args The number of children in the model and the number of rounds. */
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		Root root = createModel(count);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Xml.save(out, root);
+		byte[] data = out.toByteArray();
+		File file = File.createTempFile("bench", ".xml");
+		file.deleteOnExit();
+		try (FileOutputStream fileOut = new FileOutputStream(file)) {
+			fileOut.write(data);
+		}
+		out = new ByteArrayOutputStream();
+		Xml.save(out, Xml.load(file, new Root()));
+		if (!Arrays.equals(data, out.toByteArray())) {
+			System.out.println("The model did not survive a load and save unchanged");
+			System.exit(1);
+		}
+		System.out.printf("document: %.1f MB%n", Double.valueOf(data.length / (1024.0 * 1024.0)));
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				Xml.load(file, new Root());
+			}
+			long loaded = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++) {
+				Xml.save(new ByteArrayOutputStream(data.length), root);
+			}
+			long saved = System.nanoTime();
+			System.out.printf("round %d: load %d ms, save %d ms%n", Integer.valueOf(round + 1), Long.valueOf((loaded - start) / (ITERATIONS * 1000000L)), Long.valueOf((saved - loaded) / (ITERATIONS * 1000000L)));
+		}
+	}
+
+	private static Root createModel(int count) {
+		Root root = new Root();
+		root.mTitle = "Benchmark & <model>";
+		Kind[] kinds = Kind.values();
+		for (int i = 0; i < count; i++) {
+			Child child = new Child();
+			child.mID = count - i;
+			child.mName = "child" + i;
+			child.mKind = kinds[i % kinds.length];
+			child.mFlag = i % 2 == 0;
+			child.mBig = Long.valueOf((long) i << 33);
+			for (int j = 0; j < 5; j++) {
+				Leaf leaf = new Leaf();
+				leaf.mID = j;
+				leaf.mWeight = j * 0.5;
+				leaf.mNote = j == 0 ? "note " + i : null;
+				child.mLeaves.add(leaf);
+			}
+			child.mNames.add("z");
+			child.mNames.add("a");
+			if (i % 4 == 0) {
+				child.mSub = new Leaf();
+				child.mSub.mID = 99;
+			}
+			root.mChildren.add(child);
+		}
+		return root;
+	}
+
+	/** The kinds of {@link Child}. */
+	public enum Kind {
+		/** The first kind. */
+		ALPHA,
+		/** The second kind. */
+		BETA,
+		/** The third kind. */
+		GAMMA
+	}
+
+	/** The root of the model. */
+	@XmlTag("root")
+	@XmlTagVersion(1)
+	public static final class Root {
+		@XmlAttr("title")
+		String		mTitle;
+		@XmlTag("child")
+		List<Child>	mChildren	= new ArrayList<>();
+	}
+
+	/** A versioned child of the {@link Root}. */
+	@XmlTag("child")
+	@XmlTagVersion(2)
+	public static final class Child implements Comparable<Child> {
+		@XmlAttr("id")
+		int				mID;
+		@XmlAttr("name")
+		String			mName;
+		@XmlAttr("kind")
+		Kind			mKind;
+		@XmlAttr("flag")
+		boolean			mFlag;
+		@XmlAttr("big")
+		Long			mBig;
+		@XmlTag("leaf")
+		List<Leaf>		mLeaves	= new ArrayList<>();
+		@XmlTag("name")
+		@XmlNoSort
+		List<String>	mNames	= new ArrayList<>();
+		@XmlTag("sub")
+		Leaf			mSub;
+
+		@Override
+		public int compareTo(Child other) {
+			return Integer.compare(mID, other.mID);
+		}
+	}
+
+	/** A leaf of the model. */
+	@XmlTag("leaf")
+	public static final class Leaf implements Comparable<Leaf> {
+		@XmlAttr("id")
+		int		mID;
+		@XmlAttr("weight")
+		double	mWeight;
+		@XmlTag("note")
+		String	mNote;
+
+		@Override
+		public int compareTo(Leaf other) {
+			return Integer.compare(mID, other.mID);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml.test;
+
+import com.trollworks.toolkit.io.xml.XmlGenerator;
+import com.trollworks.toolkit.io.xml.XmlParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the per-document cost of {@link XmlParser} and {@link XmlGenerator} on documents small
+ * enough that creating the StAX factory, reader and writer dominates.
+ * <p>
+ * Usage: <code>XmlFactoryBenchmark [documents] [rounds]</code>
+ */
+@SuppressWarnings("nls")
+public final class XmlFactoryBenchmark {
+	private static final byte[]	DOCUMENT	= "<?xml version=\"1.0\"?><root version=\"1\"><a x=\"1\">t</a><b/><c>text</c></root>".getBytes(StandardCharsets.UTF_8);
+
+	private XmlFactoryBenchmark() {
+	}
+
+	/** @param args The number of documents per round and the number of rounds. */
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		for (int round = 0; round < rounds; round++) {
+			int tags = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				try (XmlParser parser = new XmlParser(new ByteArrayInputStream(DOCUMENT))) {
+					while (parser.nextTag() != null) {
+						tags++;
+					}
+				}
+			}
+			long parsed = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				try (XmlGenerator generator = new XmlGenerator(new ByteArrayOutputStream())) {
+					generator.startDocument();
+					generator.startTag("root");
+					generator.startEmptyTag("a");
+					generator.addAttribute("x", 1);
+					generator.endTag();
+					generator.endDocument();
+				}
+			}
+			long generated = System.nanoTime();
+			System.out.printf("round %d: parse %.1f us/document, generate %.1f us/document (%d tags)%n", Integer.valueOf(round + 1), Double.valueOf((parsed - start) / 1000.0 / count), Double.valueOf((generated - parsed) / 1000.0 / count), Integer.valueOf(tags));
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 1998-2017 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, version 2.0. If a copy of the MPL was not distributed with
+ * this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as
+ * defined by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml.test;
+
+import com.trollworks.toolkit.annotation.XmlAttr;
+import com.trollworks.toolkit.annotation.XmlTag;
+import com.trollworks.toolkit.io.xml.TagCacheable;
+import com.trollworks.toolkit.io.xml.TagExtraSubTags;
+import com.trollworks.toolkit.io.xml.Xml;
+import com.trollworks.toolkit.io.xml.XmlFragmentCache;
+import com.trollworks.toolkit.io.xml.XmlGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Verifies that writing a {@link TagCacheable} object from its {@link XmlFragmentCache} produces
+ * exactly the same bytes as generating it afresh, including when custom emitter code has written
+ * text into the enclosing tag just before it.
+ * <p>
+ * Usage: <code>XmlFragmentCacheCheck</code>
+ */
+@SuppressWarnings("nls")
+public final class XmlFragmentCacheCheck {
+	private XmlFragmentCacheCheck() {
+	}
+
+	/** @param args Unused. */
+	public static void main(String[] args) throws Exception {
+		Parent parent = new Parent();
+		String recorded = save(parent);
+		String cached = save(parent);
+		parent.mChild.mCache.markDirty();
+		parent.mChild.mLeaf.mCache.markDirty();
+		parent.mLeaf.mCache.markDirty();
+		String regenerated = save(parent);
+		if (!recorded.equals(cached) || !cached.equals(regenerated)) {
+			System.out.println("FAILED");
+			System.out.println("recorded:\n" + recorded);
+			System.out.println("cached:\n" + cached);
+			System.out.println("regenerated:\n" + regenerated);
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static String save(Object obj) throws XMLStreamException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Xml.save(out, obj);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@XmlTag("parent")
+	static final class Parent implements TagExtraSubTags {
+		Child	mChild	= new Child();
+		Leaf	mLeaf	= new Leaf();
+
+		@Override
+		public void xmlEmitExtraSubTags(XmlGenerator xml) throws XMLStreamException {
+			xml.addText("before leaf");
+			Xml.add(xml, mLeaf);
+			xml.addText("before child");
+			Xml.add(xml, mChild);
+		}
+	}
+
+	@XmlTag("child")
+	static final class Child implements TagCacheable {
+		XmlFragmentCache	mCache	= new XmlFragmentCache();
+		@XmlAttr("name")
+		String				mName	= "child";
+		@XmlTag("leaf")
+		Leaf				mLeaf	= new Leaf();
+
+		@Override
+		public XmlFragmentCache xmlGetFragmentCache() {
+			return mCache;
+		}
+	}
+
+	@XmlTag("leaf")
+	static final class Leaf implements TagCacheable {
+		XmlFragmentCache	mCache	= new XmlFragmentCache();
+		@XmlAttr("id")
+		int					mID		= 1;
+
+		@Override
+		public XmlFragmentCache xmlGetFragmentCache() {
+			return mCache;
+		}
+	}
+}
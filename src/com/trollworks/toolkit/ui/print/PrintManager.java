@@ -166,7 +166,7 @@ public class PrintManager {
 	 * @param reader The XML reader to load from.
 	 */
 	public void load(XMLReader reader) throws IOException {
-		String marker = reader.getMarker();
+		int marker = reader.getMarker();
 		LengthUnits units = Enums.extract(reader.getAttribute(ATTRIBUTE_UNITS), LengthUnits.values(), LengthUnits.IN);
 		String printer = reader.getAttribute(ATTRIBUTE_PRINTER);
 		double[] size = new double[] { 8.5, 11.0 };
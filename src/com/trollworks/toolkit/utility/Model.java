@@ -12,7 +12,11 @@
 package com.trollworks.toolkit.utility;
 
 import com.trollworks.toolkit.annotation.Localize;
+import com.trollworks.toolkit.io.SafeFileUpdater;
+import com.trollworks.toolkit.io.xml.TagCacheable;
+import com.trollworks.toolkit.io.xml.Xml;
 import com.trollworks.toolkit.io.xml.XmlGenerator;
+import com.trollworks.toolkit.io.xml.XmlLoadResult;
 import com.trollworks.toolkit.io.xml.XmlParser;
 
 import java.io.File;
@@ -21,8 +25,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -72,6 +80,9 @@ public abstract class Model implements Cloneable {
 	/** @param id The globally unique ID to set. */
 	public void setId(UUID id) {
 		mId = id;
+		if (this instanceof TagCacheable) {
+			((TagCacheable) this).xmlGetFragmentCache().markDirty();
+		}
 	}
 
 	/**
@@ -88,6 +99,40 @@ public abstract class Model implements Cloneable {
 		}
 	}
 
+	/**
+	 * Loads several files, each into a new model, concurrently on a thread pool sized to the number
+	 * of available processors. Each file is loaded with its own {@link ModelContext}.
+	 *
+	 * @param paths The {@link Path}s to load from.
+	 * @param factory Creates the model to load each file into.
+	 * @return The results, in the same order as the paths. A failure to load one file does not
+	 *         prevent the others from loading.
+	 */
+	public static final <M extends Model> List<XmlLoadResult<M>> loadAll(List<Path> paths, Supplier<M> factory) {
+		return Xml.loadAll(paths, path -> load(path, factory));
+	}
+
+	/**
+	 * Loads several files, each into a new model, concurrently. Each file is loaded with its own
+	 * {@link ModelContext}.
+	 *
+	 * @param paths The {@link Path}s to load from.
+	 * @param factory Creates the model to load each file into.
+	 * @param executor The {@link Executor} to run the loads on. Its size bounds the number of
+	 *            files that will be loaded at once.
+	 * @return The results, in the same order as the paths. A failure to load one file does not
+	 *         prevent the others from loading.
+	 */
+	public static final <M extends Model> List<XmlLoadResult<M>> loadAll(List<Path> paths, Supplier<M> factory, Executor executor) {
+		return Xml.loadAll(paths, path -> load(path, factory), executor);
+	}
+
+	private static <M extends Model> M load(Path path, Supplier<M> factory) throws XMLStreamException {
+		M model = factory.get();
+		model.load(path.toFile(), new ModelContext());
+		return model;
+	}
+
 	/**
 	 * Load the model's content from the specified {@link InputStream}.
 	 *
@@ -117,7 +162,7 @@ public abstract class Model implements Cloneable {
 		String tag = parser.getCurrentTag();
 		if (getRootTag().equals(tag)) {
 			modelWillLoad(context);
-			String marker = parser.getMarker();
+			int marker = parser.getMarker();
 			int version = parser.getIntegerAttribute(ATTR_VERSION);
 			if (version < getMinimumVersion()) {
 				throw new XMLStreamException(MessageFormat.format(TOO_OLD, parser.getCurrentTag()), parser.getLocation());
@@ -196,15 +241,25 @@ public abstract class Model implements Cloneable {
 	}
 
 	/**
-	 * Saves the model's content to the specified {@link File}.
+	 * Saves the model's content to the specified {@link File}. The file is replaced only once the
+	 * new content has been written in full.
 	 *
 	 * @param file The {@link File} to save to.
 	 * @param context The {@link ModelContext} to use.
 	 */
 	public final void save(File file, ModelContext context) throws XMLStreamException {
-		try (FileOutputStream out = new FileOutputStream(file)) {
-			save(out, context);
-		} catch (IOException exception) {
+		SafeFileUpdater transaction = new SafeFileUpdater();
+		transaction.begin();
+		try {
+			try (FileOutputStream out = new FileOutputStream(transaction.getTransactionFile(file.getAbsoluteFile()))) {
+				save(out, context);
+			}
+			transaction.commit();
+		} catch (XMLStreamException exception) {
+			transaction.abort();
+			throw exception;
+		} catch (Exception exception) {
+			transaction.abort();
 			throw new XMLStreamException(exception);
 		}
 	}
@@ -224,12 +279,22 @@ public abstract class Model implements Cloneable {
 	}
 
 	/**
-	 * Save the model's content to the specified {@link XmlGenerator}.
+	 * Save the model's content to the specified {@link XmlGenerator}. Models that implement
+	 * {@link TagCacheable} are written from their cached form while unchanged, without calling any
+	 * of the methods that normally participate in saving.
 	 *
 	 * @param generator The {@link XmlGenerator} to load from.
 	 * @param context The {@link ModelContext} to use.
 	 */
 	public final void save(XmlGenerator generator, ModelContext context) throws XMLStreamException {
+		if (this instanceof TagCacheable) {
+			generator.emitCached(((TagCacheable) this).xmlGetFragmentCache(), getRootTag(), () -> emit(generator, context));
+		} else {
+			emit(generator, context);
+		}
+	}
+
+	private void emit(XmlGenerator generator, ModelContext context) throws XMLStreamException {
 		modelWillSave(context);
 		String tag = getRootTag();
 		boolean isEmpty = isEmptyTag();
@@ -17,17 +17,18 @@ import java.lang.reflect.Field;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** Helper utilities for introspection. */
 public class Introspection {
-	private static Map<Class<?>, List<Class<?>>>						CLASS_TREE_MAP					= new HashMap<>();
-	private static Map<ClassAnnotation<?>, List<FieldAnnotation<?>>>	CLASS_FIELD_ANNOTATION_MAP		= new HashMap<>();
-	private static Map<ClassAnnotation<?>, List<FieldAnnotation<?>>>	CLASS_DEEP_FIELD_ANNOTATION_MAP	= new HashMap<>();
+	private static final ClassValue<List<Class<?>>>											CLASS_TREE_MAP					= new ClassTree();
+	private static final ClassValue<Map<Class<? extends Annotation>, List<FieldAnnotation<?>>>>	CLASS_FIELD_ANNOTATION_MAP		= new AnnotationMap();
+	private static final ClassValue<Map<Class<? extends Annotation>, List<FieldAnnotation<?>>>>	CLASS_DEEP_FIELD_ANNOTATION_MAP	= new AnnotationMap();
 
 	/**
 	 * Marks the specified field as accessible, even if it would normally be off-limits. Requires
@@ -67,17 +68,13 @@ public class Introspection {
 		}
 	}
 
+	/**
+	 * @param cls The class to examine.
+	 * @return An unmodifiable list of the class, its superclasses and the interfaces they
+	 *         implement, not including {@link Object}.
+	 */
 	public static List<Class<?>> getClassTree(Class<?> cls) {
-		synchronized (CLASS_TREE_MAP) {
-			List<Class<?>> classes = CLASS_TREE_MAP.get(cls);
-			if (classes == null) {
-				Set<Class<?>> set = new LinkedHashSet<>();
-				collectClassTree(cls, set);
-				classes = new ArrayList<>(set);
-				CLASS_TREE_MAP.put(cls, classes);
-			}
-			return classes;
-		}
+		return CLASS_TREE_MAP.get(cls);
 	}
 
 	private static void collectClassTree(Class<?> cls, Set<Class<?>> set) {
@@ -94,42 +91,71 @@ public class Introspection {
 		return !getDeepFieldAnnotations(cls, annotationCls).isEmpty();
 	}
 
+	/**
+	 * @param cls The class to examine.
+	 * @param annotationCls The annotation to look for.
+	 * @return An unmodifiable list of the fields in the class, its superclasses and their
+	 *         interfaces that have the annotation.
+	 */
 	@SuppressWarnings("unchecked")
 	public static <T extends Annotation> List<FieldAnnotation<T>> getDeepFieldAnnotations(Class<?> cls, Class<T> annotationCls) {
-		synchronized (CLASS_FIELD_ANNOTATION_MAP) {
-			ClassAnnotation<T> ca = new ClassAnnotation<>(cls, annotationCls);
-			List<FieldAnnotation<?>> annotations = CLASS_DEEP_FIELD_ANNOTATION_MAP.get(ca);
-			if (annotations == null) {
-				annotations = new ArrayList<>();
-				for (Class<?> one : Introspection.getClassTree(cls)) {
-					annotations.addAll(getFieldAnnotations(one, annotationCls));
-				}
-				CLASS_DEEP_FIELD_ANNOTATION_MAP.put(ca, annotations);
+		Map<Class<? extends Annotation>, List<FieldAnnotation<?>>> map = CLASS_DEEP_FIELD_ANNOTATION_MAP.get(cls);
+		List<FieldAnnotation<?>> annotations = map.get(annotationCls);
+		if (annotations == null) {
+			List<FieldAnnotation<?>> list = new ArrayList<>();
+			for (Class<?> one : getClassTree(cls)) {
+				list.addAll(getFieldAnnotations(one, annotationCls));
 			}
-			return (List<FieldAnnotation<T>>) (List<?>) annotations;
+			annotations = map.computeIfAbsent(annotationCls, key -> Collections.unmodifiableList(list));
 		}
+		return (List<FieldAnnotation<T>>) (List<?>) annotations;
 	}
 
 	public static final boolean hasFieldAnnotation(Class<?> cls, Class<? extends Annotation> annotationCls) {
 		return !getFieldAnnotations(cls, annotationCls).isEmpty();
 	}
 
+	/**
+	 * @param cls The class to examine.
+	 * @param annotationCls The annotation to look for.
+	 * @return An unmodifiable list of the fields declared by the class that have the annotation.
+	 */
 	@SuppressWarnings("unchecked")
 	public static <T extends Annotation> List<FieldAnnotation<T>> getFieldAnnotations(Class<?> cls, Class<T> annotationCls) {
-		synchronized (CLASS_FIELD_ANNOTATION_MAP) {
-			ClassAnnotation<T> ca = new ClassAnnotation<>(cls, annotationCls);
-			List<FieldAnnotation<?>> annotations = CLASS_FIELD_ANNOTATION_MAP.get(ca);
-			if (annotations == null) {
-				annotations = new ArrayList<>();
-				for (Field field : cls.getDeclaredFields()) {
-					T annotation = field.getAnnotation(annotationCls);
-					if (annotation != null) {
-						annotations.add(new FieldAnnotation<>(field, annotation));
-					}
+		Map<Class<? extends Annotation>, List<FieldAnnotation<?>>> map = CLASS_FIELD_ANNOTATION_MAP.get(cls);
+		List<FieldAnnotation<?>> annotations = map.get(annotationCls);
+		if (annotations == null) {
+			List<FieldAnnotation<?>> list = new ArrayList<>();
+			for (Field field : cls.getDeclaredFields()) {
+				T annotation = field.getAnnotation(annotationCls);
+				if (annotation != null) {
+					list.add(new FieldAnnotation<>(field, annotation));
 				}
-				CLASS_FIELD_ANNOTATION_MAP.put(ca, annotations);
 			}
-			return (List<FieldAnnotation<T>>) (List<?>) annotations;
+			annotations = map.computeIfAbsent(annotationCls, key -> Collections.unmodifiableList(list));
+		}
+		return (List<FieldAnnotation<T>>) (List<?>) annotations;
+	}
+
+	private static class ClassTree extends ClassValue<List<Class<?>>> {
+		ClassTree() {
+		}
+
+		@Override
+		protected List<Class<?>> computeValue(Class<?> cls) {
+			Set<Class<?>> set = new LinkedHashSet<>();
+			collectClassTree(cls, set);
+			return Collections.unmodifiableList(new ArrayList<>(set));
+		}
+	}
+
+	private static class AnnotationMap extends ClassValue<Map<Class<? extends Annotation>, List<FieldAnnotation<?>>>> {
+		AnnotationMap() {
+		}
+
+		@Override
+		protected Map<Class<? extends Annotation>, List<FieldAnnotation<?>>> computeValue(Class<?> cls) {
+			return new ConcurrentHashMap<>();
 		}
 	}
 }
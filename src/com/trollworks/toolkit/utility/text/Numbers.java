@@ -88,15 +88,19 @@ public class Numbers {
 	private static final int[]			ROMAN_VALUES						= { 1000, 900, 500, 400, 100, 90, 50, 40, 10, 9, 5, 4, 1 };
 	@SuppressWarnings("nls")
 	private static final String[]		ROMAN_TEXT							= { "M", "CM", "D", "CD", "C", "XC", "L", "XL", "X", "IX", "V", "IV", "I" };
-	private static final DecimalFormat	NUMBER_FORMAT;
-	private static final DecimalFormat	NUMBER_PLUS_FORMAT;
+	private static final ThreadLocal<DecimalFormat>	NUMBER_FORMAT;
+	private static final ThreadLocal<DecimalFormat>	NUMBER_PLUS_FORMAT;
 
 	static {
-		NUMBER_FORMAT = (DecimalFormat) NumberFormat.getNumberInstance();
-		NUMBER_FORMAT.setMaximumFractionDigits(5);
+		DecimalFormat format = (DecimalFormat) NumberFormat.getNumberInstance();
+		format.setMaximumFractionDigits(5);
 
-		NUMBER_PLUS_FORMAT = (DecimalFormat) NUMBER_FORMAT.clone();
-		NUMBER_PLUS_FORMAT.setPositivePrefix("+"); //$NON-NLS-1$
+		DecimalFormat plusFormat = (DecimalFormat) format.clone();
+		plusFormat.setPositivePrefix("+"); //$NON-NLS-1$
+
+		// DecimalFormat is not thread-safe, so each thread formats with its own copy.
+		NUMBER_FORMAT = ThreadLocal.withInitial(() -> (DecimalFormat) format.clone());
+		NUMBER_PLUS_FORMAT = ThreadLocal.withInitial(() -> (DecimalFormat) plusFormat.clone());
 	}
 
 	/**
@@ -501,7 +505,7 @@ public class Numbers {
 	 * @return The formatted string.
 	 */
 	public static String format(long value) {
-		return NUMBER_FORMAT.format(value);
+		return NUMBER_FORMAT.get().format(value);
 	}
 
 	/**
@@ -509,7 +513,7 @@ public class Numbers {
 	 * @return The formatted string.
 	 */
 	public static String formatWithForcedSign(long value) {
-		return NUMBER_PLUS_FORMAT.format(value);
+		return NUMBER_PLUS_FORMAT.get().format(value);
 	}
 
 	/**
@@ -517,7 +521,7 @@ public class Numbers {
 	 * @return The formatted string.
 	 */
 	public static String format(double value) {
-		return NUMBER_FORMAT.format(value);
+		return NUMBER_FORMAT.get().format(value);
 	}
 
 	/**
@@ -525,6 +529,6 @@ public class Numbers {
 	 * @return The formatted string.
 	 */
 	public static String formatWithForcedSign(double value) {
-		return NUMBER_PLUS_FORMAT.format(value);
+		return NUMBER_PLUS_FORMAT.get().format(value);
 	}
 }